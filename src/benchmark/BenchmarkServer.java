@@ -0,0 +1,73 @@
+package benchmark;
+
+import server.Server;
+import server.ServerConfig;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Properties;
+import java.util.stream.Stream;
+
+/**
+ * Servidor en el mismo proceso que la prueba, escuchando en un puerto libre de la interfaz local y con
+ * una carpeta de servicios temporal. Silencia la salida estándar mientras está activo, porque el servidor
+ * escribe una línea por comando y eso falsearía las medidas.
+ */
+final class BenchmarkServer implements Closeable {
+
+    private final Path servicesDir;
+    private final ServerSocketChannel channel;
+    private final PrintStream originalOut = System.out;
+
+    BenchmarkServer(String engine, Path... jars) throws IOException {
+        this.servicesDir = Files.createTempDirectory("benchmark-services");
+        for (Path jar : jars) {
+            Files.copy(jar, servicesDir.resolve(jar.getFileName()));
+        }
+        Properties properties = new Properties();
+        properties.setProperty("server.engine", engine);
+        properties.setProperty("server.servicesDir", servicesDir.toString());
+        properties.setProperty("server.watchServices", "false");
+
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        Server server = new Server(new ServerConfig(properties));
+        server.start();
+        this.channel = ServerSocketChannel.open().bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        Thread acceptor = new Thread(() -> {
+            try {
+                server.serve(channel);
+            } catch (IOException ignored) {
+                // El canal se ha cerrado al terminar la prueba
+            }
+        }, "benchmark-server");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    int getPort() throws IOException {
+        return ((InetSocketAddress) channel.getLocalAddress()).getPort();
+    }
+
+    Path getServicesDir() {
+        return servicesDir;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+        System.setOut(originalOut);
+        try (Stream<Path> files = Files.walk(servicesDir)) {
+            for (Path file : files.sorted(Comparator.reverseOrder()).toList()) {
+                Files.deleteIfExists(file);
+            }
+        }
+    }
+}
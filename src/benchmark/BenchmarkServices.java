@@ -0,0 +1,28 @@
+package benchmark;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Localiza los jars de los servicios de ejemplo que genera el módulo {@code sample-services}.
+ * Por defecto se buscan en {@code sample-services/target/services}, relativo a la raíz del proyecto;
+ * {@code -Dbenchmark.servicesDir=...} permite usar otra carpeta.
+ */
+final class BenchmarkServices {
+
+    static final String GREETING_SERVICE = "GreetingService.jar";
+
+    private BenchmarkServices() {
+    }
+
+    static Path jar(String name) throws IOException {
+        Path dir = Path.of(System.getProperty("benchmark.servicesDir", "sample-services/target/services"));
+        Path jar = dir.resolve(name);
+        if (!Files.isRegularFile(jar)) {
+            throw new IOException("No se encontró " + jar.toAbsolutePath()
+                    + ". Ejecute 'mvn package' y lance las pruebas desde la raíz del proyecto.");
+        }
+        return jar;
+    }
+}
@@ -0,0 +1,74 @@
+package benchmark;
+
+import client.ServerConnection;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Ida y vuelta de un comando a través del servidor por la interfaz local, con cada protocolo y cada
+ * motor de conexiones. Cada hilo de la prueba usa su propia conexión.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RoundTripBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class ServerState {
+
+        @Param({"virtual", "selector"})
+        public String engine;
+
+        BenchmarkServer server;
+
+        @Setup
+        public void setup() throws Exception {
+            server = new BenchmarkServer(engine, BenchmarkServices.jar(BenchmarkServices.GREETING_SERVICE));
+        }
+
+        @TearDown
+        public void tearDown() throws Exception {
+            server.close();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class ConnectionState {
+
+        @Param({"binario", "texto"})
+        public String protocol;
+
+        ServerConnection connection;
+        String serviceName;
+
+        @Setup
+        public void setup(ServerState serverState) throws Exception {
+            connection = new ServerConnection("localhost", serverState.server.getPort(), "binario".equals(protocol));
+            serviceName = connection.activateService(0);
+        }
+
+        @TearDown
+        public void tearDown() throws Exception {
+            connection.exit();
+            connection.close();
+        }
+    }
+
+    @Benchmark
+    public String executeService(ConnectionState state) throws Exception {
+        return state.connection.execute("benchmark");
+    }
+
+    @Benchmark
+    public String executeByName(ConnectionState state) throws Exception {
+        return state.connection.execute(state.serviceName, "benchmark");
+    }
+
+    @Benchmark
+    public Object listServices(ConnectionState state) throws Exception {
+        return state.connection.listServices();
+    }
+}
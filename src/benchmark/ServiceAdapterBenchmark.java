@@ -0,0 +1,71 @@
+package benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import server.ServiceAdapter;
+import server.ServiceLoader;
+
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import java.util.jar.JarFile;
+
+/**
+ * Coste por llamada del adaptador de servicios ({@code MethodHandle} resuelto al cargar) frente a la
+ * invocación reflexiva que usaba antes ({@code getMethod} + {@code Method.invoke} en cada llamada)
+ * y frente a {@code Method.invoke} con el método ya resuelto.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ServiceAdapterBenchmark {
+
+    private static final String INPUT = "benchmark";
+
+    private ServiceAdapter adapter;
+    private URLClassLoader reflectiveLoader;
+    private Object serviceInstance;
+    private Class<?> serviceClass;
+    private Method executeMethod;
+
+    @Setup
+    public void setup() throws Exception {
+        Path jar = BenchmarkServices.jar(BenchmarkServices.GREETING_SERVICE);
+        adapter = ServiceLoader.loadService(jar.toString());
+
+        reflectiveLoader = new URLClassLoader(new URL[]{jar.toUri().toURL()});
+        String className;
+        try (JarFile jarFile = new JarFile(jar.toFile())) {
+            className = jarFile.getManifest().getMainAttributes().getValue("Service-Class");
+        }
+        serviceClass = reflectiveLoader.loadClass(className);
+        serviceInstance = serviceClass.getConstructor().newInstance();
+        executeMethod = serviceClass.getMethod("execute", String.class);
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        adapter.close();
+        reflectiveLoader.close();
+    }
+
+    @Benchmark
+    public String reflectiveLookupAndInvoke() throws Exception {
+        Method method = serviceClass.getMethod("execute", String.class);
+        return (String) method.invoke(serviceInstance, INPUT);
+    }
+
+    @Benchmark
+    public String reflectiveInvoke() throws Exception {
+        return (String) executeMethod.invoke(serviceInstance, INPUT);
+    }
+
+    @Benchmark
+    public String serviceAdapter() {
+        return adapter.execute(INPUT);
+    }
+}
@@ -0,0 +1,34 @@
+package benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import server.ServiceAdapter;
+import server.ServiceLoader;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Coste de cargar un servicio desde su jar: leer el manifiesto, crear el class loader, cargar e
+ * instanciar la clase y resolver sus métodos. Cada operación cierra el servicio cargado.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ServiceLoaderBenchmark {
+
+    private String jarPath;
+
+    @Setup
+    public void setup() throws Exception {
+        jarPath = BenchmarkServices.jar(BenchmarkServices.GREETING_SERVICE).toString();
+    }
+
+    @Benchmark
+    public String loadService() throws Exception {
+        try (ServiceAdapter adapter = ServiceLoader.loadService(jarPath)) {
+            return adapter.getName();
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package benchmark;
+
+import client.ServerConnection;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Enumeration;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.JarOutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+
+/**
+ * Subida de un jar al servidor con {@code UPLOAD_JAR}: transferencia, verificación del SHA-256,
+ * publicación atómica y comprobación de la recarga. El jar es el de {@code GreetingService} con un
+ * fichero de datos aleatorios añadido hasta alcanzar el tamaño indicado.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class UploadBenchmark {
+
+    @Param({"1048576", "16777216"})
+    public int size;
+
+    private BenchmarkServer server;
+    private ServerConnection connection;
+    private Path jar;
+
+    @Setup
+    public void setup() throws Exception {
+        server = new BenchmarkServer("virtual");
+        connection = new ServerConnection("localhost", server.getPort());
+        jar = Files.createTempFile("UploadBenchmark", ".jar");
+        writeJar(BenchmarkServices.jar(BenchmarkServices.GREETING_SERVICE), jar, size);
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        connection.exit();
+        connection.close();
+        server.close();
+        Files.deleteIfExists(jar);
+    }
+
+    @Benchmark
+    public String uploadJar() throws Exception {
+        return connection.uploadJar(jar.toFile());
+    }
+
+    private static void writeJar(Path source, Path target, int size) throws IOException {
+        try (JarFile in = new JarFile(source.toFile());
+             JarOutputStream out = new JarOutputStream(Files.newOutputStream(target), in.getManifest())) {
+            Enumeration<JarEntry> entries = in.entries();
+            while (entries.hasMoreElements()) {
+                JarEntry entry = entries.nextElement();
+                if (entry.getName().startsWith("META-INF/")) {
+                    continue;
+                }
+                out.putNextEntry(new JarEntry(entry.getName()));
+                try (InputStream data = in.getInputStream(entry)) {
+                    data.transferTo(out);
+                }
+                out.closeEntry();
+            }
+            // Datos sin comprimir, para que el jar tenga el tamaño indicado
+            byte[] payload = new byte[Math.max(0, size - (int) Files.size(source))];
+            new Random(42).nextBytes(payload);
+            CRC32 crc = new CRC32();
+            crc.update(payload);
+            ZipEntry entry = new ZipEntry("payload.bin");
+            entry.setMethod(ZipEntry.STORED);
+            entry.setSize(payload.length);
+            entry.setCrc(crc.getValue());
+            out.putNextEntry(entry);
+            out.write(payload);
+            out.closeEntry();
+        }
+    }
+}
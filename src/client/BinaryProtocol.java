@@ -0,0 +1,53 @@
+package client;
+
+/**
+ * Constantes del protocolo binario. Este fichero debe coincidir con {@code server.BinaryProtocol},
+ * donde se describe el formato de las tramas.
+ */
+final class BinaryProtocol {
+
+    static final String NEGOTIATION_COMMAND = "PROTOCOL_BINARY/";
+    static final int VERSION = 7;
+
+    // Códigos de operación
+    static final byte LIST_SERVICES = 1;
+    static final byte ACTIVE_SERVICE = 2;
+    static final byte EXECUTE_SERVICE = 3;
+    static final byte GET_INSTRUCTIONS = 4;
+    static final byte UPLOAD_JAR = 5;
+    static final byte DEACTIVATE_SERVICE = 6;
+    static final byte RELOAD_SERVICES = 7;
+    static final byte EXIT = 8;
+    // Versión 2: int n | n cadenas -> int n | n × (byte estado | cadena)
+    static final byte EXECUTE_BATCH = 9;
+    // Versión 3: cadena nombre | cadena sha256 | long tamaño -> long bytes ya recibidos
+    static final byte UPLOAD_STATUS = 10;
+    // Versión 3: cadena nombre | cadena sha256 | long tamaño | long desde, seguido de los bytes restantes
+    static final byte UPLOAD_RESUME = 11;
+    // -> cadena con las estadísticas del servidor
+    static final byte STATS = 12;
+    // Versión 4: cadena nombre[@versión] | cadena entrada -> cadena resultado, sin activar el servicio
+    static final byte EXECUTE_BY_NAME = 13;
+    // Versión 5: cadena nombre[@versión] -> respuestas CONTINUE con bytes de la salida y una final OK con el resto
+    static final byte EXECUTE_STREAM = 14;
+    // Versión 5: bytes de la entrada de un EXECUTE_STREAM con el mismo id, sin respuesta
+    static final byte STREAM_DATA = 15;
+    // Versión 5: byte 1 si la entrada está completa o 0 si el cliente la cancela, sin respuesta
+    static final byte STREAM_END = 16;
+    // Versión 6: cadena definición | cadena entrada -> cadena resultado de la última etapa
+    static final byte EXECUTE_PIPELINE = 17;
+
+    // Estados de respuesta
+    static final byte STATUS_OK = 0;
+    static final byte STATUS_ERROR = 1;
+    // El servicio tiene su cola llena: la petición no se ha ejecutado y se puede reintentar
+    static final byte STATUS_BUSY = 2;
+    // Parte de la salida de un EXECUTE_STREAM: seguirán más respuestas con el mismo id
+    static final byte STATUS_CONTINUE = 3;
+    // Versión 7: la petición supera un límite de peticiones del cliente o de ejecuciones del servidor y no se
+    // ha ejecutado: cadena mensaje | long milisegundos que conviene esperar antes de reintentarla
+    static final byte STATUS_RATE_LIMITED = 4;
+
+    private BinaryProtocol() {
+    }
+}
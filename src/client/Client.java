@@ -1,8 +1,11 @@
 package client;
 
 import java.io.*;
-import java.net.*;
+import java.net.UnixDomainSocketAddress;
+import java.nio.file.Path;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
 
 public class Client {
 
@@ -11,14 +14,21 @@ public class Client {
     private static final String LOCAL_SERVICES_PATH = "local-services";
 
     public static void main(String[] args) {
+        // --load: generador de carga sin menú, configurado con -Dload.* (ver LoadConfig)
+        if (args.length > 0 && args[0].equals("--load")) {
+            LoadGenerator.main(args);
+            return;
+        }
         Scanner scanner = new Scanner(System.in);
+        // -Dclient.binary=false fuerza el protocolo de texto
+        boolean binary = Boolean.parseBoolean(System.getProperty("client.binary", "true"));
 
-        try (Socket socket = new Socket(SERVER_ADDRESS, SERVER_PORT);
-             DataOutputStream dataOut = new DataOutputStream(socket.getOutputStream());
-             DataInputStream dataIn = new DataInputStream(socket.getInputStream())) {
+        // El cliente interactivo solo necesita una conexión
+        try (ServiceClient client = connect(binary)) {
 
-            // Leer mensaje inicial del servidor
-            System.out.println(dataIn.readUTF());
+            // Mostrar mensaje inicial del servidor
+            System.out.println(client.getGreeting());
+            System.out.println("Protocolo: " + (client.isBinary() ? "binario" : "texto"));
 
             int mainMenuOption;
             do {
@@ -27,53 +37,49 @@ public class Client {
                 System.out.println("2. Ejecutar un servicio");
                 System.out.println("3. Subir un nuevo servicio");
                 System.out.println("4. Refrescar lista de servicios");
-                System.out.println("5. Salir");
+                System.out.println("5. Ver estadísticas del servidor");
+                System.out.println("6. Salir");
                 System.out.print("Opción: ");
                 mainMenuOption = scanner.nextInt();
                 scanner.nextLine(); // Consumir salto de línea
 
                 switch (mainMenuOption) {
                     case 1:
-                        showServicesFromServer(dataOut, dataIn);
+                        showServicesFromServer(client);
                         break;
                     case 2:
-                        showServicesFromServer(dataOut, dataIn);
+                        List<String> services = showServicesFromServer(client);
 
                         System.out.print("Índice del servicio: ");
                         int activeServiceIndex = scanner.nextInt();
                         scanner.nextLine();
 
-                        dataOut.writeUTF("ACTIVE_SERVICE");
-                        dataOut.writeInt(activeServiceIndex - 1);
-                        dataOut.flush();
-
-                        String serverResponse = dataIn.readUTF();
-                        if ("null".equals(serverResponse)) {
+                        if (activeServiceIndex < 1 || activeServiceIndex > services.size()) {
                             System.out.println("Índice no válido. Volviendo al menú principal.");
                             break;
                         }
+                        String serviceName = services.get(activeServiceIndex - 1);
 
-                        System.out.println("\nEstá ejecutando el servicio: " + serverResponse);
-                        serviceMenu(scanner, serverResponse, dataOut, dataIn);
+                        System.out.println("\nEstá ejecutando el servicio: " + serviceName);
+                        serviceMenu(scanner, serviceName, client);
                         break;
                     case 3:
-                        uploadJarFile(scanner, dataOut, dataIn);
+                        uploadJarFile(scanner, client);
                         break;
                     case 4:
-                        dataOut.writeUTF("RELOAD_SERVICES");
-                        dataOut.flush();
-                        System.out.println(dataIn.readUTF());
+                        System.out.println(await(client.reloadServices()));
                         break;
                     case 5:
+                        System.out.print(await(client.getStats()));
+                        break;
+                    case 6:
                         System.out.println("Saliendo del cliente. ¡Hasta luego!");
-                        dataOut.writeUTF("EXIT");
-                        dataOut.flush();
                         break;
                     default:
                         System.out.println("Opción no válida. Intente de nuevo.");
                 }
 
-            } while (mainMenuOption != 5);
+            } while (mainMenuOption != 6);
 
         } catch (IOException e) {
             System.err.println("Error al conectar con el servidor: " + e.getMessage());
@@ -83,18 +89,35 @@ public class Client {
         scanner.close();
     }
 
-    private static void showServicesFromServer(DataOutputStream dataOut, DataInputStream dataIn) throws IOException {
-        dataOut.writeUTF("LIST_SERVICES");
-        dataOut.flush();
+    /**
+     * Conecta por el socket de dominio Unix del servidor si se ha indicado con -Dclient.socketPath, que evita
+     * la pila TCP cuando el servidor está en la misma máquina. Si no se ha indicado o no responde, usa TCP.
+     */
+    private static ServiceClient connect(boolean binary) throws IOException {
+        String socketPath = System.getProperty("client.socketPath", "").trim();
+        if (!socketPath.isEmpty()) {
+            try {
+                ServiceClient client = new ServiceClient(UnixDomainSocketAddress.of(Path.of(socketPath)), 1, binary);
+                System.out.println("Conectado por el socket local " + socketPath);
+                return client;
+            } catch (IOException e) {
+                System.out.println("No se pudo conectar por el socket local " + socketPath + " (" + e.getMessage()
+                        + "); se usa TCP.");
+            }
+        }
+        return new ServiceClient(SERVER_ADDRESS, SERVER_PORT, 1, binary);
+    }
 
-        int serviceCount = dataIn.readInt();
+    private static List<String> showServicesFromServer(ServiceClient client) throws IOException {
+        List<String> services = await(client.listServices());
         System.out.println("\nServicios disponibles:");
-        for (int i = 0; i < serviceCount; i++) {
-            System.out.println((i + 1) + ". " + dataIn.readUTF());
+        for (int i = 0; i < services.size(); i++) {
+            System.out.println((i + 1) + ". " + services.get(i));
         }
+        return services;
     }
 
-    private static void serviceMenu(Scanner scanner, String serviceName, DataOutputStream dataOut, DataInputStream dataIn) throws IOException {
+    private static void serviceMenu(Scanner scanner, String serviceName, ServiceClient client) throws IOException {
         int serviceMenuOption;
         do {
             System.out.println("\nMenú del servicio activo: " + serviceName);
@@ -105,31 +128,28 @@ public class Client {
             serviceMenuOption = scanner.nextInt();
             scanner.nextLine();
 
-            switch (serviceMenuOption) {
-                case 1:
-                    dataOut.writeUTF("GET_INSTRUCTIONS");
-                    dataOut.flush();
-                    System.out.println("Instrucciones: " + dataIn.readUTF());
-                    break;
-                case 2:
-                    System.out.print("✏️ Ingrese una cadena para enviar al servicio: ");
-                    String input = scanner.nextLine();
-                    dataOut.writeUTF("EXECUTE_SERVICE");
-                    dataOut.writeUTF(input);
-                    dataOut.flush();
-                    System.out.println("\uD83D\uDCAC Respuesta: " + dataIn.readUTF());
-                    break;
-                case 3:
-                    dataOut.writeUTF("DEACTIVATE_SERVICE");
-                    dataOut.flush();
-                    break;
-                default:
-                    System.out.println("Opción no válida.");
+            try {
+                switch (serviceMenuOption) {
+                    case 1:
+                        System.out.println("Instrucciones: " + await(client.getInstructions(serviceName)));
+                        break;
+                    case 2:
+                        System.out.print("✏️ Ingrese una cadena para enviar al servicio: ");
+                        String input = scanner.nextLine();
+                        System.out.println("\uD83D\uDCAC Respuesta: " + await(client.execute(serviceName, input)));
+                        break;
+                    case 3:
+                        break;
+                    default:
+                        System.out.println("Opción no válida.");
+                }
+            } catch (ServerException e) {
+                System.out.println("Error del servidor: " + e.getMessage());
             }
         } while (serviceMenuOption != 3);
     }
 
-    private static void uploadJarFile(Scanner scanner, DataOutputStream dataOut, DataInputStream dataIn) throws IOException {
+    private static void uploadJarFile(Scanner scanner, ServiceClient client) throws IOException {
         File folder = new File(LOCAL_SERVICES_PATH);
         File[] jarFiles = folder.listFiles((dir, name) -> name.endsWith(".jar"));
 
@@ -154,24 +174,28 @@ public class Client {
         File selectedFile = jarFiles[selectedIndex - 1];
         System.out.println("Seleccionado: " + selectedFile.getName());
 
-        // Enviar comando, nombre y tamaño
-        dataOut.writeUTF("UPLOAD_JAR");
-        dataOut.writeUTF(selectedFile.getName());
-        long fileSize = selectedFile.length();
-        dataOut.writeLong(fileSize);
-        dataOut.flush();
-
-        // Enviar contenido del archivo
-        try (BufferedInputStream bis = new BufferedInputStream(new FileInputStream(selectedFile))) {
-            byte[] buffer = new byte[4096];
-            int read;
-            while ((read = bis.read(buffer)) != -1) {
-                dataOut.write(buffer, 0, read);
-            }
-            dataOut.flush();
+        // Subir el archivo y mostrar la confirmación del servidor
+        try {
+            System.out.println(await(client.upload(selectedFile)));
+        } catch (ServerException e) {
+            System.out.println("El servidor ha rechazado el archivo: " + e.getMessage());
         }
+    }
 
-        // Leer confirmación del servidor
-        System.out.println(dataIn.readUTF());
+    /**
+     * Espera el resultado de una llamada al servidor.
+     */
+    private static <T> T await(CompletableFuture<T> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrumpido esperando la respuesta del servidor.");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException io) {
+                throw io;
+            }
+            throw new IOException(e.getCause());
+        }
     }
 }
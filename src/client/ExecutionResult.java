@@ -0,0 +1,16 @@
+package client;
+
+/**
+ * Resultado de una de las entradas de una ejecución por lotes.
+ * @param value La salida del servicio o, si ha fallado, el mensaje de error del servidor.
+ */
+public record ExecutionResult(boolean isSuccess, String value) {
+
+    public static ExecutionResult success(String value) {
+        return new ExecutionResult(true, value);
+    }
+
+    public static ExecutionResult failure(String message) {
+        return new ExecutionResult(false, message);
+    }
+}
@@ -0,0 +1,151 @@
+package client;
+
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.UnixDomainSocketAddress;
+import java.nio.file.Path;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * Configuración del generador de carga. Los valores se leen de las propiedades del sistema
+ * (por ejemplo {@code java -Dload.connections=64 -Dload.rate=5000 client.Client --load}).
+ */
+class LoadConfig {
+
+    /** Comandos que puede enviar el generador de carga. */
+    enum Operation {
+        LIST_SERVICES, ACTIVE_SERVICE, EXECUTE_SERVICE
+    }
+
+    private final String host;
+    private final int port;
+    private final String socketPath;
+    private final boolean binary;
+    private final int connections;
+    private final int rate;
+    private final int durationSeconds;
+    private final int warmupSeconds;
+    private final Map<Operation, Integer> mix;
+    private final int serviceIndex;
+    private final String input;
+
+    LoadConfig(Properties properties) {
+        this.host = properties.getProperty("load.host", "localhost");
+        this.port = intProperty(properties, "load.port", 12345);
+        String socketPath = properties.getProperty("client.socketPath", "").trim();
+        this.socketPath = socketPath.isEmpty() ? null : socketPath;
+        this.binary = Boolean.parseBoolean(properties.getProperty("client.binary", "true"));
+        this.connections = intProperty(properties, "load.connections", 16);
+        this.rate = intProperty(properties, "load.rate", 0);
+        this.durationSeconds = intProperty(properties, "load.duration", 30);
+        this.warmupSeconds = intProperty(properties, "load.warmup", 5);
+        this.mix = parseMix(properties.getProperty("load.mix", "EXECUTE_SERVICE=8,LIST_SERVICES=1,ACTIVE_SERVICE=1"));
+        this.serviceIndex = intProperty(properties, "load.service", 1);
+        this.input = properties.getProperty("load.input", "hola");
+
+        if (connections < 1 || durationSeconds < 1 || warmupSeconds < 0 || rate < 0 || serviceIndex < 1) {
+            throw new IllegalArgumentException("Configuración de carga no válida.");
+        }
+    }
+
+    static LoadConfig fromSystemProperties() {
+        return new LoadConfig(System.getProperties());
+    }
+
+    private static int intProperty(Properties properties, String name, int defaultValue) {
+        String value = properties.getProperty(name);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Valor no válido para " + name + ": " + value);
+        }
+    }
+
+    /**
+     * Lee una mezcla de la forma {@code COMANDO=peso,COMANDO=peso}. Los comandos que no aparecen tienen peso 0.
+     */
+    private static Map<Operation, Integer> parseMix(String value) {
+        Map<Operation, Integer> mix = new EnumMap<>(Operation.class);
+        int total = 0;
+        for (String part : value.split(",")) {
+            String[] pair = part.trim().split("=");
+            try {
+                Operation operation = Operation.valueOf(pair[0].trim().toUpperCase());
+                int weight = pair.length > 1 ? Integer.parseInt(pair[1].trim()) : 1;
+                if (weight < 0) {
+                    throw new NumberFormatException();
+                }
+                mix.put(operation, weight);
+                total += weight;
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Valor no válido para load.mix: " + value);
+            }
+        }
+        if (total == 0) {
+            throw new IllegalArgumentException("load.mix no contiene ningún comando con peso.");
+        }
+        return mix;
+    }
+
+    /**
+     * Dirección a la que se conecta la carga: el socket de dominio Unix si se ha indicado
+     * ({@code -Dclient.socketPath}) y si no el puerto TCP.
+     */
+    SocketAddress getAddress() {
+        return socketPath != null ? UnixDomainSocketAddress.of(Path.of(socketPath)) : new InetSocketAddress(host, port);
+    }
+
+    /**
+     * Descripción de la dirección para el informe.
+     */
+    String getTarget() {
+        return socketPath != null ? socketPath : host + ":" + port;
+    }
+
+    boolean isBinary() {
+        return binary;
+    }
+
+    int getConnections() {
+        return connections;
+    }
+
+    /**
+     * Peticiones por segundo entre todas las conexiones, o 0 para el modo de lazo cerrado: cada conexión
+     * envía su siguiente petición en cuanto recibe la respuesta de la anterior.
+     */
+    int getRate() {
+        return rate;
+    }
+
+    int getDurationSeconds() {
+        return durationSeconds;
+    }
+
+    /**
+     * Segundos iniciales cuyas peticiones no se incluyen en el informe.
+     */
+    int getWarmupSeconds() {
+        return warmupSeconds;
+    }
+
+    Map<Operation, Integer> getMix() {
+        return mix;
+    }
+
+    /**
+     * Servicio que activa cada conexión, empezando en 1 como en el menú del cliente.
+     */
+    int getServiceIndex() {
+        return serviceIndex;
+    }
+
+    String getInput() {
+        return input;
+    }
+}
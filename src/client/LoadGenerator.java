@@ -0,0 +1,305 @@
+package client;
+
+import client.LoadConfig.Operation;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Generador de carga sin interfaz: abre varias conexiones con el servidor y envía una mezcla de
+ * {@code LIST_SERVICES}, {@code ACTIVE_SERVICE} y {@code EXECUTE_SERVICE} con {@link ServerConnection}.
+ * <p>
+ * Tiene dos modos:
+ * <ul>
+ *   <li>Lazo cerrado ({@code load.rate=0}): cada conexión envía la siguiente petición en cuanto recibe
+ *       la respuesta. Mide el rendimiento máximo.</li>
+ *   <li>Lazo abierto ({@code load.rate=N}): las peticiones se programan a un ritmo fijo de N por segundo,
+ *       repartidas entre las conexiones, tarde lo que tarde el servidor. Cada una se envía a su hora desde su
+ *       propio hilo virtual, sin esperar la respuesta de las anteriores; con peticiones encadenadas comparten
+ *       la conexión en paralelo.</li>
+ * </ul>
+ * En lazo abierto la latencia de respuesta se mide desde el instante en que la petición debía enviarse y
+ * no desde que se envió. Si la conexión no admite peticiones encadenadas, cada petición espera a que termine
+ * la anterior y esa espera también cuenta; sin esta corrección (omisión coordinada) los percentiles altos
+ * ocultarían las paradas. El tiempo de servicio, medido desde el envío, se muestra aparte.
+ * <p>
+ * Las peticiones por segundo se calculan con el tiempo real de la medida: desde el primer envío medido hasta
+ * la última respuesta.
+ */
+class LoadGenerator {
+
+    private static final long REPORT_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private final LoadConfig config;
+    private final Operation[] schedule;
+    private final Map<Operation, Stats> stats = new EnumMap<>(Operation.class);
+    private final LongAdder completed = new LongAdder();
+    private final LongAdder failedConnections = new LongAdder();
+    // Primer envío y última respuesta de las peticiones medidas
+    private final LongAccumulator firstSent = new LongAccumulator(Math::min, Long.MAX_VALUE);
+    private final LongAccumulator lastDone = new LongAccumulator(Math::max, Long.MIN_VALUE);
+
+    LoadGenerator(LoadConfig config) {
+        this.config = config;
+        this.schedule = buildSchedule(config.getMix());
+        for (Operation operation : Operation.values()) {
+            stats.put(operation, new Stats());
+        }
+    }
+
+    static void main(String[] args) {
+        try {
+            new LoadGenerator(LoadConfig.fromSystemProperties()).run();
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+        } catch (IOException e) {
+            System.err.println("Error al conectar con el servidor: " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Abre las conexiones, genera la carga durante el tiempo configurado y muestra el informe.
+     */
+    void run() throws IOException, InterruptedException {
+        List<ServerConnection> connections = new ArrayList<>();
+        try {
+            for (int i = 0; i < config.getConnections(); i++) {
+                ServerConnection connection = new ServerConnection(config.getAddress(), config.isBinary());
+                connections.add(connection);
+                connection.activateService(config.getServiceIndex() - 1);
+            }
+            System.out.println("Carga contra " + config.getTarget() + ": "
+                    + config.getConnections() + " conexiones, "
+                    + (config.getRate() > 0 ? config.getRate() + " peticiones/s" : "lazo cerrado")
+                    + ", protocolo " + (connections.getFirst().isBinary() ? "binario" : "texto")
+                    + ", " + config.getWarmupSeconds() + " s de calentamiento y " + config.getDurationSeconds() + " s de medida.");
+
+            long start = System.nanoTime();
+            long measureFrom = start + TimeUnit.SECONDS.toNanos(config.getWarmupSeconds());
+            long end = measureFrom + TimeUnit.SECONDS.toNanos(config.getDurationSeconds());
+            // Cada conexión envía una de cada N peticiones, desplazada para no enviarlas todas a la vez
+            long interval = config.getRate() > 0 ? TimeUnit.SECONDS.toNanos(config.getConnections()) / config.getRate() : 0;
+
+            // Al cerrarse espera a las peticiones del lazo abierto que siguen en curso
+            try (ExecutorService requests = Executors.newVirtualThreadPerTaskExecutor()) {
+                List<Thread> workers = new ArrayList<>();
+                for (int i = 0; i < connections.size(); i++) {
+                    ServerConnection connection = connections.get(i);
+                    long first = start + interval * i / connections.size();
+                    workers.add(Thread.ofVirtual().name("carga-" + i).start(interval > 0
+                            ? () -> schedule(connection, first, interval, measureFrom, end, requests)
+                            : () -> generate(connection, measureFrom, end)));
+                }
+                printProgress(start, end);
+                for (Thread worker : workers) {
+                    worker.join();
+                }
+            }
+            printReport();
+        } finally {
+            for (ServerConnection connection : connections) {
+                try {
+                    connection.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+
+    /**
+     * Lazo cerrado: envía la siguiente petición en cuanto recibe la respuesta.
+     */
+    private void generate(ServerConnection connection, long measureFrom, long end) {
+        long intended;
+        while ((intended = System.nanoTime()) - end < 0) {
+            long retryAfterMillis;
+            try {
+                retryAfterMillis = request(connection, intended, measureFrom);
+            } catch (IOException e) {
+                // La conexión ya no se puede usar
+                failedConnections.increment();
+                return;
+            }
+            // Cada conexión es un cliente que respeta la espera que le indica el servidor
+            if (retryAfterMillis > 0) {
+                LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(retryAfterMillis));
+            }
+        }
+    }
+
+    /**
+     * Lazo abierto: envía cada petición a su hora en un hilo virtual propio, aunque las anteriores no hayan
+     * terminado. Si el servidor rechaza peticiones se sigue enviando, para medir cuánto se rechaza.
+     */
+    private void schedule(ServerConnection connection, long first, long interval, long measureFrom, long end,
+                          ExecutorService requests) {
+        for (long intended = first; intended - end < 0; intended += interval) {
+            long wait;
+            while ((wait = intended - System.nanoTime()) > 0) {
+                LockSupport.parkNanos(wait);
+            }
+            if (!connection.isOpen()) {
+                failedConnections.increment();
+                return;
+            }
+            long at = intended;
+            requests.execute(() -> {
+                try {
+                    request(connection, at, measureFrom);
+                } catch (IOException ignored) {
+                    // La conexión ya no se puede usar: el siguiente envío lo detecta
+                }
+            });
+        }
+    }
+
+    /**
+     * Envía una petición de la mezcla y anota su resultado.
+     * @param intended Instante en que debía enviarse.
+     * @return La espera en milisegundos que indica el servidor si la ha rechazado por sus límites, o 0.
+     * @throws IOException si la conexión ya no se puede usar.
+     */
+    private long request(ServerConnection connection, long intended, long measureFrom) throws IOException {
+        Operation operation = schedule[ThreadLocalRandom.current().nextInt(schedule.length)];
+        long sent = System.nanoTime();
+        Outcome outcome;
+        long retryAfterMillis = 0;
+        try {
+            send(connection, operation);
+            outcome = Outcome.OK;
+        } catch (ServerRateLimitedException e) {
+            outcome = Outcome.LIMITED;
+            retryAfterMillis = e.getRetryAfterMillis();
+        } catch (ServerBusyException e) {
+            outcome = Outcome.BUSY;
+        } catch (ServerException e) {
+            outcome = Outcome.ERROR;
+        }
+        long done = System.nanoTime();
+        completed.increment();
+        if (intended - measureFrom >= 0) {
+            firstSent.accumulate(sent);
+            lastDone.accumulate(done);
+            stats.get(operation).record(outcome, done - intended, done - sent);
+        }
+        return retryAfterMillis;
+    }
+
+    private void send(ServerConnection connection, Operation operation) throws IOException {
+        switch (operation) {
+            case LIST_SERVICES -> connection.listServices();
+            case ACTIVE_SERVICE -> connection.activateService(config.getServiceIndex() - 1);
+            case EXECUTE_SERVICE -> connection.execute(config.getInput());
+        }
+    }
+
+    private void printProgress(long start, long end) {
+        long last = 0;
+        for (long tick = start + REPORT_INTERVAL_NANOS; tick - end <= 0; tick += REPORT_INTERVAL_NANOS) {
+            long wait;
+            while ((wait = tick - System.nanoTime()) > 0) {
+                LockSupport.parkNanos(wait);
+            }
+            long total = completed.sum();
+            System.out.println("[" + TimeUnit.NANOSECONDS.toSeconds(tick - start) + " s] " + (total - last) + " peticiones/s");
+            last = total;
+        }
+    }
+
+    private void printReport() {
+        long measuredNanos = Math.max(1, lastDone.get() - firstSent.get());
+        System.out.println();
+        System.out.printf("%-16s %10s %10s %8s %8s %9s   %s%n", "Comando", "Peticiones", "Por seg.", "Errores", "Ocupado",
+                "Limitado", "Latencia");
+        Stats total = new Stats();
+        for (Map.Entry<Operation, Stats> entry : stats.entrySet()) {
+            Stats s = entry.getValue();
+            if (s.getCount() > 0) {
+                printRow(entry.getKey().name(), s, measuredNanos);
+                total.add(s);
+            }
+        }
+        printRow("TOTAL", total, measuredNanos);
+        if (config.getRate() == 0) {
+            System.out.println("En lazo cerrado la respuesta y el servicio coinciden: para corregir la omisión coordinada"
+                    + " indique un ritmo fijo con -Dload.rate.");
+        }
+        if (total.getCount() > 0) {
+            System.out.printf("Tiempo medido: %.2f s%n", measuredNanos / 1e9);
+        }
+        if (failedConnections.sum() > 0) {
+            System.out.println("Conexiones perdidas durante la prueba: " + failedConnections.sum());
+        }
+    }
+
+    private static void printRow(String name, Stats s, long measuredNanos) {
+        long perSecond = Math.round(s.getCount() * 1e9 / measuredNanos);
+        System.out.printf("%-16s %10d %10d %8d %8d %9d   respuesta: %s%n", name, s.getCount(), perSecond,
+                s.errors.sum(), s.busy.sum(), s.limited.sum(), s.response);
+        System.out.printf("%-16s %10s %10s %8s %8s %9s   servicio:  %s%n", "", "", "", "", "", "", s.service);
+    }
+
+    /**
+     * Reparte los comandos en una tabla según su peso, para elegir uno con un solo número aleatorio.
+     */
+    private static Operation[] buildSchedule(Map<Operation, Integer> mix) {
+        List<Operation> schedule = new ArrayList<>();
+        for (Map.Entry<Operation, Integer> entry : mix.entrySet()) {
+            for (int i = 0; i < entry.getValue(); i++) {
+                schedule.add(entry.getKey());
+            }
+        }
+        return schedule.toArray(new Operation[0]);
+    }
+
+    private enum Outcome {
+        OK, ERROR, BUSY, LIMITED
+    }
+
+    private static final class Stats {
+
+        // Desde el instante programado (corregida) y desde el envío
+        private final LatencyHistogram response = new LatencyHistogram();
+        private final LatencyHistogram service = new LatencyHistogram();
+        private final LongAdder errors = new LongAdder();
+        private final LongAdder busy = new LongAdder();
+        // Rechazadas por los límites de admisión del servidor
+        private final LongAdder limited = new LongAdder();
+
+        void record(Outcome outcome, long responseNanos, long serviceNanos) {
+            response.record(responseNanos);
+            service.record(serviceNanos);
+            if (outcome == Outcome.ERROR) {
+                errors.increment();
+            } else if (outcome == Outcome.BUSY) {
+                busy.increment();
+            } else if (outcome == Outcome.LIMITED) {
+                limited.increment();
+            }
+        }
+
+        long getCount() {
+            return response.getCount();
+        }
+
+        void add(Stats other) {
+            response.add(other.response);
+            service.add(other.service);
+            errors.add(other.errors.sum());
+            busy.add(other.busy.sum());
+            limited.add(other.limited.sum());
+        }
+    }
+}
@@ -0,0 +1,14 @@
+package client;
+
+import java.io.IOException;
+
+/**
+ * Ha fallado la lectura de la entrada o la escritura de la salida locales de una ejecución en streaming. La
+ * conexión con el servidor sigue funcionando; la causa es el error original.
+ */
+public class LocalStreamException extends IOException {
+
+    public LocalStreamException(String message, IOException cause) {
+        super(message + ": " + cause.getMessage(), cause);
+    }
+}
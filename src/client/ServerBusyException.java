@@ -0,0 +1,12 @@
+package client;
+
+/**
+ * El servicio está saturado y el servidor ha rechazado la petición sin ejecutarla.
+ * Se puede reintentar más tarde.
+ */
+public class ServerBusyException extends ServerException {
+
+    public ServerBusyException(String message) {
+        super(message);
+    }
+}
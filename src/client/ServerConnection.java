@@ -0,0 +1,816 @@
+package client;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Conexión con el servidor de servicios. Tras el saludo solicita el protocolo binario y, si el servidor
+ * no lo conoce, sigue con el protocolo de texto original; los métodos funcionan igual con ambos.
+ * <p>
+ * La conexión puede ser TCP o, con un cliente en la misma máquina que el servidor, por su socket de dominio
+ * Unix ({@link java.net.UnixDomainSocketAddress}), que evita la pila TCP del bucle local. Los comandos son los mismos.
+ * <p>
+ * Con la versión 2 del protocolo binario la conexión admite peticiones encadenadas: los métodos
+ * {@code ...Async} envían la petición sin esperar la respuesta, que un hilo lector entrega a su futuro
+ * por su identificador, aunque llegue en otro orden. Con versiones anteriores, o con el protocolo de
+ * texto, cada petición espera su respuesta antes de enviar la siguiente. La clase es segura entre hilos.
+ * <p>
+ * Con la versión 5, {@link #executeStream} envía la entrada de un servicio por bloques y escribe la salida
+ * a medida que llega, para entradas y resultados que no conviene tener enteros en memoria.
+ * <p>
+ * Con la versión 6, {@link #executePipeline} encadena varios servicios en el servidor en una sola petición.
+ */
+public class ServerConnection implements Closeable {
+
+    // Tamaño máximo de cada trama STREAM_DATA
+    private static final int STREAM_CHUNK_SIZE = 64 * 1024;
+    // Tamaño máximo de una trama de respuesta: una longitud mayor indica que la conexión está corrupta
+    private static final int MAX_FRAME_SIZE = Integer.getInteger("client.maxFrameSize", 64 * 1024 * 1024);
+
+    private final SocketChannel channel;
+    private final DataInputStream dataIn;
+    private final DataOutputStream dataOut;
+    private final String greeting;
+    private final int protocolVersion;
+    // El servidor no conoce el protocolo binario: es anterior a los comandos por nombre
+    private boolean oldServer;
+    // Protege el envío de peticiones y, sin encadenamiento, también la lectura de su respuesta
+    private final ReentrantLock lock = new ReentrantLock();
+    // Búferes reutilizables para componer las peticiones y leer las respuestas síncronas
+    private ByteBuffer frame = ByteBuffer.allocate(1024);
+    private ByteBuffer response = ByteBuffer.allocate(1024);
+    // Peticiones encadenadas pendientes de respuesta, por identificador
+    private final Map<Integer, CompletableFuture<ByteBuffer>> pending = new ConcurrentHashMap<>();
+    // Destino de la salida de las ejecuciones en streaming en curso, por identificador
+    private final Map<Integer, StreamSink> streams = new ConcurrentHashMap<>();
+    private int nextRequestId;
+    private volatile IOException failure;
+
+    public ServerConnection(String host, int port) throws IOException {
+        this(host, port, true);
+    }
+
+    /**
+     * @param binary {@code false} para usar siempre el protocolo de texto.
+     */
+    public ServerConnection(String host, int port, boolean binary) throws IOException {
+        this(new InetSocketAddress(host, port), binary);
+    }
+
+    /**
+     * @param address Dirección TCP o {@link java.net.UnixDomainSocketAddress} del servidor.
+     * @param binary {@code false} para usar siempre el protocolo de texto.
+     */
+    public ServerConnection(SocketAddress address, boolean binary) throws IOException {
+        this.channel = SocketChannel.open(address);
+        this.dataIn = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel)));
+        this.dataOut = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)));
+        try {
+            // Leer mensaje inicial del servidor
+            this.greeting = dataIn.readUTF();
+            this.protocolVersion = binary ? negotiate() : 0;
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        if (isPipelined()) {
+            Thread reader = new Thread(this::readResponses, "server-connection-reader");
+            reader.setDaemon(true);
+            reader.start();
+        }
+    }
+
+    private int negotiate() throws IOException {
+        dataOut.writeUTF(BinaryProtocol.NEGOTIATION_COMMAND + BinaryProtocol.VERSION);
+        dataOut.flush();
+        String reply = dataIn.readUTF();
+        if (reply.startsWith(BinaryProtocol.NEGOTIATION_COMMAND)) {
+            return Integer.parseInt(reply.substring(BinaryProtocol.NEGOTIATION_COMMAND.length()));
+        }
+        // Servidor antiguo: "Comando no reconocido."
+        oldServer = true;
+        return 0;
+    }
+
+    public String getGreeting() {
+        return greeting;
+    }
+
+    /**
+     * @return {@code true} si la conexión usa el protocolo binario.
+     */
+    public boolean isBinary() {
+        return protocolVersion > 0;
+    }
+
+    /**
+     * @return {@code true} si se pueden enviar peticiones sin esperar a las respuestas anteriores.
+     */
+    public boolean isPipelined() {
+        return protocolVersion >= 2;
+    }
+
+    /**
+     * @return {@code true} si el servidor admite ejecutar un servicio por su nombre ({@link #execute(String, String)}).
+     */
+    public boolean supportsExecuteByName() {
+        return protocolVersion >= 4 || (protocolVersion == 0 && !oldServer);
+    }
+
+    /**
+     * @return {@code true} si el servidor admite la ejecución en streaming ({@link #executeStream}).
+     */
+    public boolean supportsStreaming() {
+        return protocolVersion >= 5;
+    }
+
+    /**
+     * @return {@code true} si el servidor admite la ejecución de pipelines ({@link #executePipeline}).
+     */
+    public boolean supportsPipelines() {
+        return protocolVersion >= 6;
+    }
+
+    /**
+     * @return {@code false} si la conexión ha fallado o se ha cerrado.
+     */
+    public boolean isOpen() {
+        return channel.isOpen() && failure == null;
+    }
+
+    public List<String> listServices() throws IOException {
+        List<String> names = new ArrayList<>();
+        if (isBinary()) {
+            ByteBuffer reply = request(BinaryProtocol.LIST_SERVICES, null);
+            int serviceCount = reply.getInt();
+            for (int i = 0; i < serviceCount; i++) {
+                names.add(readString(reply));
+            }
+            return names;
+        }
+        lock.lock();
+        try {
+            dataOut.writeUTF("LIST_SERVICES");
+            dataOut.flush();
+            int serviceCount = dataIn.readInt();
+            for (int i = 0; i < serviceCount; i++) {
+                names.add(dataIn.readUTF());
+            }
+        } finally {
+            lock.unlock();
+        }
+        return names;
+    }
+
+    /**
+     * Activa el servicio de la posición indicada (empezando en cero).
+     * @return El nombre del servicio activado.
+     * @throws ServerException si el índice no es válido.
+     */
+    public String activateService(int index) throws IOException {
+        if (isBinary()) {
+            return readString(request(BinaryProtocol.ACTIVE_SERVICE, f -> ensureCapacity(f, Integer.BYTES).putInt(index)));
+        }
+        String serverResponse = legacyRequest(out -> {
+            out.writeUTF("ACTIVE_SERVICE");
+            out.writeInt(index);
+        });
+        if ("null".equals(serverResponse)) {
+            throw new ServerException("Índice de servicio no válido.");
+        }
+        return serverResponse;
+    }
+
+    public String execute(String input) throws IOException {
+        return await(executeAsync(input));
+    }
+
+    /**
+     * Ejecuta el servicio activo sin esperar la respuesta. Con encadenamiento, las peticiones enviadas
+     * desde varios hilos se ejecutan en paralelo en el servidor.
+     */
+    public CompletableFuture<String> executeAsync(String input) {
+        if (!isBinary()) {
+            return supplySync(() -> legacyRequest(out -> {
+                out.writeUTF("EXECUTE_SERVICE");
+                out.writeUTF(input);
+            }));
+        }
+        return send(BinaryProtocol.EXECUTE_SERVICE, f -> putString(f, input)).thenApply(ServerConnection::readString);
+    }
+
+    /**
+     * Ejecuta un servicio por su nombre, o por nombre y versión ({@code "nombre@versión"}), sin cambiar el
+     * servicio activo.
+     * @throws ServerException si el servicio no existe o el servidor no admite el comando
+     * (ver {@link #supportsExecuteByName()}).
+     */
+    public String execute(String serviceName, String input) throws IOException {
+        return await(executeAsync(serviceName, input));
+    }
+
+    public CompletableFuture<String> executeAsync(String serviceName, String input) {
+        if (!supportsExecuteByName()) {
+            return CompletableFuture.failedFuture(new ServerException("El servidor no admite la ejecución por nombre."));
+        }
+        if (!isBinary()) {
+            return supplySync(() -> legacyRequest(out -> {
+                out.writeUTF("EXECUTE_BY_NAME");
+                out.writeUTF(serviceName);
+                out.writeUTF(input);
+            }));
+        }
+        return send(BinaryProtocol.EXECUTE_BY_NAME, f -> putString(putString(f, serviceName), input))
+                .thenApply(ServerConnection::readString);
+    }
+
+    /**
+     * Ejecuta un pipeline de servicios en el servidor, que pasa la salida de cada etapa a las siguientes sin
+     * enviarla al cliente. La definición es una cadena lineal ({@code "Greeting Service > Bye bye Service"}) o
+     * un grafo con una etapa por línea ({@code "id = servicio < entradas"}).
+     * @return La salida de la última etapa.
+     * @throws ServerException si la definición no es válida, alguna etapa falla o el servidor no admite el
+     * comando (ver {@link #supportsPipelines()}).
+     */
+    public String executePipeline(String definition, String input) throws IOException {
+        return await(executePipelineAsync(definition, input));
+    }
+
+    public CompletableFuture<String> executePipelineAsync(String definition, String input) {
+        if (!supportsPipelines()) {
+            return CompletableFuture.failedFuture(new ServerException("El servidor no admite la ejecución de pipelines."));
+        }
+        return send(BinaryProtocol.EXECUTE_PIPELINE, f -> putString(putString(f, definition), input))
+                .thenApply(ServerConnection::readString);
+    }
+
+    /**
+     * Ejecuta un servicio por su nombre en streaming: envía la entrada por bloques hasta su final y escribe
+     * en {@code output} la salida del servicio a medida que llega. Los servicios del servidor que no admiten
+     * streaming reciben la entrada entera como texto UTF-8. Otras peticiones de la conexión pueden seguir en
+     * curso mientras tanto. Retorna cuando el servicio ha terminado y toda su salida se ha escrito.
+     * @throws ServerException si el servicio no existe o falla; en ese caso la salida escrita puede estar
+     * incompleta. También si el servidor no admite el comando (ver {@link #supportsStreaming()}).
+     * @throws LocalStreamException si falla la lectura de {@code input} o la escritura en {@code output}; la
+     * conexión se puede seguir usando.
+     */
+    public void executeStream(String serviceName, InputStream input, OutputStream output) throws IOException {
+        if (!supportsStreaming()) {
+            throw new ServerException("El servidor no admite la ejecución en streaming.");
+        }
+        StreamSink sink = new StreamSink(output);
+        CompletableFuture<ByteBuffer> future = new CompletableFuture<>();
+        int requestId;
+        lock.lock();
+        try {
+            IOException error = failure;
+            if (error != null) {
+                throw error;
+            }
+            requestId = nextRequestId++;
+            streams.put(requestId, sink);
+            pending.put(requestId, future);
+            try {
+                writeRequest(BinaryProtocol.EXECUTE_STREAM, requestId, f -> putString(f, serviceName), null);
+            } catch (IOException e) {
+                streams.remove(requestId);
+                pending.remove(requestId);
+                throw e;
+            }
+        } finally {
+            lock.unlock();
+        }
+        try {
+            sendStreamInput(requestId, input, future);
+            await(future);
+        } finally {
+            streams.remove(requestId);
+        }
+        if (sink.error != null) {
+            throw new LocalStreamException("Error al escribir la salida", sink.error);
+        }
+        try {
+            output.flush();
+        } catch (IOException e) {
+            throw new LocalStreamException("Error al escribir la salida", e);
+        }
+    }
+
+    /**
+     * Envía la entrada en tramas {@code STREAM_DATA}, seguidas de {@code STREAM_END}. Si el servidor ya ha
+     * respondido (por ejemplo, porque el servicio no existe) deja de enviarla. Cada trama se envía con el
+     * bloqueo de la conexión, así que otras peticiones pueden intercalarse entre los bloques.
+     */
+    private void sendStreamInput(int requestId, InputStream input, CompletableFuture<ByteBuffer> future) throws IOException {
+        byte[] chunk = new byte[STREAM_CHUNK_SIZE];
+        while (!future.isDone()) {
+            int read;
+            try {
+                read = input.read(chunk);
+            } catch (IOException e) {
+                // La entrada local ha fallado: el servidor cancela la ejecución en lugar de esperar más datos
+                endStream(requestId, false);
+                throw new LocalStreamException("Error al leer la entrada", e);
+            }
+            if (read == -1) {
+                break;
+            }
+            lock.lock();
+            try {
+                writeFrame(ensureCapacity(begin(BinaryProtocol.STREAM_DATA, requestId), read).put(chunk, 0, read));
+                dataOut.flush();
+            } finally {
+                lock.unlock();
+            }
+        }
+        endStream(requestId, true);
+    }
+
+    private void endStream(int requestId, boolean complete) throws IOException {
+        lock.lock();
+        try {
+            writeRequest(BinaryProtocol.STREAM_END, requestId, f -> ensureCapacity(f, 1).put((byte) (complete ? 1 : 0)), null);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public List<ExecutionResult> executeBatch(List<String> inputs) throws IOException {
+        return await(executeBatchAsync(inputs));
+    }
+
+    /**
+     * Ejecuta el servicio activo con varias entradas en una sola petición. Sin encadenamiento
+     * (versiones antiguas del servidor), envía una petición por entrada.
+     * @return Un resultado por entrada, en el mismo orden.
+     */
+    public CompletableFuture<List<ExecutionResult>> executeBatchAsync(List<String> inputs) {
+        if (!isPipelined()) {
+            return supplySync(() -> {
+                List<ExecutionResult> results = new ArrayList<>(inputs.size());
+                for (String input : inputs) {
+                    try {
+                        results.add(ExecutionResult.success(execute(input)));
+                    } catch (ServerException e) {
+                        results.add(ExecutionResult.failure(e.getMessage()));
+                    }
+                }
+                return results;
+            });
+        }
+        return send(BinaryProtocol.EXECUTE_BATCH, f -> {
+            f = ensureCapacity(f, Integer.BYTES).putInt(inputs.size());
+            for (String input : inputs) {
+                f = putString(f, input);
+            }
+            return f;
+        }).thenApply(reply -> {
+            int count = reply.getInt();
+            List<ExecutionResult> results = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                byte status = reply.get();
+                String value = readString(reply);
+                results.add(status == BinaryProtocol.STATUS_OK ? ExecutionResult.success(value) : ExecutionResult.failure(value));
+            }
+            return results;
+        });
+    }
+
+    public String getInstructions() throws IOException {
+        if (isBinary()) {
+            return readString(request(BinaryProtocol.GET_INSTRUCTIONS, null));
+        }
+        return legacyRequest(out -> out.writeUTF("GET_INSTRUCTIONS"));
+    }
+
+    public void deactivateService() throws IOException {
+        if (isBinary()) {
+            request(BinaryProtocol.DEACTIVATE_SERVICE, null);
+            return;
+        }
+        lock.lock();
+        try {
+            dataOut.writeUTF("DEACTIVATE_SERVICE");
+            dataOut.flush();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public String reloadServices() throws IOException {
+        if (isBinary()) {
+            return readString(request(BinaryProtocol.RELOAD_SERVICES, null));
+        }
+        return legacyRequest(out -> out.writeUTF("RELOAD_SERVICES"));
+    }
+
+    /**
+     * @return Las estadísticas del servidor, una línea por servicio.
+     */
+    public String getStats() throws IOException {
+        if (isBinary()) {
+            return readString(request(BinaryProtocol.STATS, null));
+        }
+        return legacyRequest(out -> out.writeUTF("STATS"));
+    }
+
+    /**
+     * Sube un jar al servidor. El contenido se envía con {@link FileChannel#transferTo}, sin copiarlo
+     * a la memoria del proceso. Si el servidor admite la versión 3 del protocolo, el jar se verifica con
+     * su SHA-256 y, si una subida anterior del mismo jar se interrumpió, solo se envían los bytes que faltan.
+     * @return El mensaje de confirmación del servidor.
+     * @throws ServerException si el servidor rechaza el jar.
+     */
+    public String uploadJar(File jarFile) throws IOException {
+        String jarName = jarFile.getName();
+        try (FileChannel file = FileChannel.open(jarFile.toPath(), StandardOpenOption.READ)) {
+            long fileSize = file.size();
+            if (!isBinary()) {
+                return legacyRequest(out -> {
+                    // Enviar comando, nombre y tamaño
+                    out.writeUTF("UPLOAD_JAR");
+                    out.writeUTF(jarName);
+                    out.writeLong(fileSize);
+                    sendFile(file, 0, fileSize);
+                });
+            }
+            if (protocolVersion < 3) {
+                // El contenido del jar va a continuación de la trama, así que se envía con el mismo bloqueo
+                FrameBody header = f -> putString(f, jarName).putLong(fileSize);
+                return readString(request(BinaryProtocol.UPLOAD_JAR, header, () -> sendFile(file, 0, fileSize)));
+            }
+            String sha256 = sha256(file);
+            long offset = request(BinaryProtocol.UPLOAD_STATUS, f -> putString(putString(f, jarName), sha256).putLong(fileSize)).getLong();
+            FrameBody header = f -> ensureCapacity(putString(putString(f, jarName), sha256), 2 * Long.BYTES)
+                    .putLong(fileSize).putLong(offset);
+            return readString(request(BinaryProtocol.UPLOAD_RESUME, header, () -> sendFile(file, offset, fileSize)));
+        }
+    }
+
+    private void sendFile(FileChannel file, long from, long to) throws IOException {
+        // Lo que haya en el búfer del flujo debe llegar antes que el contenido
+        dataOut.flush();
+        long position = from;
+        while (position < to) {
+            position += file.transferTo(position, to - position, channel);
+        }
+    }
+
+    private static String sha256(FileChannel file) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        ByteBuffer buffer = ByteBuffer.allocateDirect(64 * 1024);
+        long position = 0;
+        int read;
+        while ((read = file.read(buffer, position)) != -1) {
+            position += read;
+            digest.update(buffer.flip());
+            buffer.clear();
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    /**
+     * Termina la sesión. El servidor responde a las peticiones pendientes y cierra la conexión.
+     */
+    public void exit() throws IOException {
+        lock.lock();
+        try {
+            if (isBinary()) {
+                writeFrame(begin(BinaryProtocol.EXIT, nextRequestId++));
+            } else {
+                dataOut.writeUTF("EXIT");
+            }
+            dataOut.flush();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+        fail(new EOFException("Conexión cerrada."));
+    }
+
+    // --- Protocolo de texto ---
+
+    private String legacyRequest(LegacyWriter writer) throws IOException {
+        lock.lock();
+        try {
+            writer.write(dataOut);
+            dataOut.flush();
+            return dataIn.readUTF();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // --- Protocolo binario ---
+
+    private ByteBuffer request(byte opcode, FrameBody body) throws IOException {
+        return request(opcode, body, null);
+    }
+
+    /**
+     * Envía una petición y espera su respuesta, con o sin encadenamiento.
+     * @param content Datos sin enmarcar que siguen a la trama, o {@code null}.
+     */
+    private ByteBuffer request(byte opcode, FrameBody body, RawContent content) throws IOException {
+        if (isPipelined()) {
+            return await(send(opcode, body, content));
+        }
+        lock.lock();
+        try {
+            writeRequest(opcode, 0, body, content);
+            return readResponse(opcode);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private CompletableFuture<ByteBuffer> send(byte opcode, FrameBody body) {
+        return send(opcode, body, null);
+    }
+
+    /**
+     * Envía una petición sin esperar la respuesta. Con encadenamiento, la respuesta la entrega el hilo
+     * lector; sin él, la petición se completa antes de retornar.
+     */
+    private CompletableFuture<ByteBuffer> send(byte opcode, FrameBody body, RawContent content) {
+        if (!isPipelined()) {
+            return supplySync(() -> request(opcode, body, content));
+        }
+        CompletableFuture<ByteBuffer> future = new CompletableFuture<>();
+        lock.lock();
+        try {
+            IOException error = failure;
+            if (error != null) {
+                throw error;
+            }
+            int requestId = nextRequestId++;
+            pending.put(requestId, future);
+            try {
+                writeRequest(opcode, requestId, body, content);
+            } catch (IOException e) {
+                pending.remove(requestId);
+                throw e;
+            }
+        } catch (IOException e) {
+            future.completeExceptionally(e);
+        } finally {
+            lock.unlock();
+        }
+        return future;
+    }
+
+    private void writeRequest(byte opcode, int requestId, FrameBody body, RawContent content) throws IOException {
+        ByteBuffer f = begin(opcode, requestId);
+        if (body != null) {
+            f = body.write(f);
+        }
+        writeFrame(f);
+        if (content != null) {
+            content.write();
+        }
+        dataOut.flush();
+    }
+
+    private ByteBuffer begin(byte opcode, int requestId) {
+        frame.clear();
+        frame.position(Integer.BYTES);
+        frame.put(opcode);
+        if (isPipelined()) {
+            frame.putInt(requestId);
+        }
+        return frame;
+    }
+
+    private ByteBuffer putString(ByteBuffer buffer, String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        // Espacio para la cadena y para un argumento numérico posterior
+        return ensureCapacity(buffer, Integer.BYTES + bytes.length + Long.BYTES).putInt(bytes.length).put(bytes);
+    }
+
+    private ByteBuffer ensureCapacity(ByteBuffer buffer, int needed) {
+        if (buffer.remaining() < needed) {
+            ByteBuffer larger = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.position() + needed));
+            larger.put(buffer.flip());
+            frame = larger;
+            return larger;
+        }
+        return buffer;
+    }
+
+    private void writeFrame(ByteBuffer buffer) throws IOException {
+        buffer.putInt(0, buffer.position() - Integer.BYTES);
+        dataOut.write(buffer.array(), 0, buffer.position());
+    }
+
+    /**
+     * Lee la trama de respuesta a una petición síncrona en el búfer de respuestas, que se reutiliza.
+     * @return Los datos de la respuesta, a continuación del estado.
+     * @throws ServerException si el servidor ha respondido con un error.
+     */
+    private ByteBuffer readResponse(byte expectedOpcode) throws IOException {
+        int length = readFrameLength(2);
+        if (response.capacity() < length) {
+            response = ByteBuffer.allocate(Math.max(length, response.capacity() * 2));
+        }
+        dataIn.readFully(response.array(), 0, length);
+        response.clear().limit(length);
+        byte opcode = response.get();
+        byte status = response.get();
+        if (opcode != expectedOpcode) {
+            throw new StreamCorruptedException("Respuesta inesperada del servidor: " + opcode);
+        }
+        if (status != BinaryProtocol.STATUS_OK) {
+            throw error(status, response);
+        }
+        return response;
+    }
+
+    /**
+     * Bucle del hilo lector: entrega cada respuesta encadenada al futuro de su petición.
+     */
+    private void readResponses() {
+        try {
+            while (true) {
+                // Código de operación, identificador y estado
+                int length = readFrameLength(1 + Integer.BYTES + 1);
+                // Cada respuesta necesita su propio búfer, porque se consume en otro hilo
+                ByteBuffer reply = ByteBuffer.allocate(length);
+                dataIn.readFully(reply.array());
+                reply.get(); // código de operación
+                int requestId = reply.getInt();
+                byte status = reply.get();
+                if (status == BinaryProtocol.STATUS_CONTINUE) {
+                    StreamSink sink = streams.get(requestId);
+                    if (sink != null) {
+                        sink.write(reply);
+                    }
+                    continue;
+                }
+                // La salida se escribe antes de completar el futuro: quien espera la recibe entera
+                StreamSink sink = streams.remove(requestId);
+                if (sink != null && status == BinaryProtocol.STATUS_OK) {
+                    sink.write(reply);
+                }
+                CompletableFuture<ByteBuffer> future = pending.remove(requestId);
+                if (future == null) {
+                    continue;
+                }
+                if (status == BinaryProtocol.STATUS_OK) {
+                    future.complete(reply);
+                } else {
+                    future.completeExceptionally(error(status, reply));
+                }
+            }
+        } catch (IOException e) {
+            fail(e);
+        } catch (Throwable e) {
+            // Una respuesta mal formada no debe dejar esperando para siempre a las peticiones pendientes
+            fail(new StreamCorruptedException("Respuesta no válida del servidor: " + e));
+            if (e instanceof Error error) {
+                throw error;
+            }
+        }
+    }
+
+    private int readFrameLength(int minimum) throws IOException {
+        int length = dataIn.readInt();
+        if (length < minimum || length > MAX_FRAME_SIZE) {
+            throw new StreamCorruptedException("Longitud de respuesta no válida: " + length);
+        }
+        return length;
+    }
+
+    /**
+     * Falla la conexión y todas sus peticiones pendientes. Las siguientes peticiones fallarán con el mismo error.
+     */
+    private void fail(IOException e) {
+        failure = e;
+        try {
+            // Desbloquea al hilo que esté enviando una petición, para que suelte el cerrojo
+            channel.close();
+        } catch (IOException ignored) {
+        }
+        lock.lock();
+        try {
+            // Con el cerrojo, ninguna petición queda registrada después de vaciar las pendientes
+            for (Integer requestId : pending.keySet()) {
+                CompletableFuture<ByteBuffer> future = pending.remove(requestId);
+                if (future != null) {
+                    future.completeExceptionally(e);
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Lee el error de una respuesta, a continuación de su estado.
+     */
+    private static ServerException error(byte status, ByteBuffer response) {
+        String message = readString(response);
+        return switch (status) {
+            case BinaryProtocol.STATUS_RATE_LIMITED -> new ServerRateLimitedException(message, response.getLong());
+            case BinaryProtocol.STATUS_BUSY -> new ServerBusyException(message);
+            default -> new ServerException(message);
+        };
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        String value = new String(buffer.array(), buffer.position(), length, StandardCharsets.UTF_8);
+        buffer.position(buffer.position() + length);
+        return value;
+    }
+
+    // --- Utilidades ---
+
+    private static <T> CompletableFuture<T> supplySync(IOSupplier<T> supplier) {
+        try {
+            return CompletableFuture.completedFuture(supplier.get());
+        } catch (IOException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    private static <T> T await(CompletableFuture<T> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrumpido esperando la respuesta del servidor.");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException io) {
+                throw io;
+            }
+            throw new IOException(e.getCause());
+        }
+    }
+
+    /**
+     * Destino de la salida de una ejecución en streaming. Si escribir falla, el resto de la salida se descarta
+     * y el error se lanza al terminar la ejecución, sin interrumpir la lectura de las demás respuestas.
+     */
+    private static final class StreamSink {
+
+        private final OutputStream output;
+        private volatile IOException error;
+
+        StreamSink(OutputStream output) {
+            this.output = output;
+        }
+
+        void write(ByteBuffer data) {
+            if (error != null) {
+                return;
+            }
+            try {
+                output.write(data.array(), data.position(), data.remaining());
+            } catch (IOException e) {
+                error = e;
+            }
+        }
+    }
+
+    private interface FrameBody {
+        ByteBuffer write(ByteBuffer frame);
+    }
+
+    private interface RawContent {
+        void write() throws IOException;
+    }
+
+    private interface LegacyWriter {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    private interface IOSupplier<T> {
+        T get() throws IOException;
+    }
+}
@@ -0,0 +1,14 @@
+package client;
+
+import java.io.IOException;
+
+/**
+ * Error devuelto por el servidor en respuesta a una petición (por ejemplo, un índice de servicio
+ * no válido). La conexión sigue siendo utilizable.
+ */
+public class ServerException extends IOException {
+
+    public ServerException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,22 @@
+package client;
+
+/**
+ * El servidor ha rechazado la petición sin ejecutarla porque supera su límite de peticiones por cliente o de
+ * ejecuciones simultáneas. Indica cuánto conviene esperar antes de reintentarla.
+ */
+public class ServerRateLimitedException extends ServerBusyException {
+
+    private final long retryAfterMillis;
+
+    public ServerRateLimitedException(String message, long retryAfterMillis) {
+        super(message);
+        this.retryAfterMillis = retryAfterMillis;
+    }
+
+    /**
+     * @return Milisegundos que el servidor recomienda esperar antes de reintentar la petición.
+     */
+    public long getRetryAfterMillis() {
+        return retryAfterMillis;
+    }
+}
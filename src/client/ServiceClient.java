@@ -0,0 +1,397 @@
+package client;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Cliente del servidor de servicios para aplicaciones con varios hilos. Mantiene un pool de conexiones
+ * persistentes y cada llamada usa la que tiene menos peticiones en curso.
+ * <p>
+ * Los servicios se indican por su nombre. Los servidores con {@code EXECUTE_BY_NAME} los ejecutan por nombre
+ * en una sola petición; con los anteriores, si la conexión elegida tiene activo otro servicio, se activa
+ * el pedido antes de enviar la petición. Las conexiones que fallan se vuelven a abrir en la siguiente
+ * llamada, y un hilo de fondo comprueba periódicamente las conexiones ociosas.
+ * <p>
+ * Todos los métodos devuelven un {@link CompletableFuture} y no bloquean a quien llama. Con el protocolo
+ * binario encadenado, varias llamadas pueden estar en curso a la vez en la misma conexión.
+ */
+public class ServiceClient implements Closeable {
+
+    private static final int DEFAULT_POOL_SIZE = 4;
+    private static final long HEALTH_CHECK_SECONDS = 10;
+
+    private final SocketAddress address;
+    private final boolean binary;
+    private final Slot[] slots;
+    // Las llamadas bloqueantes (activar un servicio, subir un jar...) se hacen en hilos virtuales
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+    private final ScheduledExecutorService healthCheck;
+    private final String greeting;
+    private final boolean binaryProtocol;
+    private volatile List<String> serviceNames = List.of();
+    private volatile boolean closed;
+
+    public ServiceClient(String host, int port) throws IOException {
+        this(host, port, DEFAULT_POOL_SIZE, true);
+    }
+
+    /**
+     * Abre todas las conexiones del pool.
+     * @param binary {@code false} para usar siempre el protocolo de texto.
+     * @throws IOException si no se puede abrir alguna conexión.
+     */
+    public ServiceClient(String host, int port, int poolSize, boolean binary) throws IOException {
+        this(new InetSocketAddress(host, port), poolSize, binary);
+    }
+
+    /**
+     * Abre todas las conexiones del pool con la dirección indicada.
+     * @param address Dirección TCP o {@link java.net.UnixDomainSocketAddress} del servidor.
+     * @param binary {@code false} para usar siempre el protocolo de texto.
+     * @throws IOException si no se puede abrir alguna conexión.
+     */
+    public ServiceClient(SocketAddress address, int poolSize, boolean binary) throws IOException {
+        if (poolSize < 1) {
+            throw new IllegalArgumentException("El pool necesita al menos una conexión.");
+        }
+        this.address = address;
+        this.binary = binary;
+        this.slots = new Slot[poolSize];
+        try {
+            for (int i = 0; i < poolSize; i++) {
+                slots[i] = new Slot();
+                slots[i].connection = new ServerConnection(address, binary);
+            }
+        } catch (IOException e) {
+            closeConnections();
+            throw e;
+        }
+        this.greeting = slots[0].connection.getGreeting();
+        this.binaryProtocol = slots[0].connection.isBinary();
+        this.healthCheck = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "service-client-health");
+            thread.setDaemon(true);
+            return thread;
+        });
+        healthCheck.scheduleWithFixedDelay(this::checkConnections, HEALTH_CHECK_SECONDS, HEALTH_CHECK_SECONDS, TimeUnit.SECONDS);
+    }
+
+    /**
+     * @return El saludo del servidor al abrir la primera conexión.
+     */
+    public String getGreeting() {
+        return greeting;
+    }
+
+    /**
+     * @return {@code true} si las conexiones usan el protocolo binario.
+     */
+    public boolean isBinary() {
+        return binaryProtocol;
+    }
+
+    public CompletableFuture<List<String>> listServices() {
+        return submit(null, connection -> {
+            List<String> names = connection.listServices();
+            serviceNames = names;
+            return CompletableFuture.completedFuture(names);
+        });
+    }
+
+    /**
+     * Ejecuta un servicio por su nombre.
+     * @return La respuesta del servicio; falla con {@link ServerException} si el servicio no existe o devuelve
+     * un error, y con {@link ServerBusyException} si está saturado; si es un {@link ServerRateLimitedException},
+     * el servidor ha aplicado sus límites de admisión e indica cuándo reintentar.
+     */
+    public CompletableFuture<String> execute(String serviceName, String input) {
+        return submit(serviceName, connection -> connection.executeAsync(input),
+                connection -> connection.executeAsync(serviceName, input));
+    }
+
+    /**
+     * Ejecuta un pipeline de servicios en el servidor (ver {@link ServerConnection#executePipeline}).
+     * @return La salida de la última etapa.
+     */
+    public CompletableFuture<String> executePipeline(String definition, String input) {
+        return submit(null, connection -> connection.executePipelineAsync(definition, input));
+    }
+
+    /**
+     * Ejecuta un servicio por su nombre en streaming (ver {@link ServerConnection#executeStream}). La conexión
+     * elegida queda reservada hasta que termina la ejecución.
+     * @return Un futuro que termina cuando toda la salida se ha escrito en {@code output}.
+     */
+    public CompletableFuture<Void> executeStream(String serviceName, InputStream input, OutputStream output) {
+        return submit(null, connection -> {
+            connection.executeStream(serviceName, input, output);
+            return CompletableFuture.completedFuture(null);
+        });
+    }
+
+    public CompletableFuture<String> getInstructions(String serviceName) {
+        return submit(serviceName, connection -> CompletableFuture.completedFuture(connection.getInstructions()));
+    }
+
+    /**
+     * Sube un jar al servidor (ver {@link ServerConnection#uploadJar}).
+     * @return El mensaje de confirmación del servidor.
+     */
+    public CompletableFuture<String> upload(File jarFile) {
+        return submit(null, connection -> CompletableFuture.completedFuture(connection.uploadJar(jarFile)));
+    }
+
+    public CompletableFuture<String> reloadServices() {
+        return submit(null, connection -> CompletableFuture.completedFuture(connection.reloadServices()));
+    }
+
+    public CompletableFuture<String> getStats() {
+        return submit(null, connection -> CompletableFuture.completedFuture(connection.getStats()));
+    }
+
+    /**
+     * Termina la sesión de todas las conexiones y las cierra. Las llamadas en curso fallan.
+     */
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        if (healthCheck != null) {
+            healthCheck.shutdownNow();
+        }
+        executor.shutdown();
+        closeConnections();
+    }
+
+    private void closeConnections() {
+        for (Slot slot : slots) {
+            if (slot != null) {
+                slot.close();
+            }
+        }
+    }
+
+    /**
+     * Envía una llamada por la conexión menos cargada. La llamada se hace en un hilo virtual con la conexión
+     * reservada: así se reabre si hace falta y la activación del servicio y la petición llegan seguidas.
+     */
+    private <T> CompletableFuture<T> submit(String serviceName, ConnectionCall<T> call) {
+        return submit(serviceName, call, null);
+    }
+
+    /**
+     * @param byName Alternativa a {@code call} que no necesita activar el servicio, para los servidores que
+     * admiten la ejecución por nombre, o {@code null}.
+     */
+    private <T> CompletableFuture<T> submit(String serviceName, ConnectionCall<T> call, ConnectionCall<T> byName) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        if (closed) {
+            result.completeExceptionally(new IOException("El cliente está cerrado."));
+            return result;
+        }
+        Slot slot = leastLoaded(serviceName);
+        slot.inFlight.incrementAndGet();
+        result.whenComplete((value, error) -> slot.inFlight.decrementAndGet());
+        Runnable task = () -> {
+            try {
+                slot.send(serviceName, call, byName).whenComplete((value, error) -> {
+                    if (error != null) {
+                        Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+                        slot.failed(cause);
+                        result.completeExceptionally(cause);
+                    } else {
+                        result.complete(value);
+                    }
+                });
+            } catch (IOException | RuntimeException e) {
+                slot.failed(e);
+                result.completeExceptionally(e);
+            }
+        };
+        try {
+            executor.execute(task);
+        } catch (RejectedExecutionException e) {
+            result.completeExceptionally(new IOException("El cliente está cerrado."));
+        }
+        return result;
+    }
+
+    /**
+     * Elige la conexión con menos peticiones en curso. Entre las empatadas prefiere una que ya tenga activo
+     * el servicio, para no tener que cambiarlo.
+     */
+    private Slot leastLoaded(String serviceName) {
+        Slot best = null;
+        int bestLoad = Integer.MAX_VALUE;
+        for (Slot slot : slots) {
+            int load = slot.inFlight.get();
+            if (load < bestLoad || (load == bestLoad && serviceName != null && serviceName.equals(slot.activeService))) {
+                best = slot;
+                bestLoad = load;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Comprueba las conexiones ociosas con una consulta de la lista de servicios y reabre las que han fallado.
+     * Cada conexión se comprueba en su propio hilo, así que una conexión bloqueada no retrasa a las demás.
+     */
+    private void checkConnections() {
+        for (Slot slot : slots) {
+            if (slot.inFlight.get() == 0) {
+                executor.execute(slot::check);
+            }
+        }
+    }
+
+    private interface ConnectionCall<T> {
+        CompletableFuture<T> send(ServerConnection connection) throws IOException;
+    }
+
+    /**
+     * Una conexión del pool. El bloqueo protege su sustitución y mantiene juntas la activación de un
+     * servicio y la petición que lo usa.
+     */
+    private final class Slot {
+
+        private final ReentrantLock lock = new ReentrantLock();
+        private final AtomicInteger inFlight = new AtomicInteger();
+        private volatile ServerConnection connection;
+        // Servicio activo en la sesión de esta conexión, o null si no se sabe
+        private volatile String activeService;
+
+        <T> CompletableFuture<T> send(String serviceName, ConnectionCall<T> call, ConnectionCall<T> byName)
+                throws IOException {
+            lock.lock();
+            try {
+                ServerConnection current = connect();
+                if (byName != null && current.supportsExecuteByName()) {
+                    return byName.send(current);
+                }
+                if (serviceName != null && !serviceName.equals(activeService)) {
+                    activate(current, serviceName);
+                }
+                return call.send(current);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private ServerConnection connect() throws IOException {
+            ServerConnection current = connection;
+            if (current == null || !current.isOpen()) {
+                if (current != null) {
+                    current.close();
+                }
+                activeService = null;
+                current = new ServerConnection(address, binary);
+                connection = current;
+            }
+            return current;
+        }
+
+        /**
+         * Activa un servicio por su nombre. Si la lista conocida está desactualizada (el servicio no aparece o
+         * el índice corresponde a otro servicio tras una recarga), la vuelve a pedir y lo intenta de nuevo.
+         */
+        private void activate(ServerConnection current, String serviceName) throws IOException {
+            activeService = null;
+            for (int attempt = 0; attempt < 2; attempt++) {
+                List<String> names = serviceNames;
+                int index = names.indexOf(serviceName);
+                if (index < 0 || attempt > 0) {
+                    names = current.listServices();
+                    serviceNames = names;
+                    index = names.indexOf(serviceName);
+                    if (index < 0) {
+                        throw new ServerException("Servicio no encontrado: " + serviceName);
+                    }
+                }
+                if (serviceName.equals(current.activateService(index))) {
+                    activeService = serviceName;
+                    return;
+                }
+            }
+            throw new ServerException("No se pudo activar el servicio: " + serviceName);
+        }
+
+        /**
+         * Si la llamada ha fallado por la conexión, y no por una respuesta de error del servidor ni por la
+         * entrada o la salida locales de un streaming, la cierra para que se vuelva a abrir en la siguiente
+         * llamada.
+         */
+        void failed(Throwable error) {
+            if (error instanceof ServerException || error instanceof LocalStreamException) {
+                return;
+            }
+            ServerConnection current = connection;
+            if (current != null && !current.isOpen()) {
+                return;
+            }
+            lock.lock();
+            try {
+                if (connection == current && current != null) {
+                    current.close();
+                }
+            } catch (IOException ignored) {
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void check() {
+            if (closed || !lock.tryLock()) {
+                return;
+            }
+            try {
+                serviceNames = connect().listServices();
+            } catch (ServerException ignored) {
+                // El servidor ha respondido: la conexión funciona
+            } catch (IOException e) {
+                ServerConnection current = connection;
+                connection = null;
+                if (current != null) {
+                    try {
+                        current.close();
+                    } catch (IOException ignored) {
+                    }
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void close() {
+            lock.lock();
+            try {
+                ServerConnection current = connection;
+                connection = null;
+                if (current != null) {
+                    try {
+                        current.exit();
+                    } catch (IOException ignored) {
+                    }
+                    current.close();
+                }
+            } catch (IOException ignored) {
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+}
@@ -0,0 +1,231 @@
+package cluster;
+
+import client.ServerConnection;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.stream.Stream;
+
+/**
+ * Prueba del modo gateway con varios procesos en la máquina local: arranca dos backends y un gateway
+ * delante de ellos, cada uno en su propia JVM y su propia carpeta, y comprueba que:
+ * <ul>
+ *   <li>miles de ejecuciones simultáneas a través del gateway terminan todas bien,</li>
+ *   <li>al detener un backend, el otro atiende todas las ejecuciones en cuanto el caído queda fuera de servicio,</li>
+ *   <li>y que el backend vuelve a recibirlas cuando se arranca de nuevo.</li>
+ * </ul>
+ * Se ejecuta con {@code mvn verify}; termina con código 1 si algo falla.
+ * <p>
+ * Uso: {@code java -cp <clases del servidor y del cliente> cluster.GatewayClusterTest <carpeta de jars de servicios>}
+ */
+public class GatewayClusterTest {
+
+    private static final String SERVICE = "Greeting Service";
+    private static final int HEALTH_CHECK_MILLIS = 500;
+    // Comprobaciones fallidas seguidas con las que el gateway saca a un backend de servicio (server.Backend)
+    private static final int FAILED_CHECKS_TO_EJECT = 3;
+    private static final int CONNECTIONS = 100;
+    private static final int REQUESTS = 5000;
+    private static final String INPUT = "x".repeat(20 * 1024);
+
+    private final Path servicesJars;
+    private final Path workDir;
+    private final List<Process> processes = new ArrayList<>();
+
+    private GatewayClusterTest(Path servicesJars, Path workDir) {
+        this.servicesJars = servicesJars;
+        this.workDir = workDir;
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length != 1) {
+            System.err.println("Uso: cluster.GatewayClusterTest <carpeta de jars de servicios>");
+            System.exit(2);
+        }
+        Path workDir = Files.createTempDirectory("gateway-cluster");
+        GatewayClusterTest test = new GatewayClusterTest(Path.of(args[0]), workDir);
+        boolean passed = false;
+        try {
+            passed = test.run();
+        } finally {
+            test.stopAll();
+            if (passed) {
+                deleteTree(workDir);
+            } else {
+                System.out.println("Registros de los servidores en " + workDir);
+            }
+        }
+        System.out.println(passed ? "Prueba del gateway superada." : "Prueba del gateway fallida.");
+        System.exit(passed ? 0 : 1);
+    }
+
+    private boolean run() throws Exception {
+        int backendPort1 = freePort();
+        int backendPort2 = freePort();
+        int gatewayPort = freePort();
+        Process backend1 = startBackend("backend1", backendPort1);
+        startBackend("backend2", backendPort2);
+        startServer("gateway", gatewayPort, "-Dserver.backends=localhost:" + backendPort1 + ",localhost:" + backendPort2,
+                "-Dserver.healthCheckMillis=" + HEALTH_CHECK_MILLIS);
+        awaitService(gatewayPort);
+
+        boolean passed = check("carga a través del gateway", load(gatewayPort, REQUESTS) == 0);
+
+        backend1.destroy();
+        backend1.waitFor(10, TimeUnit.SECONDS);
+        // Ejecuciones durante la caída: las que van al backend detenido pueden fallar
+        int duringFailover = load(gatewayPort, 500);
+        System.out.println("Fallos mientras se detecta la caída: " + duringFailover + "/500");
+        Thread.sleep((FAILED_CHECKS_TO_EJECT + 1) * HEALTH_CHECK_MILLIS);
+        passed &= check("carga con un backend detenido", load(gatewayPort, REQUESTS) == 0);
+
+        startBackend("backend1", backendPort1);
+        passed &= check("el backend vuelve a estar disponible", awaitAvailable(gatewayPort, "localhost:" + backendPort1));
+        passed &= check("carga con los dos backends de nuevo", load(gatewayPort, REQUESTS) == 0);
+        return passed;
+    }
+
+    private static boolean check(String name, boolean ok) {
+        System.out.println((ok ? "OK    " : "FALLO ") + name);
+        return ok;
+    }
+
+    /**
+     * Envía {@code requests} ejecuciones repartidas entre varias conexiones, todas a la vez.
+     * @return Las que han fallado o han devuelto un resultado inesperado.
+     */
+    private static int load(int port, int requests) throws IOException, InterruptedException {
+        List<ServerConnection> connections = new ArrayList<>(CONNECTIONS);
+        List<CompletableFuture<String>> results = new ArrayList<>(requests);
+        try {
+            for (int i = 0; i < CONNECTIONS; i++) {
+                connections.add(new ServerConnection("localhost", port));
+            }
+            for (int i = 0; i < requests; i++) {
+                results.add(connections.get(i % CONNECTIONS).executeAsync(SERVICE, INPUT));
+            }
+            int failed = 0;
+            String firstError = null;
+            for (CompletableFuture<String> result : results) {
+                try {
+                    if (!result.get(60, TimeUnit.SECONDS).startsWith("Hello")) {
+                        failed++;
+                    }
+                } catch (ExecutionException | TimeoutException e) {
+                    failed++;
+                    if (firstError == null) {
+                        firstError = String.valueOf(e.getCause() != null ? e.getCause() : e);
+                    }
+                }
+            }
+            System.out.println(requests + " ejecuciones, " + failed + " fallidas"
+                    + (firstError != null ? " (por ejemplo: " + firstError + ")" : ""));
+            return failed;
+        } finally {
+            for (ServerConnection connection : connections) {
+                connection.close();
+            }
+        }
+    }
+
+    private static void awaitService(int port) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+        while (System.nanoTime() < deadline) {
+            try (ServerConnection connection = new ServerConnection("localhost", port)) {
+                if (connection.listServices().contains(SERVICE)) {
+                    return;
+                }
+            } catch (IOException e) {
+                // Aún arrancando
+            }
+            Thread.sleep(200);
+        }
+        throw new IllegalStateException("El gateway no ofrece " + SERVICE + " tras 30 s.");
+    }
+
+    private static boolean awaitAvailable(int port, String backend) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+        while (System.nanoTime() < deadline) {
+            try (ServerConnection connection = new ServerConnection("localhost", port)) {
+                if (connection.getStats().lines().anyMatch(line -> line.contains(backend + ": disponible"))) {
+                    return true;
+                }
+            } catch (IOException e) {
+                // Se reintenta
+            }
+            Thread.sleep(200);
+        }
+        return false;
+    }
+
+    private Process startBackend(String name, int port) throws IOException {
+        Path services = workDir.resolve(name).resolve("services");
+        Files.createDirectories(services);
+        try (DirectoryStream<Path> jars = Files.newDirectoryStream(servicesJars, "*.jar")) {
+            for (Path jar : jars) {
+                Files.copy(jar, services.resolve(jar.getFileName()), StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+        return startServer(name, port);
+    }
+
+    private Process startServer(String name, int port, String... properties) throws IOException {
+        Path dir = workDir.resolve(name);
+        Files.createDirectories(dir);
+        List<String> command = new ArrayList<>();
+        command.add(Path.of(System.getProperty("java.home"), "bin", "java").toString());
+        command.add("-Dserver.port=" + port);
+        command.add("-Dserver.servicesDir=" + dir.resolve("services"));
+        command.addAll(List.of(properties));
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add("server.Server");
+        Process process = new ProcessBuilder(command)
+                .redirectErrorStream(true)
+                .redirectOutput(ProcessBuilder.Redirect.appendTo(new File(dir.toFile(), "server.log")))
+                .start();
+        processes.add(process);
+        return process;
+    }
+
+    private void stopAll() {
+        for (Process process : processes) {
+            process.destroy();
+        }
+        for (Process process : processes) {
+            try {
+                if (!process.waitFor(10, TimeUnit.SECONDS)) {
+                    process.destroyForcibly();
+                }
+            } catch (InterruptedException e) {
+                process.destroyForcibly();
+            }
+        }
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    private static void deleteTree(Path dir) throws IOException {
+        try (Stream<Path> paths = Files.walk(dir)) {
+            for (Path path : paths.sorted(Comparator.reverseOrder()).toList()) {
+                Files.deleteIfExists(path);
+            }
+        }
+    }
+}
@@ -0,0 +1,205 @@
+package server;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.channels.SocketChannel;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Control de admisión de las ejecuciones de servicios, antes de ejecutarlas:
+ * <ul>
+ *   <li>un límite de peticiones por segundo para cada conexión,</li>
+ *   <li>otro para cada dirección de cliente, que comparten todas sus conexiones (las del socket de dominio
+ *   Unix cuentan como una sola dirección),</li>
+ *   <li>y un límite adaptativo de ejecuciones simultáneas en todo el servidor ({@link ConcurrencyLimiter}).</li>
+ * </ul>
+ * Lo que supera un límite se rechaza enseguida con {@link RateLimitedException}, que indica cuándo reintentar,
+ * y se devuelven las fichas que ya había consumido en los anteriores: una petición rechazada no cuenta en
+ * ningún límite. Cada límite se desactiva por separado y, por defecto, todos lo están.
+ */
+class AdmissionControl {
+
+    // Direcciones a partir de las cuales se eliminan las cubetas llenas al llegar una conexión nueva
+    private static final int SWEEP_THRESHOLD = 1024;
+    private static final Object UNIX_SOCKET_ADDRESS = "unix";
+    // Espera mínima que se indica al rechazar por saturación, para que los clientes no reintenten enseguida todos
+    private static final long MIN_SATURATION_WAIT_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+    private final int connectionRate;
+    private final int addressRate;
+    private final int burst;
+    private final ConcurrencyLimiter limiter;
+    private final Map<Object, TokenBucket> addressBuckets = new ConcurrentHashMap<>();
+    private final ReentrantLock sweepLock = new ReentrantLock();
+    private final LongAdder connectionRejections = new LongAdder();
+    private final LongAdder addressRejections = new LongAdder();
+    private final LongAdder concurrencyRejections = new LongAdder();
+
+    AdmissionControl(ServerConfig config) {
+        this.connectionRate = config.getRateLimit();
+        this.addressRate = config.getAddressRateLimit();
+        this.burst = config.getRateLimitBurst();
+        this.limiter = config.isAdaptiveConcurrency()
+                ? new ConcurrencyLimiter(config.getConcurrencyLimitMin(), config.getConcurrencyLimitMax()) : null;
+    }
+
+    /**
+     * Crea los límites de una conexión nueva.
+     */
+    Quota newQuota(SocketChannel channel) {
+        TokenBucket connectionBucket = connectionRate > 0 ? new TokenBucket(connectionRate, burstFor(connectionRate)) : null;
+        Object address = null;
+        if (addressRate > 0) {
+            address = addressKey(channel);
+            if (addressBuckets.size() > SWEEP_THRESHOLD) {
+                sweep();
+            }
+        }
+        return new Quota(connectionBucket, address);
+    }
+
+    private int burstFor(int rate) {
+        return burst > 0 ? burst : rate;
+    }
+
+    private static Object addressKey(SocketChannel channel) {
+        try {
+            SocketAddress remote = channel.getRemoteAddress();
+            if (remote instanceof InetSocketAddress inet && inet.getAddress() != null) {
+                return inet.getAddress();
+            }
+        } catch (IOException e) {
+            // Conexión ya cerrada: sus peticiones fallarán de todos modos
+        }
+        return UNIX_SOCKET_ADDRESS;
+    }
+
+    /**
+     * Elimina las cubetas de las direcciones que no han enviado nada en el último periodo. Están llenas, así que
+     * una nueva equivale a la eliminada.
+     */
+    private void sweep() {
+        if (!sweepLock.tryLock()) {
+            return;
+        }
+        try {
+            long now = System.nanoTime();
+            addressBuckets.values().removeIf(bucket -> bucket.isFull(now));
+        } finally {
+            sweepLock.unlock();
+        }
+    }
+
+    /**
+     * Admite una petición o la rechaza si supera algún límite.
+     * @param cost Ejecuciones que contiene la petición (las de un lote, por ejemplo).
+     * @param concurrent Si la petición ocupa una de las ejecuciones simultáneas del servidor.
+     * @return {@code true} si ocupa una de ellas; entonces hay que llamar a {@link #release} al terminarla.
+     * @throws RateLimitedException si se rechaza.
+     */
+    boolean admit(Quota quota, int cost, boolean concurrent) throws RateLimitedException {
+        long now = System.nanoTime();
+        if (quota.connection != null) {
+            long wait = quota.connection.tryAcquire(cost, now);
+            if (wait > 0) {
+                connectionRejections.increment();
+                throw rejected("Límite de peticiones de la conexión superado", wait);
+            }
+        }
+        TokenBucket addressBucket = null;
+        if (quota.address != null) {
+            addressBucket = addressBuckets.computeIfAbsent(quota.address, key -> new TokenBucket(addressRate, burstFor(addressRate)));
+            long wait = addressBucket.tryAcquire(cost, now);
+            if (wait > 0) {
+                refund(quota.connection, cost);
+                addressRejections.increment();
+                throw rejected("Límite de peticiones de la dirección superado", wait);
+            }
+        }
+        if (!concurrent || limiter == null) {
+            return false;
+        }
+        if (!limiter.tryAcquire()) {
+            refund(quota.connection, cost);
+            refund(addressBucket, cost);
+            concurrencyRejections.increment();
+            // Se liberará alguna ejecución en aproximadamente lo que tarda una
+            throw rejected("Servidor saturado", Math.max(limiter.getSmoothedLatencyNanos(), MIN_SATURATION_WAIT_NANOS));
+        }
+        return true;
+    }
+
+    private static void refund(TokenBucket bucket, int cost) {
+        if (bucket != null) {
+            bucket.refund(cost);
+        }
+    }
+
+    /**
+     * Libera la ejecución simultánea ocupada por una petición admitida.
+     * @param serviceName Servicio ejecutado, para ajustar el límite con su latencia, o {@code null}.
+     */
+    void release(String serviceName, long latencyNanos) {
+        limiter.release(serviceName, latencyNanos);
+    }
+
+    private static RateLimitedException rejected(String reason, long waitNanos) {
+        long millis = Math.max(1, TimeUnit.NANOSECONDS.toMillis(waitNanos + TimeUnit.MILLISECONDS.toNanos(1) - 1));
+        return new RateLimitedException(reason + "; reintente dentro de " + millis + " ms.", millis);
+    }
+
+    /**
+     * @return El límite actual de ejecuciones simultáneas, o 0 si no hay límite.
+     */
+    int getConcurrencyLimit() {
+        return limiter != null ? limiter.getLimit() : 0;
+    }
+
+    int getInFlight() {
+        return limiter != null ? limiter.getInFlight() : 0;
+    }
+
+    long getConnectionRejections() {
+        return connectionRejections.sum();
+    }
+
+    long getAddressRejections() {
+        return addressRejections.sum();
+    }
+
+    long getConcurrencyRejections() {
+        return concurrencyRejections.sum();
+    }
+
+    @Override
+    public String toString() {
+        return "por conexión " + describe(connectionRate) + ", por dirección " + describe(addressRate)
+                + ", simultáneas " + (limiter != null ? limiter.getLimit() + " (en curso " + limiter.getInFlight() + ")" : "sin límite")
+                + "; rechazadas: " + connectionRejections.sum() + " por conexión, " + addressRejections.sum()
+                + " por dirección, " + concurrencyRejections.sum() + " por saturación";
+    }
+
+    private String describe(int rate) {
+        return rate > 0 ? rate + "/s (ráfaga " + burstFor(rate) + ")" : "sin límite";
+    }
+
+    /**
+     * Límites de una conexión: su propia cubeta y la dirección de la que viene, o {@code null} si ese límite
+     * está desactivado.
+     */
+    static final class Quota {
+
+        private final TokenBucket connection;
+        private final Object address;
+
+        private Quota(TokenBucket connection, Object address) {
+            this.connection = connection;
+            this.address = address;
+        }
+    }
+}
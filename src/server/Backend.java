@@ -0,0 +1,271 @@
+package server;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.UnixDomainSocketAddress;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Un servidor al que el gateway reenvía peticiones. Guarda sus conexiones libres para reutilizarlas, las
+ * peticiones que tiene en curso (el gateway elige el backend con menos) y los servicios que ofrecía en la
+ * última comprobación.
+ * <p>
+ * Las peticiones usan como mucho {@code server.backendConnections} conexiones a la vez; las demás esperan a
+ * que quede una libre. Si una petición falla por un error de conexión, solo se descarta esa conexión.
+ * <p>
+ * Las comprobaciones van por una conexión propia, para no esperar detrás de las peticiones. El backend queda
+ * fuera de servicio tras {@link #FAILED_CHECKS_TO_EJECT} comprobaciones fallidas seguidas: deja de recibir
+ * peticiones nuevas, pero las que ya tiene siguen en curso. Vuelve cuando supera una comprobación. Una
+ * comprobación que no responde a tiempo no cuenta si entretanto el backend ha respondido a peticiones.
+ */
+class Backend {
+
+    static final int FAILED_CHECKS_TO_EJECT = 3;
+
+    private final String name;
+    private final SocketAddress address;
+    private final int maxFrameSize;
+    private final Queue<BackendConnection> idle = new ConcurrentLinkedQueue<>();
+    // Conexiones que pueden usar las peticiones a la vez, libres o en uso
+    private final Semaphore connections;
+    // Conexión de las comprobaciones, que solo se usa con probeLock
+    private final ReentrantLock probeLock = new ReentrantLock();
+    private volatile BackendConnection probe;
+    private final AtomicInteger failedChecks = new AtomicInteger();
+    // Respuestas del backend a peticiones, y cuántas llevaba en la última comprobación
+    private final LongAdder answered = new LongAdder();
+    private volatile long answeredAtCheck;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+    private volatile boolean healthy;
+    private volatile List<String> services = List.of();
+    private volatile Set<String> serviceNames = Set.of();
+
+    /**
+     * @param name {@code host:puerto}, o la ruta de un socket de dominio Unix si contiene {@code /}.
+     * @throws IllegalArgumentException si la dirección no es válida.
+     */
+    Backend(String name, int maxFrameSize, int maxConnections) {
+        this.name = name;
+        this.address = parseAddress(name);
+        this.maxFrameSize = maxFrameSize;
+        this.connections = new Semaphore(Math.max(1, maxConnections), true);
+    }
+
+    private static SocketAddress parseAddress(String name) {
+        if (name.indexOf('/') >= 0) {
+            return UnixDomainSocketAddress.of(name);
+        }
+        int colon = name.lastIndexOf(':');
+        try {
+            return new InetSocketAddress(name.substring(0, colon), Integer.parseInt(name.substring(colon + 1)));
+        } catch (IndexOutOfBoundsException | IllegalArgumentException e) {
+            throw new IllegalArgumentException("Backend no válido (host:puerto o ruta de un socket): " + name);
+        }
+    }
+
+    /**
+     * Ejecuta una petición con una conexión libre, o con una nueva si no hay ninguna y no se ha llegado al
+     * máximo; si se ha llegado, espera a que se libere una.
+     * @throws IOException si falla la conexión; se descarta solo esa conexión.
+     * @throws ServiceUnavailableException si el backend responde con un error.
+     */
+    <T> T call(BackendCall<T> call) throws IOException, ServiceUnavailableException {
+        inFlight.incrementAndGet();
+        requests.increment();
+        try {
+            connections.acquire();
+        } catch (InterruptedException e) {
+            inFlight.decrementAndGet();
+            Thread.currentThread().interrupt();
+            throw new ServiceUnavailableException("Interrumpido esperando una conexión con el backend " + name + ".", false);
+        }
+        try {
+            return use(call);
+        } finally {
+            connections.release();
+            inFlight.decrementAndGet();
+        }
+    }
+
+    private <T> T use(BackendCall<T> call) throws IOException, ServiceUnavailableException {
+        BackendConnection connection = idle.poll();
+        try {
+            if (connection == null) {
+                connection = openConnection();
+            }
+            T result = call.call(connection);
+            answered.increment();
+            idle.offer(connection);
+            return result;
+        } catch (ServiceUnavailableException e) {
+            // El backend ha respondido: la conexión sigue sincronizada
+            answered.increment();
+            idle.offer(connection);
+            throw e;
+        } catch (IOException e) {
+            failures.increment();
+            if (connection != null) {
+                close(connection);
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Abre una conexión que no forma parte de las de las peticiones, para quien necesita cerrarla por su
+     * cuenta (la replicación de jars, por ejemplo).
+     */
+    BackendConnection openConnection() throws IOException {
+        return new BackendConnection(address, maxFrameSize);
+    }
+
+    private static void close(BackendConnection connection) {
+        try {
+            connection.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    /**
+     * Pide al backend la lista de sus servicios por la conexión de las comprobaciones. No cuenta como
+     * petición ni cambia el estado del backend: de eso se encargan {@link #restore} y {@link #checkFailed}.
+     */
+    List<String> check() throws IOException, ServiceUnavailableException {
+        probeLock.lock();
+        try {
+            BackendConnection connection = probe;
+            if (connection == null) {
+                connection = openConnection();
+                probe = connection;
+            }
+            return connection.listServices();
+        } catch (IOException e) {
+            abortCheck();
+            throw e;
+        } finally {
+            probeLock.unlock();
+        }
+    }
+
+    /**
+     * Cierra la conexión de las comprobaciones, para desbloquear una que no responde. La siguiente
+     * comprobación abre otra.
+     */
+    void abortCheck() {
+        BackendConnection connection = probe;
+        probe = null;
+        if (connection != null) {
+            close(connection);
+        }
+    }
+
+    /**
+     * Anota una comprobación que no ha respondido a tiempo. No cuenta como fallida si el backend ha respondido
+     * a alguna petición desde la comprobación anterior: está ocupado, no caído.
+     */
+    void checkTimedOut(String reason) {
+        long total = answered.sum();
+        boolean busy = total != answeredAtCheck;
+        answeredAtCheck = total;
+        if (!busy) {
+            checkFailed(reason);
+        }
+    }
+
+    /**
+     * Anota una comprobación fallida. A la {@link #FAILED_CHECKS_TO_EJECT}ª seguida, el backend queda fuera de
+     * servicio.
+     */
+    void checkFailed(String reason) {
+        if (failedChecks.incrementAndGet() >= FAILED_CHECKS_TO_EJECT) {
+            eject(reason);
+        }
+    }
+
+    /**
+     * Saca el backend de servicio: no recibe peticiones nuevas y se cierran sus conexiones libres. Las que
+     * tienen peticiones en curso siguen abiertas hasta que terminen.
+     */
+    void eject(String reason) {
+        if (healthy) {
+            healthy = false;
+            Log.warn("Backend fuera de servicio: " + name + " (" + reason + ")");
+        }
+        BackendConnection connection;
+        while ((connection = idle.poll()) != null) {
+            close(connection);
+        }
+    }
+
+    /**
+     * Vuelve a poner el backend en servicio, o actualiza sus servicios si ya lo estaba.
+     * @return {@code true} si el backend estaba fuera de servicio.
+     */
+    boolean restore(List<String> services) {
+        failedChecks.set(0);
+        answeredAtCheck = answered.sum();
+        this.services = List.copyOf(services);
+        this.serviceNames = Set.copyOf(services);
+        boolean restored = !healthy;
+        healthy = true;
+        return restored;
+    }
+
+    /**
+     * @return El mensaje de un error de conexión, o su tipo si no tiene mensaje (un cierre, por ejemplo).
+     */
+    static String describe(IOException e) {
+        return e.getMessage() != null ? e.getMessage() : e.getClass().getSimpleName();
+    }
+
+    String getName() {
+        return name;
+    }
+
+    boolean isHealthy() {
+        return healthy;
+    }
+
+    boolean hosts(String serviceName) {
+        return serviceNames.contains(serviceName);
+    }
+
+    /**
+     * @return Los servicios que ofrecía el backend en la última comprobación, en su orden.
+     */
+    List<String> getServices() {
+        return services;
+    }
+
+    int getInFlight() {
+        return inFlight.get();
+    }
+
+    long getRequestCount() {
+        return requests.sum();
+    }
+
+    long getFailureCount() {
+        return failures.sum();
+    }
+
+    @Override
+    public String toString() {
+        return name + ": " + (healthy ? "disponible" : "fuera de servicio") + ", en curso=" + inFlight.get()
+                + ", peticiones=" + requests.sum() + ", fallos=" + failures.sum() + ", servicios=" + services.size();
+    }
+
+    interface BackendCall<T> {
+        T call(BackendConnection connection) throws IOException, ServiceUnavailableException;
+    }
+}
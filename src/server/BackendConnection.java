@@ -0,0 +1,168 @@
+package server;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Conexión del gateway con uno de sus backends, con el mismo protocolo binario que usan los clientes.
+ * Atiende una petición cada vez: quien la usa envía la petición y espera su respuesta antes de soltarla.
+ */
+class BackendConnection implements Closeable {
+
+    // EXECUTE_BY_NAME apareció en la versión 4
+    private static final int MIN_VERSION = 4;
+
+    private final SocketChannel channel;
+    private final DataInputStream in;
+    private final DataOutputStream out;
+    private final FrameReader reader;
+    private ByteBuffer frame = ByteBuffer.allocate(1024);
+
+    /**
+     * Conecta con el backend y negocia el protocolo binario.
+     * @throws IOException si no se puede conectar o el backend no admite la versión 4 del protocolo.
+     */
+    BackendConnection(SocketAddress address, int maxFrameSize) throws IOException {
+        this.channel = SocketChannel.open(address);
+        try {
+            this.in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel)));
+            this.out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)));
+            in.readUTF(); // saludo
+            out.writeUTF(BinaryProtocol.NEGOTIATION_COMMAND + BinaryProtocol.VERSION);
+            out.flush();
+            String reply = in.readUTF();
+            int version = reply.startsWith(BinaryProtocol.NEGOTIATION_COMMAND)
+                    ? Integer.parseInt(reply.substring(BinaryProtocol.NEGOTIATION_COMMAND.length())) : 0;
+            if (version < MIN_VERSION) {
+                throw new IOException("El backend no admite la versión " + MIN_VERSION + " del protocolo binario: " + reply);
+            }
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+        this.reader = new FrameReader(in, maxFrameSize);
+    }
+
+    List<String> listServices() throws IOException, ServiceUnavailableException {
+        send(begin(BinaryProtocol.LIST_SERVICES));
+        FrameReader reply = response(BinaryProtocol.LIST_SERVICES);
+        int count = reply.readInt();
+        List<String> names = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            names.add(reply.readString());
+        }
+        return names;
+    }
+
+    String execute(String serviceName, String input) throws IOException, ServiceUnavailableException {
+        send(putString(putString(begin(BinaryProtocol.EXECUTE_BY_NAME), serviceName), input));
+        return response(BinaryProtocol.EXECUTE_BY_NAME).readString();
+    }
+
+    /**
+     * Ayuda del servicio de la posición indicada. Deja ese servicio activo en la sesión de esta conexión,
+     * que solo usa el gateway.
+     */
+    String getHelp(int index) throws IOException, ServiceUnavailableException {
+        send(ensureCapacity(begin(BinaryProtocol.ACTIVE_SERVICE), Integer.BYTES).putInt(index));
+        response(BinaryProtocol.ACTIVE_SERVICE);
+        send(begin(BinaryProtocol.GET_INSTRUCTIONS));
+        return response(BinaryProtocol.GET_INSTRUCTIONS).readString();
+    }
+
+    String reloadServices() throws IOException, ServiceUnavailableException {
+        send(begin(BinaryProtocol.RELOAD_SERVICES));
+        return response(BinaryProtocol.RELOAD_SERVICES).readString();
+    }
+
+    /**
+     * Sube un jar completo al backend, que lo verifica con su SHA-256 y recarga sus servicios.
+     * @return El mensaje de confirmación del backend.
+     * @throws ServiceUnavailableException si el backend rechaza el jar.
+     */
+    String uploadJar(Path jar, String sha256) throws IOException, ServiceUnavailableException {
+        try (FileChannel file = FileChannel.open(jar, StandardOpenOption.READ)) {
+            long size = file.size();
+            ByteBuffer header = putString(putString(begin(BinaryProtocol.UPLOAD_RESUME), jar.getFileName().toString()), sha256);
+            send(ensureCapacity(header, 2 * Long.BYTES).putLong(size).putLong(0));
+            // La trama debe llegar antes que el contenido, que va sin enmarcar
+            out.flush();
+            long position = 0;
+            while (position < size) {
+                position += file.transferTo(position, size - position, channel);
+            }
+        }
+        return response(BinaryProtocol.UPLOAD_RESUME).readString();
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private ByteBuffer begin(byte opcode) {
+        frame.clear();
+        frame.position(Integer.BYTES);
+        // El gateway no encadena peticiones por conexión: el identificador siempre es 0
+        frame.put(opcode).putInt(0);
+        return frame;
+    }
+
+    private ByteBuffer putString(ByteBuffer buffer, String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        return ensureCapacity(buffer, Integer.BYTES + bytes.length).putInt(bytes.length).put(bytes);
+    }
+
+    private ByteBuffer ensureCapacity(ByteBuffer buffer, int needed) {
+        if (buffer.remaining() < needed) {
+            ByteBuffer larger = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.position() + needed));
+            larger.put(buffer.flip());
+            frame = larger;
+            return larger;
+        }
+        return buffer;
+    }
+
+    private void send(ByteBuffer buffer) throws IOException {
+        buffer.putInt(0, buffer.position() - Integer.BYTES);
+        out.write(buffer.array(), 0, buffer.position());
+    }
+
+    /**
+     * Lee la respuesta a la petición enviada.
+     * @return El lector, situado en los datos de la respuesta.
+     * @throws ServiceUnavailableException si el backend ha respondido con un error; la conexión sigue sincronizada.
+     */
+    private FrameReader response(byte expectedOpcode) throws IOException, ServiceUnavailableException {
+        out.flush();
+        byte opcode = reader.readFrame();
+        reader.readInt(); // identificador de la petición
+        byte status = reader.readByte();
+        if (opcode != expectedOpcode) {
+            throw new StreamCorruptedException("Respuesta inesperada del backend: " + opcode);
+        }
+        if (status == BinaryProtocol.STATUS_RATE_LIMITED) {
+            // El rechazo del backend llega al cliente tal cual, con su espera
+            throw new RateLimitedException(reader.readString(), reader.readLong());
+        }
+        if (status != BinaryProtocol.STATUS_OK) {
+            throw new ServiceUnavailableException(reader.readString(), status == BinaryProtocol.STATUS_BUSY);
+        }
+        return reader;
+    }
+}
@@ -0,0 +1,116 @@
+package server;
+
+/**
+ * Constantes del protocolo binario.
+ * <p>
+ * El cliente lo solicita justo después del saludo enviando, con el protocolo de texto, el comando
+ * {@code PROTOCOL_BINARY/<versión>}. El servidor responde con el mismo comando y la versión que usará
+ * (la menor entre la pedida y la que soporta); un servidor antiguo responde "Comando no reconocido."
+ * y la conexión sigue con el protocolo de texto.
+ * <p>
+ * A partir de ahí cada petición y cada respuesta es una trama:
+ * <pre>
+ *   petición:  int longitud | byte código de operación | int id (v2) | datos
+ *   respuesta: int longitud | byte código de operación | int id (v2) | byte estado | datos
+ * </pre>
+ * La longitud no incluye sus propios cuatro bytes. Las cadenas se codifican como
+ * {@code int longitud | bytes UTF-8}, sin el límite de 64 KB de {@code writeUTF}.
+ * <p>
+ * En la versión 2 cada petición lleva un identificador que el servidor copia en su respuesta. El cliente
+ * puede enviar varias peticiones sin esperar: las ejecuciones de servicios se atienden en paralelo y sus
+ * respuestas pueden llegar en otro orden. El resto de comandos se aplican en el orden en que llegan.
+ * <p>
+ * La versión 3 añade la subida de jars verificada con SHA-256 y reanudable: {@code UPLOAD_STATUS} indica
+ * cuántos bytes de una subida anterior tiene ya el servidor y {@code UPLOAD_RESUME} envía el resto.
+ * <p>
+ * La versión 4 añade {@code EXECUTE_BY_NAME}, que ejecuta un servicio por su nombre en una sola petición,
+ * sin cambiar el servicio activo de la sesión. Los índices cambian al recargar; los nombres no.
+ * <p>
+ * La versión 5 añade la ejecución en streaming para entradas y salidas grandes. {@code EXECUTE_STREAM}
+ * abre la ejecución y el cliente envía la entrada en tramas {@code STREAM_DATA} con el mismo identificador,
+ * terminadas por {@code STREAM_END}. El servidor responde con tramas de estado {@code STATUS_CONTINUE} que
+ * llevan la salida a medida que el servicio la escribe, sin enmarcar en una cadena, y una última trama
+ * {@code STATUS_OK} con el resto. Si el servicio falla, la última trama es un error y la salida ya
+ * recibida queda incompleta.
+ * <p>
+ * La versión 6 añade {@code EXECUTE_PIPELINE}, que ejecuta en el servidor un pipeline de servicios
+ * (ver {@code Pipeline}) y devuelve solo el resultado final. Si una etapa falla, el error indica cuál.
+ * <p>
+ * La versión 7 añade el estado {@code STATUS_RATE_LIMITED}, con el que el servidor rechaza una ejecución que
+ * supera sus límites de admisión (ver {@code AdmissionControl}) e indica cuándo reintentarla. Con versiones
+ * anteriores el rechazo se envía como {@code STATUS_BUSY}, con la espera solo en el mensaje.
+ * Este fichero debe coincidir con {@code client.BinaryProtocol}.
+ */
+final class BinaryProtocol {
+
+    static final String NEGOTIATION_COMMAND = "PROTOCOL_BINARY/";
+    static final int VERSION = 7;
+
+    // Códigos de operación
+    static final byte LIST_SERVICES = 1;
+    static final byte ACTIVE_SERVICE = 2;
+    static final byte EXECUTE_SERVICE = 3;
+    static final byte GET_INSTRUCTIONS = 4;
+    static final byte UPLOAD_JAR = 5;
+    static final byte DEACTIVATE_SERVICE = 6;
+    static final byte RELOAD_SERVICES = 7;
+    static final byte EXIT = 8;
+    // Versión 2: int n | n cadenas -> int n | n × (byte estado | cadena)
+    static final byte EXECUTE_BATCH = 9;
+    // Versión 3: cadena nombre | cadena sha256 | long tamaño -> long bytes ya recibidos
+    static final byte UPLOAD_STATUS = 10;
+    // Versión 3: cadena nombre | cadena sha256 | long tamaño | long desde, seguido de los bytes restantes
+    static final byte UPLOAD_RESUME = 11;
+    // -> cadena con las estadísticas del servidor
+    static final byte STATS = 12;
+    // Versión 4: cadena nombre[@versión] | cadena entrada -> cadena resultado, sin activar el servicio
+    static final byte EXECUTE_BY_NAME = 13;
+    // Versión 5: cadena nombre[@versión] -> respuestas CONTINUE con bytes de la salida y una final OK con el resto
+    static final byte EXECUTE_STREAM = 14;
+    // Versión 5: bytes de la entrada de un EXECUTE_STREAM con el mismo id, sin respuesta
+    static final byte STREAM_DATA = 15;
+    // Versión 5: byte 1 si la entrada está completa o 0 si el cliente la cancela, sin respuesta
+    static final byte STREAM_END = 16;
+    // Versión 6: cadena definición | cadena entrada -> cadena resultado de la última etapa
+    static final byte EXECUTE_PIPELINE = 17;
+
+    // Estados de respuesta
+    static final byte STATUS_OK = 0;
+    static final byte STATUS_ERROR = 1;
+    // El servicio tiene su cola llena: la petición no se ha ejecutado y se puede reintentar
+    static final byte STATUS_BUSY = 2;
+    // Parte de la salida de un EXECUTE_STREAM: seguirán más respuestas con el mismo id
+    static final byte STATUS_CONTINUE = 3;
+    // Versión 7: la petición supera un límite de peticiones del cliente o de ejecuciones del servidor y no se
+    // ha ejecutado: cadena mensaje | long milisegundos que conviene esperar antes de reintentarla
+    static final byte STATUS_RATE_LIMITED = 4;
+
+    private BinaryProtocol() {
+    }
+
+    /**
+     * Devuelve el nombre del comando de texto equivalente a un código de operación.
+     */
+    static String commandName(byte opcode) {
+        return switch (opcode) {
+            case LIST_SERVICES -> "LIST_SERVICES";
+            case ACTIVE_SERVICE -> "ACTIVE_SERVICE";
+            case EXECUTE_SERVICE -> "EXECUTE_SERVICE";
+            case GET_INSTRUCTIONS -> "GET_INSTRUCTIONS";
+            case UPLOAD_JAR -> "UPLOAD_JAR";
+            case DEACTIVATE_SERVICE -> "DEACTIVATE_SERVICE";
+            case RELOAD_SERVICES -> "RELOAD_SERVICES";
+            case EXIT -> "EXIT";
+            case EXECUTE_BATCH -> "EXECUTE_BATCH";
+            case UPLOAD_STATUS -> "UPLOAD_STATUS";
+            case UPLOAD_RESUME -> "UPLOAD_RESUME";
+            case STATS -> "STATS";
+            case EXECUTE_BY_NAME -> "EXECUTE_BY_NAME";
+            case EXECUTE_STREAM -> "EXECUTE_STREAM";
+            case STREAM_DATA -> "STREAM_DATA";
+            case STREAM_END -> "STREAM_END";
+            case EXECUTE_PIPELINE -> "EXECUTE_PIPELINE";
+            default -> "DESCONOCIDO(" + opcode + ")";
+        };
+    }
+}
@@ -0,0 +1,673 @@
+package server;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Protocolo binario: códigos de operación fijos y tramas con prefijo de longitud (ver {@link BinaryProtocol}).
+ * Todas las peticiones, salvo {@code EXIT}, reciben una trama de respuesta con su estado.
+ * <p>
+ * Desde la versión 2 las ejecuciones de servicios se lanzan en paralelo y este hilo sigue leyendo
+ * peticiones mientras tanto. El número de ejecuciones pendientes por conexión está limitado: al
+ * alcanzarlo se deja de leer hasta que termine alguna, lo que frena al cliente. Con el motor no bloqueante
+ * no se espera en un trabajador: la conexión queda en pausa ({@link #isReady}) y la reanuda la ejecución
+ * que termina.
+ * <p>
+ * Desde la versión 5 las ejecuciones en streaming reciben su entrada por bloques: este hilo los entrega
+ * al servicio a medida que llegan, y la salida se envía en tramas {@code STATUS_CONTINUE} de
+ * {@value #STREAM_CHUNK_SIZE} bytes como mucho.
+ * <p>
+ * Toda ejecución pasa antes por el control de admisión del servidor ({@link AdmissionControl}); la que supera
+ * algún límite se rechaza sin ejecutarla.
+ */
+class BinaryProtocolHandler implements ProtocolHandler {
+
+    // Bytes de la salida de un servicio que se acumulan antes de enviarlos al cliente
+    static final int STREAM_CHUNK_SIZE = 64 * 1024;
+    // Bytes de la entrada que pueden esperar a que el servicio los lea antes de dejar de leer del socket
+    private static final int STREAM_BUFFER_SIZE = 4 * STREAM_CHUNK_SIZE;
+
+    private final ClientConnection connection;
+    private final ClientSession session;
+    private final int version;
+    private final FrameReader reader;
+    // Las respuestas pueden enviarse desde varios hilos: solo se escriben con writeLock
+    private final FrameWriter writer;
+    private final ReentrantLock writeLock = new ReentrantLock();
+    private final int maxPending;
+    private final Semaphore pending;
+    private final Metrics metrics;
+    private final AdmissionControl admission;
+    private final AdmissionControl.Quota quota;
+    private final int maxFrameSize;
+    private final int maxBatchSize;
+    // Entradas de las ejecuciones en streaming que aún no han terminado de llegar, por identificador de petición
+    private final Map<Integer, StreamInput> streams = new ConcurrentHashMap<>();
+    // Si la petición actual se ha lanzado en paralelo; solo lo usa el hilo que lee las peticiones
+    private boolean dispatched;
+
+    BinaryProtocolHandler(ClientConnection connection, int version) {
+        this.connection = connection;
+        this.session = connection.getSession();
+        this.version = version;
+        ServerConfig config = connection.getServer().getConfig();
+        this.reader = new FrameReader(connection.getDataIn(), config.getMaxFrameSize());
+        this.writer = new FrameWriter(connection.getDataOut(), version >= 2);
+        this.maxPending = config.getMaxPipelinedRequests();
+        this.pending = new Semaphore(maxPending);
+        this.metrics = connection.getServer().getMetrics();
+        this.admission = connection.getServer().getAdmission();
+        this.quota = connection.getQuota();
+        this.maxFrameSize = config.getMaxFrameSize();
+        this.maxBatchSize = config.getMaxBatchSize();
+    }
+
+    @Override
+    public int commandLength(ByteBuffer received) {
+        return reader.frameLength(received);
+    }
+
+    /**
+     * Las ejecuciones necesitan una de las pendientes libres, {@code EXIT} que hayan terminado todas y los bloques
+     * de un streaming que quepan en su entrada.
+     */
+    @Override
+    public boolean isReady(ByteBuffer received) {
+        int start = received.position();
+        // Longitud, código de operación e identificador de petición
+        if (version < 2 || received.remaining() < 2 * Integer.BYTES + 1) {
+            return true;
+        }
+        return switch (received.get(start + Integer.BYTES)) {
+            case BinaryProtocol.EXIT -> pending.availablePermits() == maxPending;
+            case BinaryProtocol.EXECUTE_SERVICE, BinaryProtocol.EXECUTE_BY_NAME, BinaryProtocol.EXECUTE_PIPELINE,
+                    BinaryProtocol.EXECUTE_STREAM, BinaryProtocol.EXECUTE_BATCH -> pending.availablePermits() > 0;
+            case BinaryProtocol.STREAM_DATA -> {
+                StreamInput input = streams.get(received.getInt(start + Integer.BYTES + 1));
+                yield input == null || input.canOffer(received.getInt(start) - Integer.BYTES - 1);
+            }
+            default -> true;
+        };
+    }
+
+    @Override
+    public boolean handleCommand() throws IOException {
+        byte opcode = reader.readFrame();
+        long start = System.nanoTime();
+        int requestId = version >= 2 ? reader.readInt() : 0;
+        session.commandReceived();
+        dispatched = false;
+        try {
+            return handle(opcode, requestId, start);
+        } finally {
+            // Las ejecuciones en paralelo registran su latencia al enviar la respuesta
+            if (!dispatched) {
+                completed(opcode, null, start);
+            }
+        }
+    }
+
+    private boolean handle(byte opcode, int requestId, long start) throws IOException {
+
+        switch (opcode) {
+            case BinaryProtocol.LIST_SERVICES:
+                // Respuesta ya codificada por el registro; solo cambia cuando se recargan los servicios
+                respond(opcode, requestId, connection.getServer().getRegistry().getBinaryListReply());
+                break;
+
+            case BinaryProtocol.ACTIVE_SERVICE:
+                if (session.setActiveService(reader.readInt())) {
+                    sendResult(opcode, requestId, session.getActiveServiceName());
+                } else {
+                    sendError(opcode, requestId, "Índice de servicio no válido.");
+                }
+                break;
+
+            case BinaryProtocol.EXECUTE_SERVICE: {
+                String input = reader.readString();
+                Service service = session.getActiveService();
+                if (service == null) {
+                    sendError(opcode, requestId, "No hay ningún servicio activo para ejecutar.");
+                } else {
+                    dispatch(opcode, requestId, start, service.getName(), 1, () -> execute(opcode, requestId, service, input));
+                }
+                break;
+            }
+
+            case BinaryProtocol.EXECUTE_BY_NAME: {
+                if (version < 4) {
+                    sendError(opcode, requestId, "Comando no reconocido.");
+                    break;
+                }
+                String name = reader.readString();
+                String input = reader.readString();
+                Service service = session.findService(name);
+                if (service == null) {
+                    sendError(opcode, requestId, "Servicio no encontrado: " + name);
+                } else {
+                    dispatch(opcode, requestId, start, service.getName(), 1, () -> execute(opcode, requestId, service, input));
+                }
+                break;
+            }
+
+            case BinaryProtocol.EXECUTE_PIPELINE: {
+                if (version < 6) {
+                    sendError(opcode, requestId, "Comando no reconocido.");
+                    break;
+                }
+                String definition = reader.readString();
+                String input = reader.readString();
+                Pipeline pipeline;
+                try {
+                    pipeline = Pipeline.parse(definition);
+                } catch (IllegalArgumentException e) {
+                    sendError(opcode, requestId, "Pipeline no válido: " + e.getMessage());
+                    break;
+                }
+                dispatch(opcode, requestId, start, null, 1, () -> executePipeline(opcode, requestId, pipeline, input));
+                break;
+            }
+
+            case BinaryProtocol.EXECUTE_STREAM: {
+                if (version < 5) {
+                    sendError(opcode, requestId, "Comando no reconocido.");
+                    break;
+                }
+                String name = reader.readString();
+                Service service = session.findService(name);
+                if (service == null) {
+                    sendError(opcode, requestId, "Servicio no encontrado: " + name);
+                } else if (streams.containsKey(requestId)) {
+                    sendError(opcode, requestId, "Ya hay una ejecución en streaming con el identificador " + requestId + ".");
+                } else {
+                    // Un servicio sin streaming recibe la entrada entera: se limita como una trama
+                    StreamInput input = new StreamInput(STREAM_BUFFER_SIZE,
+                            ClientSession.isStreaming(service) ? 0 : maxFrameSize, connection::resumeCommands);
+                    streams.put(requestId, input);
+                    dispatch(opcode, requestId, start, service.getName(), 1, () -> executeStream(opcode, requestId, service, input));
+                    if (!dispatched) {
+                        streams.remove(requestId);
+                    }
+                }
+                break;
+            }
+
+            case BinaryProtocol.STREAM_DATA: {
+                if (version < 5) {
+                    sendError(opcode, requestId, "Comando no reconocido.");
+                    break;
+                }
+                // Si la ejecución ya ha terminado o no existe, los datos se descartan
+                StreamInput input = streams.get(requestId);
+                byte[] chunk = reader.readRemaining();
+                if (input != null) {
+                    input.offer(chunk);
+                }
+                break;
+            }
+
+            case BinaryProtocol.STREAM_END: {
+                if (version < 5) {
+                    sendError(opcode, requestId, "Comando no reconocido.");
+                    break;
+                }
+                StreamInput input = streams.remove(requestId);
+                if (input != null) {
+                    if (reader.readByte() != 0) {
+                        input.end();
+                    } else {
+                        input.abort("El cliente ha cancelado la entrada.");
+                    }
+                }
+                break;
+            }
+
+            case BinaryProtocol.EXECUTE_BATCH: {
+                if (version < 2) {
+                    sendError(opcode, requestId, "Comando no reconocido.");
+                    break;
+                }
+                int count = reader.readInt();
+                // Cada entrada ocupa al menos su longitud: un número mayor no cabe en la trama
+                if (count < 0 || count > reader.remaining() / Integer.BYTES) {
+                    sendError(opcode, requestId, "Número de entradas del lote no válido: " + count);
+                    break;
+                }
+                if (count > maxBatchSize) {
+                    sendError(opcode, requestId, "El lote supera el máximo de " + maxBatchSize + " entradas.");
+                    break;
+                }
+                List<String> inputs = new ArrayList<>(count);
+                for (int i = 0; i < count; i++) {
+                    inputs.add(reader.readString());
+                }
+                Service service = session.getActiveService();
+                if (service == null) {
+                    sendError(opcode, requestId, "No hay ningún servicio activo para ejecutar.");
+                } else {
+                    dispatch(opcode, requestId, start, service.getName(), inputs.size(), () -> executeBatch(opcode, requestId, service, inputs));
+                }
+                break;
+            }
+
+            case BinaryProtocol.GET_INSTRUCTIONS:
+                if (session.getActiveService() == null) {
+                    sendError(opcode, requestId, "No hay ningún servicio activo para mostrar la ayuda.");
+                } else {
+                    sendResult(opcode, requestId, session.getActiveServiceHelp());
+                }
+                break;
+
+            case BinaryProtocol.UPLOAD_JAR: {
+                // El contenido del jar sigue a la trama, sin enmarcar
+                String jarName = reader.readString();
+                long fileSize = reader.readLong();
+                connection.receiveJar(jarName, fileSize, null, 0, uploadReply(opcode, requestId));
+                break;
+            }
+
+            case BinaryProtocol.UPLOAD_STATUS: {
+                if (version < 3) {
+                    sendError(opcode, requestId, "Comando no reconocido.");
+                    break;
+                }
+                String jarName = reader.readString();
+                String sha256 = reader.readString();
+                long fileSize = reader.readLong();
+                try {
+                    long offset = connection.uploadOffset(jarName, sha256, fileSize);
+                    respond(() -> writer.begin(opcode, requestId, BinaryProtocol.STATUS_OK).writeLong(offset));
+                } catch (UploadException e) {
+                    sendError(opcode, requestId, e.getMessage());
+                }
+                break;
+            }
+
+            case BinaryProtocol.UPLOAD_RESUME: {
+                if (version < 3) {
+                    // Sin conocer el formato no se pueden saltar los bytes que siguen: se cierra la conexión
+                    throw new IOException("Comando no admitido en la versión " + version + ": UPLOAD_RESUME");
+                }
+                String jarName = reader.readString();
+                String sha256 = reader.readString();
+                long fileSize = reader.readLong();
+                long offset = reader.readLong();
+                connection.receiveJar(jarName, fileSize, sha256, offset, uploadReply(opcode, requestId));
+                break;
+            }
+
+            case BinaryProtocol.DEACTIVATE_SERVICE:
+                session.clearActiveService();
+                respond(() -> writer.begin(opcode, requestId, BinaryProtocol.STATUS_OK));
+                break;
+
+            case BinaryProtocol.RELOAD_SERVICES:
+                connection.reloadServices();
+                sendResult(opcode, requestId, "Lista de servicios recargada con éxito.");
+                break;
+
+            case BinaryProtocol.STATS:
+                sendResult(opcode, requestId, connection.getServer().getStats());
+                break;
+
+            case BinaryProtocol.EXIT:
+                abortStreams("El cliente ha terminado la sesión sin completar la entrada.");
+                awaitPending();
+                Log.debug(session.getId(), "Cliente desconectado.");
+                return false;
+
+            default:
+                sendError(opcode, requestId, "Comando no reconocido.");
+                break;
+        }
+        return true;
+    }
+
+    /**
+     * Ejecuta una petición en paralelo si la versión del protocolo lo permite, o en este hilo si no.
+     * Antes pasa por el control de admisión: si la petición supera algún límite, se rechaza sin ejecutarla.
+     * @param start Momento en que se recibió la petición, para registrar su latencia al terminar.
+     * @param serviceName Servicio que se ejecuta, para el registro, o {@code null}.
+     * @param cost Ejecuciones que contiene la petición, para los límites de peticiones por segundo.
+     */
+    private void dispatch(byte opcode, int requestId, long start, String serviceName, int cost, ResponseTask task)
+            throws IOException {
+        if (version < 2) {
+            boolean concurrent;
+            try {
+                concurrent = admit(cost, opcode);
+            } catch (RateLimitedException e) {
+                sendUnavailable(opcode, requestId, e);
+                return;
+            }
+            dispatched = true;
+            try {
+                run(task, serviceName, concurrent);
+            } finally {
+                completed(opcode, serviceName, start);
+            }
+            return;
+        }
+        try {
+            pending.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrumpido esperando a las peticiones pendientes.");
+        }
+        // La admisión se decide al poder lanzarla, no al llegar: la espera anterior no ocupa ejecuciones
+        boolean concurrent;
+        try {
+            concurrent = admit(cost, opcode);
+        } catch (RateLimitedException e) {
+            pending.release();
+            sendUnavailable(opcode, requestId, e);
+            return;
+        }
+        try {
+            connection.getServer().getExecutor().execute(() -> {
+                try {
+                    run(task, serviceName, concurrent);
+                } catch (IOException e) {
+                    // La conexión se ha cerrado: la respuesta ya no tiene destino
+                } finally {
+                    pending.release();
+                    connection.resumeCommands();
+                    completed(opcode, serviceName, start);
+                }
+            });
+            dispatched = true;
+        } catch (RejectedExecutionException e) {
+            pending.release();
+            if (concurrent) {
+                admission.release(null, 0);
+            }
+            sendError(opcode, requestId, "El servidor se está deteniendo.");
+        }
+    }
+
+    /**
+     * Las ejecuciones en streaming no ocupan ejecuciones simultáneas: duran lo que tarda el cliente en enviar
+     * la entrada, así que ni su número ni su latencia dicen nada de la carga del servidor.
+     * @return {@code true} si la petición ocupa una ejecución simultánea del servidor.
+     */
+    private boolean admit(int cost, byte opcode) throws RateLimitedException {
+        return admission.admit(quota, cost, opcode != BinaryProtocol.EXECUTE_STREAM);
+    }
+
+    /**
+     * Ejecuta una petición admitida y envía su respuesta. La ejecución simultánea que ocupa se libera antes de
+     * enviarla, para que un cliente que espera cada respuesta no encuentre ocupada la suya con la siguiente
+     * petición. El límite se ajusta con lo que ha tardado la ejecución, sin la espera hasta tener hilo, que
+     * depende también de los rechazos.
+     */
+    private void run(ResponseTask task, String serviceName, boolean concurrent) throws IOException {
+        long began = System.nanoTime();
+        Response response;
+        try {
+            response = task.run();
+        } finally {
+            if (concurrent) {
+                admission.release(serviceName, System.nanoTime() - began);
+            }
+        }
+        response.send();
+    }
+
+    /**
+     * Registra la latencia de una petición atendida. Los bloques de datos de un streaming cuentan en las
+     * métricas, pero no se registran uno a uno.
+     */
+    private void completed(byte opcode, String serviceName, long start) {
+        long latency = System.nanoTime() - start;
+        String command = BinaryProtocol.commandName(opcode);
+        metrics.recordCommand(command, latency);
+        if (opcode != BinaryProtocol.STREAM_DATA) {
+            Log.command(session.getId(), command, serviceName, latency);
+        }
+    }
+
+    private Response execute(byte opcode, int requestId, Service service, String input) {
+        try {
+            String result = session.execute(service, input);
+            return () -> sendResult(opcode, requestId, result);
+        } catch (ServiceUnavailableException e) {
+            metrics.errorOccurred();
+            return () -> sendUnavailable(opcode, requestId, e);
+        }
+    }
+
+    private Response executePipeline(byte opcode, int requestId, Pipeline pipeline, String input) {
+        try {
+            String result = session.executePipeline(pipeline, input);
+            return () -> sendResult(opcode, requestId, result);
+        } catch (ServiceUnavailableException e) {
+            metrics.errorOccurred();
+            return () -> sendUnavailable(opcode, requestId, e);
+        }
+    }
+
+    /**
+     * La salida de un streaming se envía mientras se ejecuta: no queda nada que responder al terminar.
+     */
+    private Response executeStream(byte opcode, int requestId, Service service, StreamInput input) throws IOException {
+        StreamOutput output = new StreamOutput(opcode, requestId);
+        try {
+            session.executeStream(service, input, output);
+            output.finish();
+        } catch (ServiceUnavailableException e) {
+            metrics.errorOccurred();
+            sendUnavailable(opcode, requestId, e);
+        } catch (IOException e) {
+            // Si la conexión está cerrada este envío también falla y la ejecución termina sin respuesta
+            sendError(opcode, requestId, e.getMessage());
+        } finally {
+            input.close();
+        }
+        return () -> {
+        };
+    }
+
+    private Response executeBatch(byte opcode, int requestId, Service service, List<String> inputs) {
+        List<BatchResult> results = new ArrayList<>(inputs.size());
+        for (String input : inputs) {
+            try {
+                String result = session.execute(service, input);
+                results.add(result != null ? new BatchResult(BinaryProtocol.STATUS_OK, result)
+                        : new BatchResult(BinaryProtocol.STATUS_ERROR, "El servicio no ha devuelto ningún resultado."));
+            } catch (ServiceUnavailableException e) {
+                results.add(new BatchResult(statusOf(e), e.getMessage()));
+            }
+        }
+        return () -> respond(() -> {
+            writer.begin(opcode, requestId, BinaryProtocol.STATUS_OK).writeInt(results.size());
+            for (BatchResult result : results) {
+                writer.writeByte(result.status()).writeString(result.value());
+            }
+        });
+    }
+
+    /**
+     * Responde que la ejecución no se ha podido completar. Un rechazo de los límites de admisión lleva, desde la
+     * versión 7, su propio estado y cuándo reintentar; antes se envía como {@code STATUS_BUSY}.
+     */
+    private void sendUnavailable(byte opcode, int requestId, ServiceUnavailableException e) throws IOException {
+        if (e instanceof RateLimitedException limited && version >= 7) {
+            respond(() -> writer.begin(opcode, requestId, BinaryProtocol.STATUS_RATE_LIMITED)
+                    .writeString(e.getMessage()).writeLong(limited.getRetryAfterMillis()));
+        } else {
+            respond(() -> writer.begin(opcode, requestId, statusOf(e)).writeString(e.getMessage()));
+        }
+    }
+
+    private static byte statusOf(ServiceUnavailableException e) {
+        return e.isBusy() ? BinaryProtocol.STATUS_BUSY : BinaryProtocol.STATUS_ERROR;
+    }
+
+    /**
+     * La conexión se ha cerrado: las ejecuciones en streaming que esperan entrada fallan en lugar de esperar siempre.
+     */
+    @Override
+    public void close() {
+        abortStreams("La conexión se ha cerrado sin completar la entrada.");
+    }
+
+    private void abortStreams(String message) {
+        for (StreamInput input : streams.values()) {
+            input.abort(message);
+        }
+        streams.clear();
+    }
+
+    /**
+     * Espera a que terminen las ejecuciones en curso, para enviar sus respuestas antes de cerrar. Con el motor no
+     * bloqueante ya han terminado: {@link #isReady} no deja atender {@code EXIT} hasta entonces.
+     */
+    private void awaitPending() throws InterruptedIOException {
+        try {
+            pending.acquire(maxPending);
+            pending.release(maxPending);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrumpido esperando a las peticiones pendientes.");
+        }
+    }
+
+    private ClientConnection.UploadReply uploadReply(byte opcode, int requestId) {
+        return (message, success) -> {
+            if (success) {
+                sendResult(opcode, requestId, message);
+            } else {
+                sendError(opcode, requestId, message);
+            }
+        };
+    }
+
+    /**
+     * Envía el resultado de un servicio. Un resultado nulo indica que el servicio ha fallado.
+     */
+    private void sendResult(byte opcode, int requestId, String result) throws IOException {
+        if (result == null) {
+            sendError(opcode, requestId, "El servicio no ha devuelto ningún resultado.");
+            return;
+        }
+        respond(() -> writer.begin(opcode, requestId, BinaryProtocol.STATUS_OK).writeString(result));
+    }
+
+    private void sendError(byte opcode, int requestId, String message) throws IOException {
+        metrics.errorOccurred();
+        respond(() -> writer.begin(opcode, requestId, BinaryProtocol.STATUS_ERROR).writeString(message));
+    }
+
+    /**
+     * Compone y envía una respuesta en exclusión mutua con las demás respuestas de la conexión.
+     * Se usa un {@link ReentrantLock} en lugar de {@code synchronized} para no fijar el hilo virtual
+     * a su hilo portador mientras se escribe en el socket.
+     */
+    private void respond(Runnable compose) throws IOException {
+        writeLock.lock();
+        try {
+            compose.run();
+            writer.send();
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Envía una respuesta correcta cuyos datos ya están codificados.
+     */
+    private void respond(byte opcode, int requestId, byte[] payload) throws IOException {
+        writeLock.lock();
+        try {
+            writer.begin(opcode, requestId, BinaryProtocol.STATUS_OK).send(payload);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Salida de una ejecución en streaming: acumula lo que escribe el servicio y lo envía en tramas
+     * {@code STATUS_CONTINUE}. La última parte va en la trama {@code STATUS_OK} de {@link #finish()}.
+     */
+    private final class StreamOutput extends OutputStream {
+
+        private final byte opcode;
+        private final int requestId;
+        private final byte[] buffer = new byte[STREAM_CHUNK_SIZE];
+        private int count;
+
+        StreamOutput(byte opcode, int requestId) {
+            this.opcode = opcode;
+            this.requestId = requestId;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if (count == buffer.length) {
+                send(BinaryProtocol.STATUS_CONTINUE);
+            }
+            buffer[count++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                if (count == buffer.length) {
+                    send(BinaryProtocol.STATUS_CONTINUE);
+                }
+                int n = Math.min(len, buffer.length - count);
+                System.arraycopy(b, off, buffer, count, n);
+                count += n;
+                off += n;
+                len -= n;
+            }
+        }
+
+        /**
+         * Envía lo acumulado, para que el cliente reciba la salida antes de que el servicio termine.
+         */
+        @Override
+        public void flush() throws IOException {
+            if (count > 0) {
+                send(BinaryProtocol.STATUS_CONTINUE);
+            }
+        }
+
+        void finish() throws IOException {
+            send(BinaryProtocol.STATUS_OK);
+        }
+
+        private void send(byte status) throws IOException {
+            writeLock.lock();
+            try {
+                writer.begin(opcode, requestId, status).send(buffer, 0, count);
+            } finally {
+                writeLock.unlock();
+            }
+            count = 0;
+        }
+    }
+
+    private record BatchResult(byte status, String value) {
+    }
+
+    /**
+     * Una ejecución lanzada por {@link #dispatch}. Devuelve la respuesta que queda por enviar.
+     */
+    private interface ResponseTask {
+        Response run() throws IOException;
+    }
+
+    private interface Response {
+        void send() throws IOException;
+    }
+}
@@ -0,0 +1,175 @@
+package server;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Flujo de entrada con búfer sobre un {@link SocketChannel}.
+ * Con el canal bloqueante, cada lectura espera a que lleguen datos. Con el canal no bloqueante nunca espera:
+ * el motor acumula en el búfer lo que llega ({@link #fillTo}) y solo atiende un comando cuando está completo,
+ * así que leer más allá de lo recibido es un error.
+ * A diferencia de {@link java.nio.channels.Channels#newInputStream}, no bloquea a quien escribe
+ * en el mismo canal desde otro hilo.
+ */
+class ChannelInputStream extends InputStream {
+
+    private static final int BUFFER_SIZE = 8192;
+    // Por encima de este tamaño el búfer no se conserva tras un comando grande
+    private static final int MAX_RETAINED_CAPACITY = 1 << 20;
+
+    private final SocketChannel channel;
+    private ByteBuffer buffer;
+    // Bytes leídos del canal, para las métricas del servidor
+    private final LongAdder bytesRead;
+    private boolean eof;
+
+    ChannelInputStream(SocketChannel channel, LongAdder bytesRead) {
+        this.channel = channel;
+        this.buffer = ByteBuffer.allocateDirect(BUFFER_SIZE).flip();
+        this.bytesRead = bytesRead;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!buffer.hasRemaining() && !fillBlocking()) {
+            return -1;
+        }
+        return buffer.get() & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (!buffer.hasRemaining() && !fillBlocking()) {
+            return -1;
+        }
+        int n = Math.min(len, buffer.remaining());
+        buffer.get(b, off, n);
+        return n;
+    }
+
+    /**
+     * Salta hasta {@code n} bytes. Con el canal no bloqueante solo salta los que ya han llegado.
+     */
+    @Override
+    public long skip(long n) throws IOException {
+        if (n <= 0 || !buffer.hasRemaining() && fill() <= 0) {
+            return 0;
+        }
+        int skipped = (int) Math.min(n, buffer.remaining());
+        buffer.position(buffer.position() + skipped);
+        return skipped;
+    }
+
+    @Override
+    public int available() {
+        return buffer.remaining();
+    }
+
+    /**
+     * @return Los bytes recibidos que aún no se han leído, sin consumirlos.
+     */
+    ByteBuffer received() {
+        return buffer.slice();
+    }
+
+    /**
+     * Lee del canal, sin esperar, hasta tener al menos {@code needed} bytes sin leer en el búfer, que se
+     * amplía si no caben. Solo se usa con el canal no bloqueante.
+     * @return {@code true} si ya los tiene; si no, hay que esperar a que el canal vuelva a ser legible.
+     */
+    boolean fillTo(int needed) throws IOException {
+        if (buffer.remaining() >= needed) {
+            return true;
+        }
+        ensureCapacity(needed);
+        while (buffer.remaining() < needed) {
+            if (fill() <= 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return {@code true} si el cliente ha cerrado la conexión y no quedan bytes sin leer.
+     */
+    boolean isEndOfStream() {
+        return eof && !buffer.hasRemaining();
+    }
+
+    /**
+     * Copia los siguientes {@code count} bytes del canal a un fichero, a partir de {@code position}.
+     * Primero vacía el búfer y después usa {@link FileChannel#transferFrom}, sin copiar a un array del heap.
+     * @return Los bytes copiados; menos de {@code count} si el cliente ha cerrado la conexión o, con el canal
+     * no bloqueante, si no han llegado más.
+     */
+    long transferTo(FileChannel file, long position, long count) throws IOException {
+        long done = 0;
+        while (done < count) {
+            if (buffer.hasRemaining()) {
+                int n = (int) Math.min(buffer.remaining(), count - done);
+                ByteBuffer pending = buffer.slice(buffer.position(), n);
+                while (pending.hasRemaining()) {
+                    done += file.write(pending, position + done);
+                }
+                buffer.position(buffer.position() + n);
+                continue;
+            }
+            long n = file.transferFrom(channel, position + done, count - done);
+            if (n > 0) {
+                done += n;
+                bytesRead.add(n);
+            } else if (fill() <= 0) {
+                // Sin datos: el búfer detecta también el fin del flujo
+                break;
+            }
+        }
+        return done;
+    }
+
+    /**
+     * Amplía el búfer para que quepan {@code needed} bytes sin leer. Tras un comando grande vuelve al tamaño
+     * inicial en cuanto lo pendiente cabe en él.
+     */
+    private void ensureCapacity(int needed) {
+        int capacity = buffer.capacity();
+        if (capacity >= needed && (capacity <= MAX_RETAINED_CAPACITY || needed > BUFFER_SIZE)) {
+            return;
+        }
+        ByteBuffer resized = ByteBuffer.allocateDirect(Math.max(needed, capacity < needed ? capacity * 2 : BUFFER_SIZE));
+        resized.put(buffer).flip();
+        buffer = resized;
+    }
+
+    private int fill() throws IOException {
+        buffer.compact();
+        int n;
+        try {
+            n = channel.read(buffer);
+        } finally {
+            buffer.flip();
+        }
+        if (n < 0) {
+            eof = true;
+        } else {
+            bytesRead.add(n);
+        }
+        return n;
+    }
+
+    private boolean fillBlocking() throws IOException {
+        int n = fill();
+        if (n == 0) {
+            // Solo con el canal no bloqueante: el comando no estaba completo al entregarlo
+            throw new IOException("Comando incompleto: faltan datos del cliente.");
+        }
+        return n > 0;
+    }
+}
@@ -0,0 +1,141 @@
+package server;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Flujo de salida con búfer sobre un {@link SocketChannel}, complementario de {@link ChannelInputStream}.
+ * <p>
+ * Con el canal bloqueante, {@link #flush()} espera a enviar todos los bytes. Con el canal no bloqueante nunca
+ * espera: lo que el socket no admite se guarda, en orden, y se envía desde el selector del motor cuando el
+ * canal vuelve a admitir escritura ({@link #writeBacklog()}).
+ */
+class ChannelOutputStream extends OutputStream {
+
+    private static final int BUFFER_SIZE = 8192;
+
+    private final SocketChannel channel;
+    private final ByteBuffer buffer;
+    // Bytes escritos en el canal, para las métricas del servidor
+    private final LongAdder bytesWritten;
+    // Bytes pendientes de enviar con el canal no bloqueante: solo se usan con backlogLock
+    private final ReentrantLock backlogLock = new ReentrantLock();
+    private final ArrayDeque<ByteBuffer> backlog = new ArrayDeque<>();
+    private volatile long backlogBytes;
+    private SelectionKey key;
+
+    ChannelOutputStream(SocketChannel channel, LongAdder bytesWritten) {
+        this.channel = channel;
+        this.buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        this.bytesWritten = bytesWritten;
+    }
+
+    /**
+     * Clave del canal en el selector del motor, al que se pide aviso cuando quedan bytes pendientes.
+     */
+    void setSelectionKey(SelectionKey key) {
+        this.key = key;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        if (!buffer.hasRemaining()) {
+            drain();
+        }
+        buffer.put((byte) b);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            if (!buffer.hasRemaining()) {
+                drain();
+            }
+            int n = Math.min(len, buffer.remaining());
+            buffer.put(b, off, n);
+            off += n;
+            len -= n;
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        drain();
+    }
+
+    /**
+     * @return Los bytes que esperan a que el socket admita escritura.
+     */
+    long getBacklog() {
+        return backlogBytes;
+    }
+
+    /**
+     * Envía lo pendiente mientras el socket lo admita. Lo llama el selector cuando el canal admite escritura.
+     */
+    void writeBacklog() throws IOException {
+        backlogLock.lock();
+        try {
+            while (!backlog.isEmpty()) {
+                ByteBuffer head = backlog.peek();
+                backlogBytes -= channel.write(head);
+                if (head.hasRemaining()) {
+                    return;
+                }
+                backlog.poll();
+            }
+            // Con el cerrojo: una escritura posterior vuelve a pedir aviso
+            key.interestOpsAnd(~SelectionKey.OP_WRITE);
+        } finally {
+            backlogLock.unlock();
+        }
+    }
+
+    private void drain() throws IOException {
+        buffer.flip();
+        bytesWritten.add(buffer.remaining());
+        try {
+            if (channel.isBlocking()) {
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+                return;
+            }
+            backlogLock.lock();
+            try {
+                // Si ya hay bytes pendientes, estos van detrás
+                if (backlog.isEmpty()) {
+                    channel.write(buffer);
+                }
+                if (buffer.hasRemaining()) {
+                    enqueue();
+                }
+            } finally {
+                backlogLock.unlock();
+            }
+        } finally {
+            buffer.clear();
+        }
+    }
+
+    private void enqueue() throws ClosedChannelException {
+        backlogBytes += buffer.remaining();
+        backlog.add(ByteBuffer.allocate(buffer.remaining()).put(buffer).flip());
+        if (backlog.size() == 1) {
+            try {
+                key.interestOpsOr(SelectionKey.OP_WRITE);
+            } catch (CancelledKeyException e) {
+                throw new ClosedChannelException();
+            }
+            key.selector().wakeup();
+        }
+    }
+}
@@ -0,0 +1,294 @@
+package server;
+
+import java.io.*;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Conexión de un cliente con el servidor, independiente del motor de conexiones que la ejecute:
+ * el motor de hilos virtuales atiende los comandos en bucle y el motor basado en selector los atiende
+ * a medida que llegan datos. El formato de los comandos lo decide el {@link ProtocolHandler} actual.
+ */
+class ClientConnection implements Closeable {
+
+    // Bytes de respuestas pendientes de enviar a partir de los cuales no se atienden más comandos
+    static final int MAX_OUTPUT_BACKLOG = 1 << 20;
+    // Comandos que se atienden seguidos de una conexión antes de ceder el trabajador a las demás
+    static final int MAX_COMMANDS_PER_TURN = 64;
+
+    private final Server server;
+    private final ClientSession session;
+    private final AdmissionControl.Quota quota;
+    private final SocketChannel channel;
+    private final ChannelInputStream channelIn;
+    private final ChannelOutputStream channelOut;
+    private final DataInputStream dataIn;
+    private final DataOutputStream dataOut;
+    private ProtocolHandler protocol;
+    // Subida de jar cuyo contenido aún está llegando, y cómo responder al terminar
+    private JarReceiver.Upload upload;
+    private UploadReply uploadReply;
+    // Motor no bloqueante: si la atención de comandos está en pausa, y cómo reanudarla
+    private final AtomicBoolean paused = new AtomicBoolean();
+    private Runnable onResume;
+
+    ClientConnection(Server server, SocketChannel channel) {
+        this.server = server;
+        this.session = new ClientSession(server.getRegistry());
+        this.channel = channel;
+        this.quota = server.getAdmission().newQuota(channel);
+        this.channelIn = new ChannelInputStream(channel, server.getMetrics().getBytesIn());
+        this.dataIn = new DataInputStream(channelIn);
+        this.channelOut = new ChannelOutputStream(channel, server.getMetrics().getBytesOut());
+        this.dataOut = new DataOutputStream(channelOut);
+        this.protocol = new LegacyProtocolHandler(this);
+    }
+
+    Server getServer() {
+        return server;
+    }
+
+    ClientSession getSession() {
+        return session;
+    }
+
+    /**
+     * Límites de peticiones de esta conexión.
+     */
+    AdmissionControl.Quota getQuota() {
+        return quota;
+    }
+
+    SocketChannel getChannel() {
+        return channel;
+    }
+
+    DataInputStream getDataIn() {
+        return dataIn;
+    }
+
+    DataOutputStream getDataOut() {
+        return dataOut;
+    }
+
+    void switchProtocol(ProtocolHandler protocol) {
+        this.protocol = protocol;
+    }
+
+    void greet() throws IOException {
+        // Saludo inicial
+        dataOut.writeUTF("Conexión realizada. ¡Bienvenido al cliente de servicios!");
+        dataOut.flush();
+    }
+
+    /**
+     * Prepara la conexión para el motor no bloqueante.
+     * @param key Clave de la conexión en su selector, que envía lo que el socket no admite al momento.
+     * @param onResume Vuelve a entregar la conexión a un trabajador cuando se reanuda tras una pausa.
+     */
+    void setSelectionKey(SelectionKey key, Runnable onResume) {
+        channelOut.setSelectionKey(key);
+        this.onResume = onResume;
+    }
+
+    /**
+     * Lee sin esperar lo que haya enviado el cliente. Solo se usa con el canal no bloqueante.
+     * @return {@code true} si hay algo que atender: un comando completo, más contenido de una subida en
+     * curso o el cierre de la conexión.
+     */
+    boolean readAvailable() throws IOException {
+        if (upload != null) {
+            // El contenido de la subida se copia directamente del canal al fichero
+            return true;
+        }
+        while (true) {
+            int needed = protocol.commandLength(channelIn.received());
+            if (channelIn.available() >= needed) {
+                return true;
+            }
+            if (!channelIn.fillTo(needed)) {
+                return channelIn.isEndOfStream();
+            }
+        }
+    }
+
+    /**
+     * Atiende todos los comandos completos que el cliente ya ha enviado, sin esperar a que lleguen otros nuevos.
+     * Si se acumulan demasiadas respuestas sin enviar, o el protocolo tendría que esperar para atender el
+     * siguiente comando, la atención queda en pausa hasta que se pueda continuar. Tras
+     * {@link #MAX_COMMANDS_PER_TURN} comandos cede el turno, para que un cliente que encadena muchas peticiones
+     * no acapare al trabajador. Solo se usa con el canal no bloqueante.
+     */
+    Progress handleAvailableCommands() throws IOException {
+        for (int handled = 0; ; handled++) {
+            if (handled == MAX_COMMANDS_PER_TURN) {
+                return Progress.YIELDED;
+            }
+            if (!readAvailable()) {
+                return Progress.WAITING_FOR_DATA;
+            }
+            if (!isReady()) {
+                paused.set(true);
+                // Si la causa ha desaparecido mientras tanto, puede que nadie más vaya a reanudarla
+                if (isReady() && paused.compareAndSet(true, false)) {
+                    continue;
+                }
+                return Progress.PAUSED;
+            }
+            if (upload != null) {
+                if (!continueUpload()) {
+                    return Progress.WAITING_FOR_DATA;
+                }
+            } else if (!handleCommand()) {
+                return Progress.CLOSED;
+            }
+        }
+    }
+
+    private boolean isReady() {
+        return channelOut.getBacklog() <= MAX_OUTPUT_BACKLOG && (upload != null || protocol.isReady(channelIn.received()));
+    }
+
+    /**
+     * Reanuda la atención de comandos si estaba en pausa y ya se puede. Lo llama quien puede levantar la pausa;
+     * si la reanuda, la conexión vuelve a un trabajador.
+     */
+    void resumeCommands() {
+        if (paused.get() && isReady() && paused.compareAndSet(true, false)) {
+            onResume.run();
+        }
+    }
+
+    /**
+     * Envía lo que el socket no admitió al escribirlo y, si la conexión estaba en pausa por ello, la reanuda.
+     */
+    void writeBacklog() throws IOException {
+        channelOut.writeBacklog();
+        resumeCommands();
+    }
+
+    /**
+     * Lee y ejecuta un comando del cliente.
+     * @return {@code false} si el cliente ha terminado la sesión.
+     */
+    boolean handleCommand() throws IOException {
+        return protocol.handleCommand();
+    }
+
+    /**
+     * Recibe el contenido de un jar que sigue al comando de subida, lo guarda en la carpeta de servicios
+     * y recarga los servicios. Comprueba el SHA-256 del jar, si lo hay, y admite continuar una subida
+     * interrumpida: el cliente solo envía los bytes a partir de {@code offset}.
+     * <p>
+     * Con el canal no bloqueante el contenido se recibe a medida que llega, mientras
+     * {@link #handleAvailableCommands()} no atiende más comandos; la respuesta se envía al terminar.
+     * @param sha256 SHA-256 del jar, o {@code null}.
+     * @param reply Envía al cliente la confirmación o el motivo del rechazo.
+     */
+    void receiveJar(String jarName, long fileSize, String sha256, long offset, UploadReply reply) throws IOException {
+        Log.info(session.getId(), "Recibiendo archivo: " + jarName + " (" + (fileSize - offset) + " de " + fileSize + " bytes)");
+        upload = server.getJarReceiver().start(jarName, fileSize, sha256, offset);
+        uploadReply = reply;
+        continueUpload();
+    }
+
+    /**
+     * Copia el contenido de la subida en curso que haya llegado y, si está completo, la termina y responde.
+     * @return {@code true} si la subida ha terminado.
+     */
+    private boolean continueUpload() throws IOException {
+        if (!upload.transfer(channelIn)) {
+            return false;
+        }
+        JarReceiver.Upload done = upload;
+        UploadReply reply = uploadReply;
+        upload = null;
+        uploadReply = null;
+        String jarName = done.getJarName();
+        try {
+            done.finish();
+        } catch (UploadException e) {
+            reply.send(e.getMessage(), false);
+            return true;
+        }
+        Log.info(session.getId(), "Archivo .jar recibido: " + jarName);
+
+        Gateway gateway = server.getGateway();
+        if (gateway != null) {
+            reply.send(gateway.replicate(Path.of(server.getConfig().getServicesDir(), jarName)), true);
+        } else {
+            reloadServices();
+            reply.send("Servicio recibido con éxito: " + jarName, true);
+        }
+        return true;
+    }
+
+    /**
+     * @return Los bytes de una subida anterior del mismo jar que ya tiene el servidor.
+     */
+    long uploadOffset(String jarName, String sha256, long fileSize) throws IOException, UploadException {
+        return server.getJarReceiver().resumeOffset(jarName, sha256, fileSize);
+    }
+
+    void reloadServices() {
+        try {
+            server.reloadServices();
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Gestiona el error de una conexión: informa y desactiva el servicio activo de su sesión.
+     * Las sesiones de los demás clientes no se ven afectadas. Si el cliente simplemente ha cerrado la
+     * conexión, no se cuenta como error.
+     */
+    void handleError(Exception e) {
+        if (e instanceof EOFException || e instanceof ClosedChannelException) {
+            Log.debug(session.getId(), "El cliente ha cerrado la conexión.");
+        } else {
+            session.errorOccurred();
+            server.getMetrics().errorOccurred();
+            Log.warn(session.getId(), "Error con el cliente: " + (e.getMessage() != null ? e.getMessage() : e.getClass().getSimpleName()));
+        }
+        session.clearActiveService();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (upload != null) {
+            upload.abort();
+        }
+        protocol.close();
+        session.close();
+        try (channel; dataIn; dataOut) {
+            // Cierra los flujos y el canal
+        }
+    }
+
+    /**
+     * Cómo queda la conexión tras {@link #handleAvailableCommands()}.
+     */
+    enum Progress {
+        // Falta que lleguen más datos del cliente
+        WAITING_FOR_DATA,
+        // En pausa: la reanuda resumeCommands
+        PAUSED,
+        // Ha atendido su cupo de comandos y cede el trabajador a las demás conexiones
+        YIELDED,
+        // El cliente ha terminado la sesión
+        CLOSED
+    }
+
+    /**
+     * Respuesta al cliente cuando termina una subida de jar, en el formato de su protocolo.
+     */
+    interface UploadReply {
+        void send(String message, boolean success) throws IOException;
+    }
+}
@@ -0,0 +1,223 @@
+package server;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Estado de la sesión de un cliente: el servicio que tiene activo y sus contadores.
+ * Cada conexión tiene su propia sesión, de modo que lo que hace un cliente no cambia
+ * el servicio que ejecutan los demás. El servicio activo solo lo cambia el hilo que lee los comandos
+ * de la conexión; las ejecuciones en paralelo de un mismo cliente reciben el servicio ya resuelto.
+ */
+public class ClientSession {
+
+    private static final AtomicLong NEXT_ID = new AtomicLong();
+
+    private final long id;
+    private final ServiceRegistry registry;
+    private Service activeService;
+    private final AtomicLong commandCount = new AtomicLong();
+    private final AtomicLong executionCount = new AtomicLong();
+    private final AtomicLong errorCount = new AtomicLong();
+    // Servicios que han creado una instancia para esta sesión, que se libera al cerrarla
+    private final Set<ServiceAdapter> sessionServices = ConcurrentHashMap.newKeySet();
+    private volatile boolean closed;
+
+    public ClientSession(ServiceRegistry registry) {
+        this.id = NEXT_ID.incrementAndGet();
+        this.registry = registry;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    /**
+     * Activa el servicio de la posición indicada del registro.
+     * @return {@code false} si el índice no es válido; en ese caso el servicio activo no cambia.
+     */
+    public boolean setActiveService(int index) {
+        Service service = registry.get(index);
+        if (service != null) {
+            // Un servicio diferido se carga al activarlo, no en su primera ejecución
+            if (service instanceof ServiceAdapter adapter) {
+                adapter.ensureLoaded();
+            }
+            activeService = service;
+            Log.debug(id, "Servicio activo cambiado a: " + activeService.getName());
+            return true;
+        }
+        Log.debug(id, "Índice inválido. No se cambió el servicio activo.");
+        return false;
+    }
+
+    public void clearActiveService() {
+        activeService = null;
+        Log.debug(id, "Servicio desactivado.");
+    }
+
+    /**
+     * Devuelve el servicio activo. Si se ha recargado su jar, la sesión pasa a usar la versión nueva;
+     * si el jar se ha eliminado, la sesión se queda sin servicio activo.
+     */
+    public Service getActiveService() {
+        Service service = activeService;
+        if (service instanceof ServiceAdapter adapter && adapter.isRetired()) {
+            service = adapter.getSuccessor();
+            activeService = service;
+        }
+        return service;
+    }
+
+    public String getActiveServiceName() {
+        Service service = getActiveService();
+        return service == null ? "No hay ningún servicio activo." : service.getName();
+    }
+
+    public String getActiveServiceHelp() {
+        Service service = getActiveService();
+        return service == null ? "No hay ningún servicio activo para mostrar la ayuda."
+                : service.getHelp();
+    }
+
+    public String executeActiveService(String input) {
+        Service service = getActiveService();
+        if (service == null) {
+            return "No hay ningún servicio activo para ejecutar.";
+        }
+        try {
+            return execute(service, input);
+        } catch (ServiceUnavailableException e) {
+            return e.getMessage();
+        }
+    }
+
+    /**
+     * Busca un servicio por su nombre, o por nombre y versión ({@code "nombre@versión"}), sin cambiar el
+     * servicio activo.
+     * @return El servicio, o {@code null} si no existe.
+     */
+    public Service findService(String name) {
+        return registry.find(name);
+    }
+
+    /**
+     * Ejecuta un servicio por su nombre sin cambiar el servicio activo.
+     * @return El resultado, o un mensaje de error si el servicio no existe o no está disponible.
+     */
+    public String executeByName(String name, String input) {
+        Service service = findService(name);
+        if (service == null) {
+            return "Servicio no encontrado: " + name;
+        }
+        try {
+            return execute(service, input);
+        } catch (ServiceUnavailableException e) {
+            return e.getMessage();
+        }
+    }
+
+    /**
+     * Ejecuta un servicio ya resuelto. Se usa para las peticiones que se atienden en paralelo,
+     * que deben usar el servicio que estaba activo cuando se recibieron.
+     * @throws ServiceUnavailableException si el servicio está saturado o no responde a tiempo.
+     */
+    public String execute(Service service, String input) throws ServiceUnavailableException {
+        executionCount.incrementAndGet();
+        if (service instanceof ServiceAdapter adapter) {
+            return adapter.submit(input, this);
+        }
+        if (service instanceof PipelineService pipeline) {
+            return pipeline.execute(input, this);
+        }
+        if (service instanceof RemoteService remote) {
+            return remote.submit(input);
+        }
+        return service.execute(input);
+    }
+
+    /**
+     * Ejecuta un pipeline enviado por el cliente. Sus etapas cuentan como ejecuciones de la sesión.
+     * @throws ServiceUnavailableException si alguna etapa falla, no existe o está saturada.
+     */
+    String executePipeline(Pipeline pipeline, String input) throws ServiceUnavailableException {
+        return pipeline.execute(input, registry, this);
+    }
+
+    /**
+     * Ejecuta un servicio ya resuelto en streaming. Los servicios sin streaming reciben la entrada entera como
+     * texto UTF-8 y su resultado se escribe en la salida.
+     * @throws ServiceUnavailableException si el servicio está saturado.
+     * @throws IOException si el servicio falla o la conexión se cierra.
+     */
+    public void executeStream(Service service, InputStream input, OutputStream output)
+            throws IOException, ServiceUnavailableException {
+        executionCount.incrementAndGet();
+        if (service instanceof ServiceAdapter adapter) {
+            adapter.submitStream(input, output, this);
+        } else if (service instanceof StreamingService streaming) {
+            streaming.execute(input, output);
+        } else {
+            String result = service.execute(new String(input.readAllBytes(), StandardCharsets.UTF_8));
+            if (result == null) {
+                throw new IOException("El servicio no ha devuelto ningún resultado.");
+            }
+            output.write(result.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    /**
+     * @return {@code true} si el servicio procesa la entrada como un flujo, sin leerla entera en memoria.
+     */
+    static boolean isStreaming(Service service) {
+        return service instanceof StreamingService
+                || (service instanceof ServiceAdapter adapter && adapter.isStreaming());
+    }
+
+    /**
+     * Anota que un servicio ha creado una instancia propia para esta sesión.
+     */
+    void using(ServiceAdapter adapter) {
+        sessionServices.add(adapter);
+        // Una ejecución que termina después de cerrar la sesión no debe dejar su instancia olvidada
+        if (closed) {
+            adapter.sessionClosed(this);
+        }
+    }
+
+    /**
+     * Cierra la sesión y libera las instancias que los servicios tenían para ella.
+     */
+    void close() {
+        closed = true;
+        for (ServiceAdapter adapter : sessionServices) {
+            adapter.sessionClosed(this);
+        }
+        sessionServices.clear();
+    }
+
+    void commandReceived() {
+        commandCount.incrementAndGet();
+    }
+
+    void errorOccurred() {
+        errorCount.incrementAndGet();
+    }
+
+    public long getCommandCount() {
+        return commandCount.get();
+    }
+
+    public long getExecutionCount() {
+        return executionCount.get();
+    }
+
+    public long getErrorCount() {
+        return errorCount.get();
+    }
+}
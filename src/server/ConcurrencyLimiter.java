@@ -0,0 +1,159 @@
+package server;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Límite adaptativo de ejecuciones simultáneas en todo el servidor, ajustado con AIMD a partir de la latencia
+ * observada, como el control de congestión de TCP Vegas.
+ * <p>
+ * Cada servicio tiene su latencia de referencia: la mínima de sus ejecuciones en los últimos 10 a 20 segundos,
+ * como la latencia base de Vegas, que no incluye la espera en cola. Una media se iría acercando a la latencia
+ * con cola mientras esta dura y dejaría de detectarla; la mínima solo sube cuando durante toda una ventana no
+ * se ha visto ninguna menor, por ejemplo porque el servicio se ha vuelto más lento. Para los servicios de
+ * menos de un milisegundo la referencia es un milisegundo, porque a esa escala cualquier pausa del planificador
+ * parecería cola.
+ * <p>
+ * El límite se revisa cada ventana de ejecuciones (al menos tantas como el límite) con la media de lo que ha
+ * tardado cada una respecto a la referencia de su servicio. Si tardan bastante más, las peticiones están
+ * haciendo cola y el límite se reduce un 10 %. Si no, y el límite se ha llegado a usar, crece en uno; hasta la primera
+ * reducción se duplica, como el arranque lento de TCP, para llegar pronto a su valor con servicios que tardan
+ * en responder. Las ejecuciones que superan el límite se rechazan enseguida en lugar de esperar.
+ * <p>
+ * Las muestras se anotan con {@code tryLock}: si otro hilo está anotando la suya, la muestra se descarta. Con
+ * muchas ejecuciones sobran muestras, y así ninguna espera por el ajuste.
+ */
+final class ConcurrencyLimiter {
+
+    // Una ventana que tarda de media más del doble de la referencia indica cola
+    private static final double TOLERANCE = 2.0;
+    private static final double BACKOFF = 0.9;
+    private static final int MIN_WINDOW = 10;
+    // Duración de cada una de las dos ventanas de las que se toma la latencia mínima de referencia
+    private static final long BASELINE_WINDOW_NANOS = TimeUnit.SECONDS.toNanos(10);
+    // Referencia mínima: por debajo, la variación del planificador y del recolector pesa más que la cola
+    private static final long MIN_BASELINE_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private volatile double limit;
+    private volatile long smoothedLatency;
+    // Estado del ajuste: solo se usa con updateLock
+    private final ReentrantLock updateLock = new ReentrantLock();
+    private final Map<String, Baseline> baselines = new HashMap<>();
+    private boolean slowStart = true;
+    private int windowSamples;
+    private double windowRatio;
+    private int windowMaxInFlight;
+
+    ConcurrencyLimiter(int minLimit, int maxLimit) {
+        this.minLimit = Math.max(1, minLimit);
+        this.maxLimit = Math.max(this.minLimit, maxLimit);
+        this.limit = this.minLimit;
+    }
+
+    /**
+     * @return {@code true} si la ejecución cabe en el límite; en ese caso hay que llamar a
+     * {@link #release} al terminarla.
+     */
+    boolean tryAcquire() {
+        while (true) {
+            int current = inFlight.get();
+            if (current >= (int) limit) {
+                return false;
+            }
+            if (inFlight.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Termina una ejecución y anota su latencia.
+     * @param serviceName Servicio ejecutado, o {@code null} si la latencia no sirve de muestra.
+     */
+    void release(String serviceName, long latencyNanos) {
+        int current = inFlight.getAndDecrement();
+        if (serviceName == null || !updateLock.tryLock()) {
+            return;
+        }
+        try {
+            long now = System.nanoTime();
+            long reference = Math.max(MIN_BASELINE_NANOS, baselines.computeIfAbsent(serviceName, name -> new Baseline(now))
+                    .record(latencyNanos, now));
+            long smoothed = smoothedLatency;
+            smoothedLatency = smoothed == 0 ? latencyNanos : smoothed + (latencyNanos - smoothed) / 8;
+
+            windowRatio += (double) latencyNanos / reference;
+            windowMaxInFlight = Math.max(windowMaxInFlight, current);
+            if (++windowSamples >= Math.max(MIN_WINDOW, (int) limit)) {
+                adjust(windowRatio / windowSamples);
+                windowSamples = 0;
+                windowRatio = 0;
+                windowMaxInFlight = 0;
+            }
+        } finally {
+            updateLock.unlock();
+        }
+    }
+
+    private void adjust(double ratio) {
+        double value = limit;
+        if (ratio > TOLERANCE) {
+            limit = Math.max(minLimit, value * BACKOFF);
+            slowStart = false;
+        } else if (windowMaxInFlight * 2 >= value) {
+            limit = Math.min(maxLimit, slowStart ? value * 2 : value + 1);
+        }
+    }
+
+    int getLimit() {
+        return (int) limit;
+    }
+
+    int getInFlight() {
+        return inFlight.get();
+    }
+
+    /**
+     * @return Latencia media reciente de las ejecuciones, con más peso para las últimas.
+     */
+    long getSmoothedLatencyNanos() {
+        return smoothedLatency;
+    }
+
+    /**
+     * Latencia mínima de un servicio en la ventana actual y en la anterior. La referencia es la menor de las
+     * dos: baja en cuanto llega una latencia menor y sube, como mucho, una vez por ventana.
+     */
+    private static final class Baseline {
+
+        private long previousMin = Long.MAX_VALUE;
+        private long currentMin = Long.MAX_VALUE;
+        private long windowStart;
+
+        Baseline(long now) {
+            this.windowStart = now;
+        }
+
+        /**
+         * Anota una latencia.
+         * @return La latencia de referencia, incluida esta.
+         */
+        long record(long latencyNanos, long now) {
+            long elapsed = now - windowStart;
+            if (elapsed >= BASELINE_WINDOW_NANOS) {
+                // Si ha pasado más de una ventana sin ejecuciones, la anterior no tiene muestras
+                previousMin = elapsed < 2 * BASELINE_WINDOW_NANOS ? currentMin : Long.MAX_VALUE;
+                currentMin = Long.MAX_VALUE;
+                windowStart = now;
+            }
+            currentMin = Math.min(currentMin, latencyNanos);
+            return Math.min(previousMin, currentMin);
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package server;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Motor que acepta las conexiones de los clientes y reparte su trabajo entre hilos.
+ * El motor concreto se elige en la configuración ({@code server.engine}) y todos comparten
+ * el límite de conexiones simultáneas: las conexiones que lo superan reciben un aviso y se cierran.
+ */
+abstract class ConnectionEngine {
+
+    // Pausa tras un error al aceptar (sin descriptores libres, por ejemplo) antes de volver a intentarlo
+    protected static final long ACCEPT_BACKOFF_MILLIS = 20;
+
+    protected final Server server;
+    protected final ServerConfig config;
+    private final AtomicInteger activeConnections = new AtomicInteger();
+
+    protected ConnectionEngine(Server server, ServerConfig config) {
+        this.server = server;
+        this.config = config;
+    }
+
+    static ConnectionEngine create(Server server, ServerConfig config) throws IOException {
+        if (ServerConfig.ENGINE_SELECTOR.equals(config.getEngine())) {
+            return new SelectorEngine(server, config);
+        }
+        return new VirtualThreadEngine(server, config);
+    }
+
+    /**
+     * Atiende las conexiones de los canales de escucha indicados. No retorna mientras el servidor esté activo.
+     */
+    abstract void serve(List<ServerSocketChannel> listeners) throws IOException;
+
+    int getActiveConnections() {
+        return activeConnections.get();
+    }
+
+    /**
+     * Reserva un hueco para una conexión nueva. Si se ha alcanzado el límite, rechaza la conexión.
+     * @return {@code true} si la conexión ha sido admitida.
+     */
+    protected boolean admit(SocketChannel channel) {
+        if (activeConnections.incrementAndGet() <= config.getMaxConnections()) {
+            server.getMetrics().connectionOpened();
+            Log.info("Cliente conectado.");
+            return true;
+        }
+        activeConnections.decrementAndGet();
+        reject(channel);
+        return false;
+    }
+
+    protected void release() {
+        activeConnections.decrementAndGet();
+        server.getMetrics().connectionClosed();
+    }
+
+    /**
+     * Cierra una conexión admitida que no se ha podido preparar y libera su hueco.
+     */
+    protected void abandon(SocketChannel channel, IOException error) {
+        Log.error("Error al preparar una conexión", error);
+        try {
+            channel.close();
+        } catch (IOException ignored) {
+        } finally {
+            release();
+        }
+    }
+
+    /**
+     * Cierra una conexión rechazada. En lugar del saludo, el cliente recibe el motivo del rechazo.
+     */
+    private void reject(SocketChannel channel) {
+        Log.warn("Conexión rechazada: se ha alcanzado el límite de " + config.getMaxConnections() + " conexiones.");
+        try (channel; DataOutputStream dataOut = new DataOutputStream(
+                new ChannelOutputStream(channel, server.getMetrics().getBytesOut()))) {
+            channel.configureBlocking(true);
+            dataOut.writeUTF("Servidor ocupado: se ha alcanzado el número máximo de conexiones. Inténtelo más tarde.");
+            dataOut.flush();
+        } catch (IOException ignored) {
+        }
+    }
+}
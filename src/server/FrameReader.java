@@ -0,0 +1,98 @@
+package server;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Lee tramas del protocolo binario. El búfer de la trama se reutiliza entre peticiones y solo
+ * crece cuando llega una trama mayor que todas las anteriores.
+ */
+class FrameReader {
+
+    private static final int INITIAL_CAPACITY = 1024;
+    // Por encima de este tamaño el búfer no se conserva tras una trama grande
+    private static final int MAX_RETAINED_CAPACITY = 1 << 20;
+
+    private final DataInputStream in;
+    private final int maxFrameSize;
+    private ByteBuffer frame = ByteBuffer.allocate(INITIAL_CAPACITY);
+
+    FrameReader(DataInputStream in, int maxFrameSize) {
+        this.in = in;
+        this.maxFrameSize = maxFrameSize;
+    }
+
+    /**
+     * @param received Bytes recibidos que aún no se han leído.
+     * @return Los bytes que ocupa la siguiente trama con su longitud, o los de la longitud si aún no ha llegado.
+     * Una longitud no válida se detecta al leer la trama.
+     */
+    int frameLength(ByteBuffer received) {
+        if (received.remaining() < Integer.BYTES) {
+            return Integer.BYTES;
+        }
+        int length = received.getInt(received.position());
+        return length < 1 || length > maxFrameSize ? Integer.BYTES : Integer.BYTES + length;
+    }
+
+    /**
+     * Lee la siguiente trama completa.
+     * @return El código de operación de la trama.
+     */
+    byte readFrame() throws IOException {
+        int length = in.readInt();
+        if (length < 1 || length > maxFrameSize) {
+            throw new StreamCorruptedException("Longitud de trama no válida: " + length);
+        }
+        if (frame.capacity() > MAX_RETAINED_CAPACITY && length <= INITIAL_CAPACITY) {
+            frame = ByteBuffer.allocate(INITIAL_CAPACITY);
+        }
+        if (frame.capacity() < length) {
+            frame = ByteBuffer.allocate(Math.max(length, frame.capacity() * 2));
+        }
+        in.readFully(frame.array(), 0, length);
+        frame.clear().limit(length);
+        return frame.get();
+    }
+
+    byte readByte() {
+        return frame.get();
+    }
+
+    int readInt() {
+        return frame.getInt();
+    }
+
+    long readLong() {
+        return frame.getLong();
+    }
+
+    String readString() throws StreamCorruptedException {
+        int length = frame.getInt();
+        if (length < 0 || length > frame.remaining()) {
+            throw new StreamCorruptedException("Longitud de cadena no válida: " + length);
+        }
+        String value = new String(frame.array(), frame.position(), length, StandardCharsets.UTF_8);
+        frame.position(frame.position() + length);
+        return value;
+    }
+
+    /**
+     * @return Los bytes de la trama que quedan por leer.
+     */
+    int remaining() {
+        return frame.remaining();
+    }
+
+    /**
+     * Copia el resto de la trama, sin interpretarlo, a un array nuevo.
+     */
+    byte[] readRemaining() {
+        byte[] bytes = new byte[frame.remaining()];
+        frame.get(bytes);
+        return bytes;
+    }
+}
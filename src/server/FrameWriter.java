@@ -0,0 +1,109 @@
+package server;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Construye y envía tramas de respuesta del protocolo binario. La trama se compone en un búfer
+ * reutilizable y se escribe de una vez, con la longitud ya calculada.
+ * No es segura entre hilos: quien responda desde varios hilos debe usar un bloqueo de {@link #begin} a {@link #send}.
+ */
+class FrameWriter {
+
+    private static final int INITIAL_CAPACITY = 1024;
+    // Por encima de este tamaño el búfer no se conserva tras una trama grande
+    private static final int MAX_RETAINED_CAPACITY = 1 << 20;
+
+    private final OutputStream out;
+    private final boolean requestIds;
+    private ByteBuffer frame = ByteBuffer.allocate(INITIAL_CAPACITY);
+
+    /**
+     * @param requestIds {@code true} si las tramas llevan identificador de petición (versión 2 o superior).
+     */
+    FrameWriter(OutputStream out, boolean requestIds) {
+        this.out = out;
+        this.requestIds = requestIds;
+    }
+
+    /**
+     * Empieza una trama de respuesta nueva, descartando lo que hubiera en el búfer.
+     * @param requestId Identificador de la petición a la que responde; se ignora en la versión 1.
+     */
+    FrameWriter begin(byte opcode, int requestId, byte status) {
+        if (frame.capacity() > MAX_RETAINED_CAPACITY) {
+            frame = ByteBuffer.allocate(INITIAL_CAPACITY);
+        }
+        frame.clear();
+        frame.position(Integer.BYTES);
+        frame.put(opcode);
+        if (requestIds) {
+            frame.putInt(requestId);
+        }
+        frame.put(status);
+        return this;
+    }
+
+    FrameWriter writeByte(byte value) {
+        ensureCapacity(1);
+        frame.put(value);
+        return this;
+    }
+
+    FrameWriter writeInt(int value) {
+        ensureCapacity(Integer.BYTES);
+        frame.putInt(value);
+        return this;
+    }
+
+    FrameWriter writeLong(long value) {
+        ensureCapacity(Long.BYTES);
+        frame.putLong(value);
+        return this;
+    }
+
+    FrameWriter writeString(String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        ensureCapacity(Integer.BYTES + bytes.length);
+        frame.putInt(bytes.length).put(bytes);
+        return this;
+    }
+
+    /**
+     * Completa la longitud de la trama y la envía.
+     */
+    void send() throws IOException {
+        frame.putInt(0, frame.position() - Integer.BYTES);
+        out.write(frame.array(), 0, frame.position());
+        out.flush();
+    }
+
+    /**
+     * Envía la trama seguida de unos datos ya codificados, sin copiarlos al búfer de la trama.
+     * @param payload Datos que completan la trama; no se modifican.
+     */
+    void send(byte[] payload) throws IOException {
+        send(payload, 0, payload.length);
+    }
+
+    /**
+     * Envía la trama seguida de una parte de un array de bytes, sin copiarla al búfer de la trama.
+     */
+    void send(byte[] payload, int offset, int length) throws IOException {
+        frame.putInt(0, frame.position() - Integer.BYTES + length);
+        out.write(frame.array(), 0, frame.position());
+        out.write(payload, offset, length);
+        out.flush();
+    }
+
+    private void ensureCapacity(int bytes) {
+        if (frame.remaining() < bytes) {
+            ByteBuffer larger = ByteBuffer.allocate(Math.max(frame.capacity() * 2, frame.position() + bytes));
+            frame.flip();
+            larger.put(frame);
+            frame = larger;
+        }
+    }
+}
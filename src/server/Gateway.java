@@ -0,0 +1,365 @@
+package server;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Modo gateway: el servidor no carga servicios propios, sino que atiende a los clientes con el protocolo de
+ * siempre y reparte sus peticiones entre varios servidores (backends).
+ * <p>
+ * El registro del gateway contiene un {@link RemoteService} por cada servicio que ofrece algún backend. Cada
+ * ejecución va al backend con menos peticiones en curso de entre los que ofrecen ese
+ * servicio. Los jars que suben los clientes se guardan en la carpeta de servicios del gateway y se replican
+ * en todos los backends, igual que las recargas. Un backend que se incorpora o que vuelve a estar
+ * disponible recibe antes los jars que se subieron a través del gateway.
+ * <p>
+ * Un hilo comprueba los backends periódicamente pidiéndoles su lista de servicios. El que falla varias
+ * comprobaciones seguidas (por un error, o sin responder a tiempo ni a otras peticiones) queda fuera de
+ * servicio hasta que supere una. El envío de los jars a un backend que vuelve tiene su propio plazo, fuera del
+ * de la comprobación, y el backend no se incorpora hasta que termina.
+ */
+class Gateway {
+
+    private final List<Backend> backends = new ArrayList<>();
+    private final ServiceRegistry registry;
+    // Jars subidos a través del gateway, que se replican en los backends
+    private final Path servicesDir;
+    private final long healthCheckMillis;
+    private final long replicationTimeoutMillis;
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+    // Para repartir los empates entre backends con las mismas peticiones en curso
+    private final AtomicInteger nextBackend = new AtomicInteger();
+    // Una comprobación, recarga o replicación a la vez, para publicar el registro en orden
+    private final ReentrantLock updateLock = new ReentrantLock();
+    private Map<String, RemoteService> published = Map.of();
+    // Backends que están recibiendo los jars del gateway para incorporarse
+    private final Set<Backend> replicating = ConcurrentHashMap.newKeySet();
+
+    /**
+     * @throws IllegalArgumentException si la dirección de algún backend no es válida.
+     */
+    Gateway(ServerConfig config, ServiceRegistry registry, Path servicesDir) {
+        for (String backend : config.getBackends()) {
+            backends.add(new Backend(backend, config.getMaxFrameSize(), config.getBackendConnections()));
+        }
+        this.registry = registry;
+        this.servicesDir = servicesDir;
+        this.healthCheckMillis = Math.max(100, config.getHealthCheckMillis());
+        this.replicationTimeoutMillis = Math.max(healthCheckMillis, config.getReplicationTimeoutMillis());
+    }
+
+    /**
+     * Empieza a comprobar los backends periódicamente.
+     */
+    void startHealthChecks() {
+        Thread checker = new Thread(() -> {
+            while (true) {
+                try {
+                    Thread.sleep(healthCheckMillis);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                checkBackends();
+            }
+        }, "gateway-health");
+        checker.setDaemon(true);
+        checker.start();
+        Log.info("Gateway con " + backends.size() + " backends, comprobados cada " + healthCheckMillis + " ms.");
+    }
+
+    /**
+     * Comprueba todos los backends a la vez y publica sus servicios. Un backend que no responde en el
+     * intervalo de comprobación, o que falla, anota una comprobación fallida; las peticiones que tiene en
+     * curso no se interrumpen.
+     */
+    void checkBackends() {
+        updateLock.lock();
+        try {
+            List<Future<List<String>>> checks = new ArrayList<>(backends.size());
+            for (Backend backend : backends) {
+                // Mientras recibe los jars del gateway no se comprueba: se hace al terminar
+                checks.add(replicating.contains(backend) ? null : executor.submit(backend::check));
+            }
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(healthCheckMillis);
+            for (int i = 0; i < checks.size(); i++) {
+                Backend backend = backends.get(i);
+                if (checks.get(i) == null) {
+                    continue;
+                }
+                try {
+                    checked(backend, checks.get(i).get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS));
+                } catch (TimeoutException e) {
+                    // Solo se cierra la conexión de las comprobaciones, que no lleva peticiones
+                    backend.abortCheck();
+                    backend.checkTimedOut("sin respuesta en " + healthCheckMillis + " ms");
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    backend.checkFailed(cause instanceof IOException io ? Backend.describe(io) : String.valueOf(cause.getMessage()));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+            publish();
+        } finally {
+            updateLock.unlock();
+        }
+    }
+
+    /**
+     * Pone en servicio un backend que ha respondido a la comprobación. Si vuelve de estar fuera de servicio y
+     * hay jars subidos a través del gateway, antes los recibe.
+     */
+    private void checked(Backend backend, List<String> services) {
+        if (!backend.isHealthy()) {
+            List<Path> jars;
+            try {
+                jars = listUploads();
+            } catch (IOException e) {
+                Log.warn("No se han podido listar los jars del gateway: " + e.getMessage());
+                return;
+            }
+            if (!jars.isEmpty()) {
+                // Los jars pueden tardar más que la comprobación: se envían aparte y se incorpora al terminar
+                replicating.add(backend);
+                executor.execute(() -> replicateUploads(backend, jars));
+                return;
+            }
+        }
+        restore(backend, services);
+    }
+
+    private void restore(Backend backend, List<String> services) {
+        if (backend.restore(services)) {
+            Log.info("Backend disponible: " + backend.getName() + " (" + services.size() + " servicios)");
+        }
+    }
+
+    private List<Path> listUploads() throws IOException {
+        List<Path> jars = new ArrayList<>();
+        if (Files.isDirectory(servicesDir)) {
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(servicesDir, "*.jar")) {
+                stream.forEach(jars::add);
+            }
+        }
+        return jars;
+    }
+
+    /**
+     * Envía a un backend que se incorpora los jars que se han subido a través del gateway y, si lo consigue
+     * antes del plazo de replicación, lo pone en servicio y publica sus servicios. Si no, lo deja fuera de
+     * servicio hasta la siguiente comprobación.
+     */
+    private void replicateUploads(Backend backend, List<Path> jars) {
+        try {
+            // Conexión propia, para poder cerrarla si se agota el plazo sin afectar a las peticiones
+            AtomicReference<BackendConnection> connection = new AtomicReference<>();
+            Future<List<String>> replication = executor.submit(() -> {
+                try (BackendConnection open = backend.openConnection()) {
+                    connection.set(open);
+                    for (Path jar : jars) {
+                        open.uploadJar(jar, ServiceReloader.sha256(jar));
+                    }
+                }
+                return backend.check();
+            });
+            List<String> services;
+            try {
+                services = replication.get(replicationTimeoutMillis, TimeUnit.MILLISECONDS);
+            } catch (TimeoutException e) {
+                Log.warn("Jars del gateway sin replicar en " + backend.getName() + " tras " + replicationTimeoutMillis + " ms");
+                // Cerrar la conexión desbloquea el envío
+                BackendConnection open = connection.get();
+                if (open != null) {
+                    open.close();
+                }
+                replication.cancel(true);
+                return;
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                Log.warn("Error al replicar los jars del gateway en " + backend.getName() + ": "
+                        + (cause instanceof IOException io ? Backend.describe(io) : cause.getMessage()));
+                return;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            Log.info("Jars del gateway replicados en " + backend.getName());
+            updateLock.lock();
+            try {
+                restore(backend, services);
+                publish();
+            } finally {
+                updateLock.unlock();
+            }
+        } catch (IOException e) {
+            Log.warn("Error al cerrar la replicación en " + backend.getName() + ": " + e.getMessage());
+        } finally {
+            replicating.remove(backend);
+        }
+    }
+
+    /**
+     * Publica en el registro los servicios de los backends, en el orden de los backends. Los de un backend
+     * fuera de servicio se conservan con su última lista: mientras no vuelva, sus ejecuciones se rechazan como
+     * servicio ocupado, que el cliente puede reintentar, en lugar de como servicio inexistente. Los servicios
+     * que ya estaban conservan su objeto, así que las sesiones que los tienen activos no notan nada.
+     */
+    private void publish() {
+        Map<String, RemoteService> next = new LinkedHashMap<>();
+        for (Backend backend : backends) {
+            for (String name : backend.getServices()) {
+                if (!name.isEmpty() && !next.containsKey(name)) {
+                    RemoteService service = published.get(name);
+                    next.put(name, service != null ? service : new RemoteService(name, this));
+                }
+            }
+        }
+        if (!List.copyOf(next.keySet()).equals(List.copyOf(published.keySet()))) {
+            published = next;
+            registry.replace(new ArrayList<>(next.values()));
+            Log.info("Servicios del gateway: " + next.size());
+        }
+    }
+
+    /**
+     * Ejecuta un servicio en el backend disponible con menos peticiones en curso de los que lo ofrecen.
+     * @throws ServiceUnavailableException si ningún backend disponible lo ofrece, si el elegido está saturado
+     * o si falla la conexión con él (solo se descarta esa conexión).
+     */
+    String execute(String serviceName, String input) throws ServiceUnavailableException {
+        Backend backend = choose(serviceName);
+        try {
+            return backend.call(connection -> connection.execute(serviceName, input));
+        } catch (IOException e) {
+            throw new ServiceUnavailableException("Error con el backend " + backend.getName() + ": " + Backend.describe(e), false);
+        }
+    }
+
+    /**
+     * Ayuda de un servicio, pedida a uno de los backends que lo ofrecen.
+     */
+    String getHelp(String serviceName) throws ServiceUnavailableException {
+        Backend backend = choose(serviceName);
+        int index = backend.getServices().indexOf(serviceName);
+        try {
+            return backend.call(connection -> connection.getHelp(index));
+        } catch (IOException e) {
+            throw new ServiceUnavailableException("Error con el backend " + backend.getName() + ": " + Backend.describe(e), false);
+        }
+    }
+
+    private Backend choose(String serviceName) throws ServiceUnavailableException {
+        int count = backends.size();
+        int start = Math.floorMod(nextBackend.getAndIncrement(), count);
+        Backend best = null;
+        int bestLoad = Integer.MAX_VALUE;
+        for (int i = 0; i < count; i++) {
+            Backend backend = backends.get((start + i) % count);
+            if (backend.isHealthy() && backend.hosts(serviceName)) {
+                int load = backend.getInFlight();
+                if (load < bestLoad) {
+                    best = backend;
+                    bestLoad = load;
+                }
+            }
+        }
+        if (best == null) {
+            boolean known = backends.stream().anyMatch(backend -> backend.hosts(serviceName));
+            throw new ServiceUnavailableException("Ningún backend disponible ofrece el servicio " + serviceName
+                    + (known ? " en este momento." : "."), known);
+        }
+        return best;
+    }
+
+    /**
+     * Recarga los servicios de todos los backends disponibles y publica el resultado.
+     */
+    void reload() {
+        List<String> errors = broadcast(BackendConnection::reloadServices);
+        for (String error : errors) {
+            Log.warn("Error al recargar un backend: " + error);
+        }
+        checkBackends();
+    }
+
+    /**
+     * Replica en todos los backends disponibles un jar recibido de un cliente.
+     * @return El mensaje para el cliente, con los backends en los que ha fallado.
+     */
+    String replicate(Path jar) throws IOException {
+        String sha256 = ServiceReloader.sha256(jar);
+        String jarName = jar.getFileName().toString();
+        long targets = backends.stream().filter(Backend::isHealthy).count();
+        List<String> errors = broadcast(connection -> connection.uploadJar(jar, sha256));
+        checkBackends();
+        if (targets == 0) {
+            return "Servicio recibido: " + jarName + ". No hay ningún backend disponible; se enviará a cada uno "
+                    + "cuando lo esté.";
+        }
+        String message = "Servicio replicado en " + (targets - errors.size()) + " de " + targets + " backends: " + jarName;
+        return errors.isEmpty() ? message : message + ". Errores: " + String.join("; ", errors);
+    }
+
+    /**
+     * Envía la misma petición a la vez a todos los backends disponibles.
+     * @return Los errores, precedidos por el nombre del backend.
+     */
+    private List<String> broadcast(Backend.BackendCall<?> call) {
+        Map<Backend, Future<?>> calls = new HashMap<>();
+        for (Backend backend : backends) {
+            if (backend.isHealthy()) {
+                calls.put(backend, executor.submit(() -> backend.call(call)));
+            }
+        }
+        List<String> errors = new ArrayList<>();
+        for (Map.Entry<Backend, Future<?>> entry : calls.entrySet()) {
+            try {
+                entry.getValue().get();
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                errors.add(entry.getKey().getName() + ": "
+                        + (cause instanceof IOException io ? Backend.describe(io) : cause.getMessage()));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                errors.add(entry.getKey().getName() + ": interrumpido");
+            }
+        }
+        return errors;
+    }
+
+    /**
+     * @return Número de backends disponibles que ofrecen un servicio.
+     */
+    int countHosts(String serviceName) {
+        int count = 0;
+        for (Backend backend : backends) {
+            if (backend.isHealthy() && backend.hosts(serviceName)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    List<Backend> getBackends() {
+        return backends;
+    }
+}
@@ -0,0 +1,309 @@
+package server;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.nio.file.attribute.FileTime;
+import java.util.HexFormat;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Recepción de los jars que suben los clientes.
+ * <p>
+ * El contenido se copia del socket a un fichero temporal con {@link FileChannel#transferFrom}, sin pasar
+ * por un búfer intermedio en el heap. Solo cuando el fichero está completo (y, si el cliente envió su
+ * SHA-256, verificado) se mueve a la carpeta de servicios de forma atómica, así que la recarga nunca
+ * ve un jar a medio escribir.
+ * <p>
+ * Las subidas con SHA-256 se guardan en {@code services/.uploads/<nombre>.<sha256>.part}: si la conexión
+ * se corta, el cliente puede preguntar cuántos bytes tiene ya el servidor y continuar desde ahí. Los ficheros
+ * parciales que nadie reanuda en {@link #STALE_PART_HOURS} horas se borran, y al arrancar también los de las
+ * subidas sin hash que quedaron a medias.
+ * <p>
+ * Los jars de más de {@code server.maxUploadSize} bytes se rechazan antes de recibir su contenido.
+ */
+class JarReceiver {
+
+    private static final String UPLOADS_DIR = ".uploads";
+    private static final String PART_SUFFIX = ".part";
+    private static final long STALE_PART_HOURS = 24;
+    // Como mucho una limpieza de ficheros parciales por hora, al empezar una subida
+    private static final long CLEANUP_INTERVAL_NANOS = TimeUnit.HOURS.toNanos(1);
+
+    private final Path servicesDir;
+    private final Path uploadsDir;
+    private final long maxUploadSize;
+    // Ficheros parciales que se están escribiendo, para que dos clientes no suban el mismo a la vez
+    private final Set<Path> inProgress = ConcurrentHashMap.newKeySet();
+    private final AtomicLong lastCleanup = new AtomicLong(System.nanoTime());
+
+    JarReceiver(Path servicesDir, long maxUploadSize) {
+        this.servicesDir = servicesDir;
+        this.uploadsDir = servicesDir.resolve(UPLOADS_DIR);
+        this.maxUploadSize = maxUploadSize;
+        removeStaleParts(true);
+    }
+
+    /**
+     * @return Los bytes de una subida anterior interrumpida que ya tiene el servidor, o cero.
+     * @throws UploadException si la subida no es válida, por ejemplo porque el jar es demasiado grande; el
+     * cliente lo sabe así antes de enviar el contenido.
+     */
+    long resumeOffset(String jarName, String sha256, long fileSize) throws UploadException, IOException {
+        checkName(jarName);
+        checkHash(sha256);
+        checkSize(jarName, fileSize);
+        Path part = partFile(jarName, sha256);
+        if (!Files.exists(part)) {
+            return 0;
+        }
+        long received = Files.size(part);
+        if (received > fileSize) {
+            Files.deleteIfExists(part);
+            return 0;
+        }
+        return received;
+    }
+
+    /**
+     * Empieza a recibir el contenido de un jar a partir de {@code offset}; los bytes se copian con
+     * {@link Upload#transfer}. Si la petición no es válida, los bytes se descartan igualmente para que la
+     * conexión siga sincronizada, y el error se lanza al terminar ({@link Upload#finish}).
+     * @param sha256 Hash en hexadecimal del jar completo, o {@code null} si el cliente no lo envía
+     *               (en ese caso no se puede reanudar la subida).
+     */
+    Upload start(String jarName, long fileSize, String sha256, long offset) throws IOException {
+        long remaining = fileSize - offset;
+        if (offset < 0 || remaining < 0) {
+            throw new IOException("Tamaño de subida no válido: " + offset + "/" + fileSize);
+        }
+        if (fileSize > maxUploadSize) {
+            // Descartar el contenido costaría tanto como recibirlo: se cierra la conexión
+            throw new IOException("El jar " + jarName + " ocupa " + fileSize + " bytes; el máximo es " + maxUploadSize + ".");
+        }
+        long last = lastCleanup.get();
+        if (System.nanoTime() - last > CLEANUP_INTERVAL_NANOS && lastCleanup.compareAndSet(last, System.nanoTime())) {
+            removeStaleParts(false);
+        }
+        try {
+            checkName(jarName);
+            if (sha256 != null) {
+                checkHash(sha256);
+            } else if (offset != 0) {
+                throw new UploadException("Solo se puede reanudar una subida con su SHA-256.");
+            }
+        } catch (UploadException e) {
+            return new Upload(jarName, sha256, offset, remaining, e);
+        }
+
+        Files.createDirectories(uploadsDir);
+        Path part = sha256 != null ? partFile(jarName, sha256) : Files.createTempFile(uploadsDir, jarName + ".", PART_SUFFIX);
+        if (!inProgress.add(part)) {
+            return new Upload(jarName, sha256, offset, remaining, new UploadException("Ya hay una subida en curso de " + jarName + "."));
+        }
+        Upload upload = new Upload(jarName, sha256, offset, remaining, null);
+        try {
+            FileChannel file = FileChannel.open(part, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            upload.open(part, file);
+            long size = file.size();
+            if (size < offset) {
+                upload.abort();
+                return new Upload(jarName, sha256, offset, remaining,
+                        new UploadException("El servidor solo tiene " + size + " bytes de " + jarName + "."));
+            }
+            file.truncate(offset);
+        } catch (IOException e) {
+            if (!upload.abort()) {
+                inProgress.remove(part);
+            }
+            throw e;
+        }
+        return upload;
+    }
+
+    /**
+     * Subida de un jar en curso. Con el canal no bloqueante se copia por partes, a medida que llegan los bytes.
+     */
+    final class Upload {
+
+        private final String jarName;
+        private final String sha256;
+        // Si la petición no es válida, los bytes se descartan y al terminar se lanza este error
+        private final UploadException rejection;
+        private long remaining;
+        private long position;
+        private Path part;
+        private FileChannel file;
+
+        private Upload(String jarName, String sha256, long offset, long remaining, UploadException rejection) {
+            this.jarName = jarName;
+            this.sha256 = sha256;
+            this.position = offset;
+            this.remaining = remaining;
+            this.rejection = rejection;
+        }
+
+        private void open(Path part, FileChannel file) {
+            this.part = part;
+            this.file = file;
+        }
+
+        String getJarName() {
+            return jarName;
+        }
+
+        /**
+         * Copia los bytes que hayan llegado (con el canal bloqueante, espera a que lleguen todos).
+         * @return {@code true} si ya se han recibido todos.
+         * @throws EOFException si el cliente cierra la conexión antes de enviarlos.
+         */
+        boolean transfer(ChannelInputStream in) throws IOException {
+            try {
+                while (remaining > 0) {
+                    long n = file != null ? in.transferTo(file, position, remaining) : in.skip(remaining);
+                    position += n;
+                    remaining -= n;
+                    if (n == 0) {
+                        if (in.isEndOfStream()) {
+                            throw new EOFException("Subida de " + jarName + " interrumpida en el byte " + position + ".");
+                        }
+                        return false;
+                    }
+                }
+                return true;
+            } catch (IOException e) {
+                abort();
+                throw e;
+            }
+        }
+
+        /**
+         * Publica el jar recibido en la carpeta de servicios.
+         * @throws UploadException si la petición no era válida o el contenido no coincide con el hash.
+         */
+        void finish() throws UploadException, IOException {
+            if (rejection != null) {
+                throw rejection;
+            }
+            try {
+                file.force(false);
+            } catch (IOException e) {
+                abort();
+                throw e;
+            }
+            try {
+                file.close();
+                file = null;
+                if (sha256 != null && !sha256.equalsIgnoreCase(ServiceReloader.sha256(part))) {
+                    Files.deleteIfExists(part);
+                    throw new UploadException("El contenido de " + jarName + " no coincide con su SHA-256.");
+                }
+                publish(part, servicesDir.resolve(jarName));
+            } finally {
+                inProgress.remove(part);
+            }
+        }
+
+        /**
+         * Abandona una subida interrumpida. Sin hash no hay forma de reanudarla: el fichero parcial no sirve.
+         * @return {@code false} si no había ningún fichero abierto.
+         */
+        boolean abort() {
+            if (file == null) {
+                return false;
+            }
+            FileChannel open = file;
+            file = null;
+            try (open) {
+                if (sha256 == null) {
+                    Files.deleteIfExists(part);
+                }
+            } catch (IOException e) {
+                Log.warn("No se ha podido descartar la subida de " + jarName + ": " + e.getMessage());
+            } finally {
+                inProgress.remove(part);
+            }
+            return true;
+        }
+    }
+
+    private static void publish(Path part, Path target) throws IOException {
+        try {
+            Files.move(part, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(part, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Borra los ficheros parciales que no se han tocado en {@link #STALE_PART_HOURS} horas y no se están
+     * escribiendo.
+     * @param startup Al arrancar se borran también los de subidas sin hash, que no se pueden reanudar.
+     */
+    private void removeStaleParts(boolean startup) {
+        if (!Files.isDirectory(uploadsDir)) {
+            return;
+        }
+        FileTime limit = FileTime.fromMillis(System.currentTimeMillis() - TimeUnit.HOURS.toMillis(STALE_PART_HOURS));
+        try (DirectoryStream<Path> parts = Files.newDirectoryStream(uploadsDir, "*" + PART_SUFFIX)) {
+            for (Path part : parts) {
+                if (inProgress.contains(part)) {
+                    continue;
+                }
+                try {
+                    if ((startup && !isResumable(part)) || Files.getLastModifiedTime(part).compareTo(limit) < 0) {
+                        Files.deleteIfExists(part);
+                        Log.info("Subida incompleta descartada: " + part.getFileName());
+                    }
+                } catch (IOException e) {
+                    Log.warn("No se ha podido borrar la subida incompleta " + part.getFileName() + ": " + e.getMessage());
+                }
+            }
+        } catch (IOException e) {
+            Log.warn("No se han podido revisar las subidas incompletas: " + e.getMessage());
+        }
+    }
+
+    /**
+     * @return {@code true} si el fichero parcial es de una subida con hash: {@code <nombre>.<sha256>.part}.
+     */
+    private static boolean isResumable(Path part) {
+        String name = part.getFileName().toString();
+        int end = name.length() - PART_SUFFIX.length();
+        int start = end - 64;
+        return start > 0 && name.charAt(start - 1) == '.'
+                && name.substring(start, end).chars().allMatch(HexFormat::isHexDigit);
+    }
+
+    private Path partFile(String jarName, String sha256) {
+        return uploadsDir.resolve(jarName + "." + sha256.toLowerCase() + PART_SUFFIX);
+    }
+
+    /**
+     * Solo se admiten nombres de fichero {@code .jar} sin ruta, para que un cliente no pueda escribir
+     * fuera de la carpeta de servicios.
+     */
+    private static void checkName(String jarName) throws UploadException {
+        boolean valid = jarName.endsWith(".jar") && !jarName.startsWith(".")
+                && jarName.indexOf('/') < 0 && jarName.indexOf('\\') < 0 && jarName.indexOf('\0') < 0;
+        if (!valid) {
+            throw new UploadException("Nombre de jar no válido: " + jarName);
+        }
+    }
+
+    private void checkSize(String jarName, long fileSize) throws UploadException {
+        if (fileSize > maxUploadSize) {
+            throw new UploadException("El jar " + jarName + " ocupa " + fileSize + " bytes; el máximo es " + maxUploadSize + ".");
+        }
+    }
+
+    private static void checkHash(String sha256) throws UploadException {
+        if (sha256.length() != 64 || !sha256.chars().allMatch(HexFormat::isHexDigit)) {
+            throw new UploadException("SHA-256 no válido: " + sha256);
+        }
+    }
+}
@@ -0,0 +1,228 @@
+package server;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+import java.util.function.Supplier;
+
+/**
+ * Protocolo de texto original: cada comando es una cadena escrita con {@code writeUTF}, seguida de sus
+ * argumentos. Se mantiene para los clientes antiguos y es el protocolo con el que empieza toda conexión.
+ */
+class LegacyProtocolHandler implements ProtocolHandler {
+
+    private static final Set<String> COMMANDS = Set.of("LIST_SERVICES", "ACTIVE_SERVICE", "EXECUTE_SERVICE",
+            "EXECUTE_BY_NAME", "GET_INSTRUCTIONS", "UPLOAD_JAR", "DEACTIVATE_SERVICE", "RELOAD_SERVICES", "STATS", "EXIT");
+
+    private final ClientConnection connection;
+    private final ClientSession session;
+    private final DataInputStream dataIn;
+    private final DataOutputStream dataOut;
+    private final Metrics metrics;
+    private final AdmissionControl admission;
+
+    LegacyProtocolHandler(ClientConnection connection) {
+        this.connection = connection;
+        this.session = connection.getSession();
+        this.metrics = connection.getServer().getMetrics();
+        this.admission = connection.getServer().getAdmission();
+        this.dataIn = connection.getDataIn();
+        this.dataOut = connection.getDataOut();
+    }
+
+    @Override
+    public boolean handleCommand() throws IOException {
+        String command = dataIn.readUTF(); // leer comando
+        long start = System.nanoTime();
+        session.commandReceived();
+        try {
+            return handle(command);
+        } finally {
+            long latency = System.nanoTime() - start;
+            String name = metricName(command);
+            metrics.recordCommand(name, latency);
+            Log.command(session.getId(), name, activeServiceName(command), latency);
+        }
+    }
+
+    /**
+     * El comando es una cadena con {@code writeUTF} (dos bytes de longitud y el texto), seguida de sus argumentos.
+     */
+    @Override
+    public int commandLength(ByteBuffer received) {
+        int start = received.position();
+        int limit = received.limit();
+        int end = utfEnd(received, start);
+        if (end > limit) {
+            return end - start;
+        }
+        String command = StandardCharsets.UTF_8.decode(received.slice(start + 2, end - start - 2)).toString();
+        switch (command) {
+            case "ACTIVE_SERVICE" -> end += Integer.BYTES;
+            case "EXECUTE_SERVICE" -> end = utfEnd(received, end);
+            case "EXECUTE_BY_NAME" -> {
+                end = utfEnd(received, end);
+                if (end <= limit) {
+                    end = utfEnd(received, end);
+                }
+            }
+            case "UPLOAD_JAR" -> {
+                // El contenido del jar se recibe aparte, a medida que llega
+                end = utfEnd(received, end);
+                if (end <= limit) {
+                    end += Long.BYTES;
+                }
+            }
+            default -> {
+            }
+        }
+        return end - start;
+    }
+
+    /**
+     * @return Dónde termina la cadena que empieza en {@code at}, o dónde termina su longitud si aún no ha llegado.
+     */
+    private static int utfEnd(ByteBuffer received, int at) {
+        if (received.limit() - at < 2) {
+            return at + 2;
+        }
+        return at + 2 + Short.toUnsignedInt(received.getShort(at));
+    }
+
+    private boolean handle(String command) throws IOException {
+        if (command.startsWith(BinaryProtocol.NEGOTIATION_COMMAND)) {
+            negotiateBinaryProtocol(command);
+            return true;
+        }
+
+        switch (command) {
+            case "LIST_SERVICES":
+                // Respuesta ya codificada por el registro; solo cambia cuando se recargan los servicios
+                dataOut.write(connection.getServer().getRegistry().getLegacyListReply());
+                dataOut.flush();
+                break;
+
+            case "ACTIVE_SERVICE":
+                int idx = dataIn.readInt();
+                session.setActiveService(idx);
+                dataOut.writeUTF(session.getActiveService() != null ? session.getActiveServiceName() : "null");
+                dataOut.flush();
+                break;
+
+            case "EXECUTE_SERVICE":
+                String input = dataIn.readUTF();
+                dataOut.writeUTF(admitted(activeServiceName(command), () -> session.executeActiveService(input)));
+                dataOut.flush();
+                break;
+
+            case "EXECUTE_BY_NAME":
+                String serviceName = dataIn.readUTF();
+                String serviceInput = dataIn.readUTF();
+                Service named = session.findService(serviceName);
+                dataOut.writeUTF(admitted(named != null ? named.getName() : null,
+                        () -> session.executeByName(serviceName, serviceInput)));
+                dataOut.flush();
+                break;
+
+            case "GET_INSTRUCTIONS":
+                dataOut.writeUTF(session.getActiveServiceHelp());
+                dataOut.flush();
+                break;
+
+            case "UPLOAD_JAR":
+                // Leer nombre y tamaño
+                String jarName = dataIn.readUTF();
+                long fileSize = dataIn.readLong();
+                connection.receiveJar(jarName, fileSize, null, 0, (message, success) -> {
+                    dataOut.writeUTF(message);
+                    dataOut.flush();
+                });
+                break;
+
+            case "DEACTIVATE_SERVICE":
+                session.clearActiveService();
+                break;
+
+            case "RELOAD_SERVICES":
+                connection.reloadServices();
+                dataOut.writeUTF("Lista de servicios recargada con éxito.");
+                dataOut.flush();
+                break;
+
+            case "STATS":
+                dataOut.writeUTF(connection.getServer().getStats());
+                dataOut.flush();
+                break;
+
+            case "EXIT":
+                Log.debug(session.getId(), "Cliente desconectado.");
+                return false;
+
+            default:
+                dataOut.writeUTF("Comando no reconocido.");
+                dataOut.flush();
+                break;
+        }
+        return true;
+    }
+
+    /**
+     * Ejecuta un servicio si el control de admisión lo permite. El protocolo de texto no tiene estados: el
+     * rechazo se envía como respuesta, con la espera en el mensaje.
+     * @param serviceName Servicio que se ejecuta, para ajustar el límite de ejecuciones simultáneas.
+     */
+    private String admitted(String serviceName, Supplier<String> execution) {
+        long start = System.nanoTime();
+        boolean concurrent;
+        try {
+            concurrent = admission.admit(connection.getQuota(), 1, true);
+        } catch (RateLimitedException e) {
+            return e.getMessage();
+        }
+        try {
+            return execution.get();
+        } finally {
+            if (concurrent) {
+                admission.release(serviceName, System.nanoTime() - start);
+            }
+        }
+    }
+
+    /**
+     * @return El servicio que ha ejecutado el comando, para el registro, o {@code null}.
+     */
+    private String activeServiceName(String command) {
+        Service service = "EXECUTE_SERVICE".equals(command) ? session.getActiveService() : null;
+        return service != null ? service.getName() : null;
+    }
+
+    /**
+     * Nombre con el que se registra la latencia de un comando. Los comandos desconocidos se agrupan
+     * para que un cliente no pueda crear histogramas sin límite.
+     */
+    private static String metricName(String command) {
+        if (command.startsWith(BinaryProtocol.NEGOTIATION_COMMAND)) {
+            return "PROTOCOL_BINARY";
+        }
+        return COMMANDS.contains(command) ? command : "DESCONOCIDO";
+    }
+
+    private void negotiateBinaryProtocol(String command) throws IOException {
+        int requested;
+        try {
+            requested = Integer.parseInt(command.substring(BinaryProtocol.NEGOTIATION_COMMAND.length()));
+        } catch (NumberFormatException e) {
+            dataOut.writeUTF("Comando no reconocido.");
+            dataOut.flush();
+            return;
+        }
+        int version = Math.min(requested, BinaryProtocol.VERSION);
+        dataOut.writeUTF(BinaryProtocol.NEGOTIATION_COMMAND + version);
+        dataOut.flush();
+        connection.switchProtocol(new BinaryProtocolHandler(connection, version));
+        Log.debug(session.getId(), "Protocolo binario, versión " + version);
+    }
+}
@@ -0,0 +1,288 @@
+package server;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.Locale;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Registro asíncrono del servidor. Quien registra un mensaje solo lo deja en un buffer circular sin
+ * bloqueos; un hilo de fondo los recoge por lotes, los formatea y los escribe de una vez en la consola
+ * o en un fichero. Así ningún hilo que atiende peticiones espera por la E/S ni compite por
+ * {@code System.out}.
+ * <p>
+ * Cada mensaje tiene un nivel y, opcionalmente, campos estructurados (sesión, servicio y latencia) que se
+ * escriben como {@code clave=valor} tras el texto. Los mensajes de cada comando se pueden muestrear: con
+ * {@code server.logSample=N} se escribe uno de cada N. Si el buffer se llena, los mensajes nuevos se
+ * descartan en lugar de esperar, y se avisa de cuántos se han perdido.
+ */
+final class Log {
+
+    /** Nivel de un mensaje; se escriben los del nivel configurado y superiores. */
+    enum Level {
+        DEBUG, INFO, WARN, ERROR
+    }
+
+    // Potencia de dos, para calcular la posición con una máscara
+    private static final int CAPACITY = 1 << 14;
+    private static final int BATCH_SIZE = 512;
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(5);
+    private static final DateTimeFormatter TIME_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss.SSS");
+
+    private static final AtomicReferenceArray<Event> buffer = new AtomicReferenceArray<>(CAPACITY);
+    // Siguiente posición que reservará un productor
+    private static final AtomicLong head = new AtomicLong();
+    // Siguiente posición que leerá el hilo escritor; los productores la leen para saber si hay sitio
+    private static final AtomicLong tail = new AtomicLong();
+    private static final LongAdder dropped = new LongAdder();
+    // Solo un hilo vacía el buffer a la vez: el escritor o, al apagar el servidor, el hook de cierre
+    private static final ReentrantLock drainLock = new ReentrantLock();
+    private static final ZoneId zone = ZoneId.systemDefault();
+
+    private static volatile Level level = Level.INFO;
+    private static volatile int sampleRate = 1;
+    // Destino de los mensajes, o null para la consola
+    private static volatile Writer file;
+    private static long reportedDrops;
+
+    static {
+        Thread writer = new Thread(Log::writeLoop, "log-writer");
+        writer.setDaemon(true);
+        writer.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(Log::flush, "log-flush"));
+    }
+
+    private Log() {
+    }
+
+    /**
+     * Aplica la configuración del servidor. Si se indica un fichero, los mensajes se añaden a él en lugar
+     * de escribirse en la consola.
+     * @throws IOException si no se puede abrir el fichero.
+     */
+    static void configure(Level newLevel, int newSampleRate, Path logFile) throws IOException {
+        level = newLevel;
+        sampleRate = Math.max(1, newSampleRate);
+        if (logFile != null) {
+            file = Files.newBufferedWriter(logFile, StandardCharsets.UTF_8,
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        }
+    }
+
+    static boolean isEnabled(Level messageLevel) {
+        return messageLevel.compareTo(level) >= 0;
+    }
+
+    static void debug(String message) {
+        log(Level.DEBUG, 0, null, -1, message, null);
+    }
+
+    static void debug(long session, String message) {
+        log(Level.DEBUG, session, null, -1, message, null);
+    }
+
+    static void info(String message) {
+        log(Level.INFO, 0, null, -1, message, null);
+    }
+
+    static void info(long session, String message) {
+        log(Level.INFO, session, null, -1, message, null);
+    }
+
+    static void warn(String message) {
+        log(Level.WARN, 0, null, -1, message, null);
+    }
+
+    static void warn(long session, String message) {
+        log(Level.WARN, session, null, -1, message, null);
+    }
+
+    static void error(String message) {
+        log(Level.ERROR, 0, null, -1, message, null);
+    }
+
+    static void error(String message, Throwable error) {
+        log(Level.ERROR, 0, null, -1, message, error);
+    }
+
+    /**
+     * Fallo de un servicio, con su traza.
+     */
+    static void serviceError(String service, String message, Throwable error) {
+        log(Level.ERROR, 0, service, -1, message, error);
+    }
+
+    /**
+     * Comando atendido, con su latencia. Solo se registra uno de cada {@code server.logSample}; el muestreo
+     * se decide antes de crear el mensaje, así que los descartados no cuestan nada más.
+     * @param service Servicio ejecutado, o {@code null}.
+     */
+    static void command(long session, String command, String service, long latencyNanos) {
+        if (!isEnabled(Level.INFO)) {
+            return;
+        }
+        int rate = sampleRate;
+        if (rate > 1 && ThreadLocalRandom.current().nextInt(rate) != 0) {
+            return;
+        }
+        offer(new Event(System.currentTimeMillis(), Level.INFO, session, service, latencyNanos,
+                "Comando atendido: " + command, null));
+    }
+
+    private static void log(Level messageLevel, long session, String service, long latencyNanos, String message,
+                            Throwable error) {
+        if (isEnabled(messageLevel)) {
+            offer(new Event(System.currentTimeMillis(), messageLevel, session, service, latencyNanos, message, error));
+        }
+    }
+
+    /**
+     * @return Mensajes descartados porque el buffer estaba lleno.
+     */
+    static long getDroppedCount() {
+        return dropped.sum();
+    }
+
+    static Level getLevel() {
+        return level;
+    }
+
+    static int getSampleRate() {
+        return sampleRate;
+    }
+
+    /**
+     * Reserva una posición con compare-and-set y publica el mensaje en ella. Si el buffer está lleno, el
+     * mensaje se descarta: el registro nunca frena a quien lo usa.
+     */
+    private static void offer(Event event) {
+        while (true) {
+            long position = head.get();
+            if (position - tail.get() >= CAPACITY) {
+                dropped.increment();
+                return;
+            }
+            if (head.compareAndSet(position, position + 1)) {
+                // El escritor espera a que la posición reservada deje de ser null
+                buffer.setRelease((int) position & (CAPACITY - 1), event);
+                return;
+            }
+        }
+    }
+
+    private static void writeLoop() {
+        while (true) {
+            if (drain() == 0) {
+                LockSupport.parkNanos(IDLE_PARK_NANOS);
+            }
+        }
+    }
+
+    /**
+     * Escribe los mensajes pendientes. Se llama al apagar el servidor para no perder los últimos.
+     */
+    static void flush() {
+        while (drain() > 0) {
+            // Hasta vaciar el buffer
+        }
+    }
+
+    /**
+     * Recoge un lote de mensajes del buffer y lo escribe de una vez.
+     * @return El número de mensajes escritos.
+     */
+    private static int drain() {
+        drainLock.lock();
+        try {
+            StringBuilder batch = new StringBuilder();
+            long position = tail.get();
+            int count = 0;
+            while (count < BATCH_SIZE) {
+                int slot = (int) position & (CAPACITY - 1);
+                Event event = buffer.getAcquire(slot);
+                if (event == null) {
+                    // Vacío, o reservado y aún sin publicar
+                    break;
+                }
+                buffer.setPlain(slot, null);
+                position++;
+                count++;
+                format(event, batch);
+            }
+            tail.set(position);
+            long drops = dropped.sum();
+            if (drops > reportedDrops) {
+                batch.append(TIME_FORMAT.format(LocalDateTime.now(zone))).append(" WARN  Mensajes descartados por")
+                        .append(" tener el registro lleno: ").append(drops - reportedDrops).append('\n');
+                reportedDrops = drops;
+            }
+            if (!batch.isEmpty()) {
+                write(batch);
+            }
+            return count;
+        } finally {
+            drainLock.unlock();
+        }
+    }
+
+    private static void write(StringBuilder batch) {
+        Writer out = file;
+        if (out == null) {
+            System.out.print(batch);
+            System.out.flush();
+            return;
+        }
+        try {
+            out.append(batch);
+            out.flush();
+        } catch (IOException e) {
+            System.err.print(batch);
+        }
+    }
+
+    private static void format(Event event, StringBuilder out) {
+        out.append(TIME_FORMAT.format(LocalDateTime.ofInstant(Instant.ofEpochMilli(event.time()), zone))).append(' ');
+        String name = event.level().name();
+        out.append(name).append(" ".repeat(6 - name.length())).append(event.message());
+        if (event.session() > 0) {
+            out.append(" sesion=").append(event.session());
+        }
+        if (event.service() != null) {
+            out.append(" servicio=\"").append(event.service()).append('"');
+        }
+        if (event.latencyNanos() >= 0) {
+            out.append(" latencia_ms=").append(String.format(Locale.ROOT, "%.3f", event.latencyNanos() / 1e6));
+        }
+        out.append('\n');
+        if (event.error() != null) {
+            StringWriter trace = new StringWriter();
+            event.error().printStackTrace(new PrintWriter(trace));
+            out.append(trace);
+        }
+    }
+
+    /**
+     * Un mensaje pendiente de escribir.
+     * @param session Identificador de la sesión, o 0 si el mensaje no corresponde a ninguna.
+     * @param latencyNanos Latencia del comando, o -1.
+     */
+    private record Event(long time, Level level, long session, String service, long latencyNanos,
+                         String message, Throwable error) {
+    }
+}
@@ -0,0 +1,112 @@
+package server;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Métricas del servidor: latencia por comando, ritmo de peticiones, errores, bytes transferidos,
+ * conexiones y duración de las recargas. Todas se registran sin bloqueos, así que se pueden dejar
+ * activadas en producción. Las latencias de cada servicio las lleva su {@link ServiceAdapter}.
+ */
+class Metrics {
+
+    private final long startNanos = System.nanoTime();
+    private final Map<String, LatencyHistogram> commands = new ConcurrentHashMap<>();
+    private final RateMeter requests = new RateMeter();
+    private final LongAdder errors = new LongAdder();
+    private final LongAdder bytesIn = new LongAdder();
+    private final LongAdder bytesOut = new LongAdder();
+    private final AtomicInteger activeConnections = new AtomicInteger();
+    private final LongAdder totalConnections = new LongAdder();
+    private final LatencyHistogram reloads = new LatencyHistogram();
+    // Milisegundos desde el arranque de la JVM hasta que el servidor acepta conexiones, o -1
+    private final AtomicLong timeToReadyMillis = new AtomicLong(-1);
+
+    void recordCommand(String command, long nanos) {
+        requests.mark();
+        commands.computeIfAbsent(command, c -> new LatencyHistogram()).record(nanos);
+    }
+
+    void errorOccurred() {
+        errors.increment();
+    }
+
+    LongAdder getBytesIn() {
+        return bytesIn;
+    }
+
+    LongAdder getBytesOut() {
+        return bytesOut;
+    }
+
+    void connectionOpened() {
+        activeConnections.incrementAndGet();
+        totalConnections.increment();
+    }
+
+    void connectionClosed() {
+        activeConnections.decrementAndGet();
+    }
+
+    LatencyHistogram getReloads() {
+        return reloads;
+    }
+
+    /**
+     * Registra el momento en que el servidor empieza a aceptar conexiones. Solo cuenta la primera vez.
+     * @return {@code false} si ya estaba registrado.
+     */
+    boolean ready(long millisSinceStart) {
+        return timeToReadyMillis.compareAndSet(-1, millisSinceStart);
+    }
+
+    /**
+     * @return Milisegundos desde el arranque de la JVM hasta que el servidor estuvo listo, o -1 si aún no lo está.
+     */
+    long getTimeToReadyMillis() {
+        return timeToReadyMillis.get();
+    }
+
+    long getUptimeSeconds() {
+        return (System.nanoTime() - startNanos) / 1_000_000_000L;
+    }
+
+    long getRequestCount() {
+        return requests.getTotal();
+    }
+
+    double getRequestRate() {
+        return requests.getRatePerSecond();
+    }
+
+    long getErrorCount() {
+        return errors.sum();
+    }
+
+    long getBytesInCount() {
+        return bytesIn.sum();
+    }
+
+    long getBytesOutCount() {
+        return bytesOut.sum();
+    }
+
+    int getActiveConnections() {
+        return activeConnections.get();
+    }
+
+    long getTotalConnections() {
+        return totalConnections.sum();
+    }
+
+    /**
+     * @return Los histogramas por comando, ordenados por nombre.
+     */
+    Map<String, LatencyHistogram> getCommands() {
+        return new TreeMap<>(commands);
+    }
+}
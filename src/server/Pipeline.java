@@ -0,0 +1,323 @@
+package server;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+
+/**
+ * Cadena de servicios que el servidor ejecuta de una vez: la salida de cada etapa pasa en memoria a las
+ * siguientes y el cliente solo recibe el resultado final.
+ * <p>
+ * Una cadena lineal se escribe con los nombres de los servicios separados por {@code >}:
+ * <pre>
+ *   Greeting Service > Bye bye Service
+ * </pre>
+ * Un grafo acíclico se escribe con una etapa por línea (o separadas por {@code ;}), cada una con un
+ * identificador, el servicio que ejecuta y, tras {@code <}, las etapas cuya salida recibe:
+ * <pre>
+ *   saludo = Greeting Service
+ *   mayusculas = UpperCase Service &lt; saludo
+ *   despedida = Bye bye Service &lt; saludo
+ *   final = Greeting Service &lt; mayusculas, despedida
+ * </pre>
+ * Las etapas sin entradas reciben la entrada del pipeline; las que tienen varias reciben sus salidas unidas
+ * por saltos de línea, en el orden indicado. El resultado es la salida de las etapas de las que no depende
+ * ninguna otra, unidas igual. Los servicios se buscan por nombre (o {@code nombre@versión}) en cada ejecución,
+ * así que una recarga se aplica a la siguiente.
+ * <p>
+ * Las etapas independientes se ejecutan en paralelo en un {@link ForkJoinPool}. Como los servicios pueden
+ * bloquearse (esperando en su propio pool, por ejemplo), cada etapa se ejecuta con
+ * {@link ForkJoinPool#managedBlock} para que el pool compense los hilos bloqueados.
+ */
+final class Pipeline {
+
+    static final String EXTENSION = ".pipeline";
+
+    private static final int MAX_STAGES = 64;
+    private static final String SEPARATOR = "\n";
+
+    private static final ForkJoinPool POOL = new ForkJoinPool(Runtime.getRuntime().availableProcessors(), pool -> {
+        ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+        thread.setName("pipeline-" + thread.getPoolIndex());
+        return thread;
+    }, null, true);
+
+    private final String definition;
+    // Etapas en orden topológico: cada una aparece después de todas sus entradas
+    private final List<Stage> stages;
+    // Posiciones en stages de las etapas que forman el resultado
+    private final int[] outputs;
+
+    private Pipeline(String definition, List<Stage> stages, int[] outputs) {
+        this.definition = definition;
+        this.stages = stages;
+        this.outputs = outputs;
+    }
+
+    /**
+     * Interpreta la definición de un pipeline.
+     * @throws IllegalArgumentException si la definición no es válida o tiene ciclos.
+     */
+    static Pipeline parse(String definition) {
+        List<String> lines = new ArrayList<>();
+        for (String line : definition.split("[;\\n]")) {
+            line = line.strip();
+            if (!line.isEmpty() && !line.startsWith("#")) {
+                lines.add(line);
+            }
+        }
+        if (lines.isEmpty()) {
+            throw new IllegalArgumentException("El pipeline no tiene ninguna etapa.");
+        }
+        Map<String, Stage> declared = lines.stream().noneMatch(line -> line.indexOf('=') >= 0)
+                ? parseChain(lines) : parseGraph(lines);
+        if (declared.size() > MAX_STAGES) {
+            throw new IllegalArgumentException("El pipeline tiene más de " + MAX_STAGES + " etapas.");
+        }
+        return sort(definition.strip(), declared);
+    }
+
+    private static Map<String, Stage> parseChain(List<String> lines) {
+        Map<String, Stage> stages = new LinkedHashMap<>();
+        String previous = null;
+        for (String line : lines) {
+            for (String service : line.split(">", -1)) {
+                service = service.strip();
+                if (service.isEmpty()) {
+                    throw new IllegalArgumentException("Falta un servicio en la cadena: " + line);
+                }
+                String id = Integer.toString(stages.size() + 1);
+                stages.put(id, new Stage(id, service, previous == null ? List.of() : List.of(previous)));
+                previous = id;
+            }
+        }
+        return stages;
+    }
+
+    private static Map<String, Stage> parseGraph(List<String> lines) {
+        Map<String, Stage> stages = new LinkedHashMap<>();
+        for (String line : lines) {
+            int equals = line.indexOf('=');
+            if (equals < 0) {
+                throw new IllegalArgumentException("Etapa sin identificador (id = servicio < entradas): " + line);
+            }
+            String id = line.substring(0, equals).strip();
+            String rest = line.substring(equals + 1);
+            int arrow = rest.indexOf('<');
+            String service = (arrow < 0 ? rest : rest.substring(0, arrow)).strip();
+            List<String> inputs = new ArrayList<>();
+            if (arrow >= 0) {
+                for (String input : rest.substring(arrow + 1).split(",")) {
+                    if (!input.isBlank()) {
+                        inputs.add(input.strip());
+                    }
+                }
+            }
+            if (id.isEmpty() || service.isEmpty()) {
+                throw new IllegalArgumentException("Falta el identificador o el servicio de la etapa: " + line);
+            }
+            if (stages.put(id, new Stage(id, service, List.copyOf(inputs))) != null) {
+                throw new IllegalArgumentException("Etapa repetida: " + id);
+            }
+        }
+        return stages;
+    }
+
+    /**
+     * Ordena las etapas de modo que cada una vaya después de sus entradas, respetando en lo posible el
+     * orden en que se declararon.
+     */
+    private static Pipeline sort(String definition, Map<String, Stage> declared) {
+        Map<String, Integer> pending = new HashMap<>();
+        Map<String, List<String>> dependents = new HashMap<>();
+        for (Stage stage : declared.values()) {
+            for (String input : stage.inputs()) {
+                if (!declared.containsKey(input)) {
+                    throw new IllegalArgumentException("La etapa " + stage.id() + " usa una etapa que no existe: " + input);
+                }
+                dependents.computeIfAbsent(input, key -> new ArrayList<>()).add(stage.id());
+            }
+            pending.put(stage.id(), stage.inputs().size());
+        }
+        List<Stage> sorted = new ArrayList<>(declared.size());
+        List<String> ready = new ArrayList<>();
+        for (Stage stage : declared.values()) {
+            if (stage.inputs().isEmpty()) {
+                ready.add(stage.id());
+            }
+        }
+        while (!ready.isEmpty()) {
+            Stage stage = declared.get(ready.removeFirst());
+            sorted.add(stage);
+            for (String dependent : dependents.getOrDefault(stage.id(), List.of())) {
+                if (pending.merge(dependent, -1, Integer::sum) == 0) {
+                    ready.add(dependent);
+                }
+            }
+        }
+        if (sorted.size() < declared.size()) {
+            throw new IllegalArgumentException("El pipeline tiene un ciclo.");
+        }
+
+        Map<String, Integer> positions = new HashMap<>();
+        List<Stage> resolved = new ArrayList<>(sorted.size());
+        for (Stage stage : sorted) {
+            int[] inputs = new int[stage.inputs().size()];
+            for (int i = 0; i < inputs.length; i++) {
+                inputs[i] = positions.get(stage.inputs().get(i));
+            }
+            positions.put(stage.id(), resolved.size());
+            resolved.add(new Stage(stage.id(), stage.service(), stage.inputs(), inputs));
+        }
+        int[] outputs = declared.values().stream()
+                .filter(stage -> !dependents.containsKey(stage.id()))
+                .mapToInt(stage -> positions.get(stage.id()))
+                .toArray();
+        return new Pipeline(definition, List.copyOf(resolved), outputs);
+    }
+
+    String getDefinition() {
+        return definition;
+    }
+
+    /**
+     * Ejecuta el pipeline y espera a su resultado.
+     * @param session Sesión del cliente con la que se ejecutan los servicios, o {@code null}.
+     * @throws ServiceUnavailableException si una etapa falla, su servicio no existe o está saturado; el
+     * mensaje indica la etapa.
+     */
+    String execute(String input, ServiceRegistry registry, ClientSession session) throws ServiceUnavailableException {
+        List<CompletableFuture<String>> results = new ArrayList<>(stages.size());
+        for (Stage stage : stages) {
+            int[] inputs = stage.positions();
+            CompletableFuture<String> result;
+            if (inputs.length == 0) {
+                result = CompletableFuture.supplyAsync(() -> run(stage, input, registry, session), POOL);
+            } else if (inputs.length == 1) {
+                result = results.get(inputs[0]).thenApplyAsync(value -> run(stage, value, registry, session), POOL);
+            } else {
+                CompletableFuture<?>[] sources = new CompletableFuture<?>[inputs.length];
+                for (int i = 0; i < inputs.length; i++) {
+                    sources[i] = results.get(inputs[i]);
+                }
+                result = CompletableFuture.allOf(sources)
+                        .thenApplyAsync(ignored -> run(stage, join(sources), registry, session), POOL);
+            }
+            results.add(result);
+        }
+        CompletableFuture<?>[] finals = new CompletableFuture<?>[outputs.length];
+        for (int i = 0; i < outputs.length; i++) {
+            finals[i] = results.get(outputs[i]);
+        }
+        try {
+            return CompletableFuture.allOf(finals).thenApply(ignored -> join(finals)).join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof ServiceUnavailableException unavailable) {
+                throw unavailable;
+            }
+            throw new ServiceUnavailableException("El pipeline ha fallado: " + e.getCause(), false);
+        }
+    }
+
+    private static String join(CompletableFuture<?>[] values) {
+        StringBuilder joined = new StringBuilder();
+        for (CompletableFuture<?> value : values) {
+            if (!joined.isEmpty()) {
+                joined.append(SEPARATOR);
+            }
+            joined.append(value.join());
+        }
+        return joined.toString();
+    }
+
+    private static String run(Stage stage, String input, ServiceRegistry registry, ClientSession session) {
+        StageCall call = new StageCall(stage, input, registry, session);
+        try {
+            ForkJoinPool.managedBlock(call);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CompletionException(new ServiceUnavailableException("Pipeline interrumpido.", false));
+        }
+        return call.result();
+    }
+
+    /**
+     * Una etapa del pipeline.
+     * @param inputs Identificadores de las etapas cuya salida recibe.
+     * @param positions Posiciones de esas etapas en el orden de ejecución.
+     */
+    private record Stage(String id, String service, List<String> inputs, int[] positions) {
+
+        Stage(String id, String service, List<String> inputs) {
+            this(id, service, inputs, null);
+        }
+    }
+
+    /**
+     * Ejecución de una etapa, que puede bloquear el hilo mientras el servicio trabaja.
+     */
+    private static final class StageCall implements ForkJoinPool.ManagedBlocker {
+
+        private final Stage stage;
+        private final String input;
+        private final ServiceRegistry registry;
+        private final ClientSession session;
+        private String result;
+        private ServiceUnavailableException error;
+        private boolean done;
+
+        StageCall(Stage stage, String input, ServiceRegistry registry, ClientSession session) {
+            this.stage = stage;
+            this.input = input;
+            this.registry = registry;
+            this.session = session;
+        }
+
+        @Override
+        public boolean block() {
+            try {
+                result = execute();
+            } catch (ServiceUnavailableException e) {
+                error = e;
+            }
+            done = true;
+            return true;
+        }
+
+        @Override
+        public boolean isReleasable() {
+            return done;
+        }
+
+        private String execute() throws ServiceUnavailableException {
+            Service service = registry.find(stage.service());
+            if (service == null) {
+                throw new ServiceUnavailableException("Etapa " + stage.id() + ": servicio no encontrado: " + stage.service(), false);
+            }
+            if (service instanceof PipelineService) {
+                // Sin pipelines anidados no puede haber ciclos entre pipelines registrados
+                throw new ServiceUnavailableException("Etapa " + stage.id() + ": un pipeline no puede usar otro pipeline: "
+                        + stage.service(), false);
+            }
+            String output = session != null ? session.execute(service, input) : service.execute(input);
+            if (output == null) {
+                throw new ServiceUnavailableException("Etapa " + stage.id() + " (" + stage.service()
+                        + "): el servicio no ha devuelto ningún resultado.", false);
+            }
+            return output;
+        }
+
+        String result() {
+            if (error != null) {
+                throw new CompletionException(error);
+            }
+            return result;
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package server;
+
+/**
+ * Pipeline registrado por el administrador con un fichero {@code nombre.pipeline} en la carpeta de servicios.
+ * Se publica como un servicio más, con el nombre del fichero, así que los clientes lo activan o lo ejecutan
+ * por nombre igual que a los demás.
+ */
+class PipelineService implements Service {
+
+    private final String name;
+    private final Pipeline pipeline;
+    private final ServiceRegistry registry;
+
+    PipelineService(String name, Pipeline pipeline, ServiceRegistry registry) {
+        this.name = name;
+        this.pipeline = pipeline;
+        this.registry = registry;
+    }
+
+    @Override
+    public String execute(String input) {
+        try {
+            return pipeline.execute(input, registry, null);
+        } catch (ServiceUnavailableException e) {
+            Log.error("Error en el pipeline " + name + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Ejecuta el pipeline para un cliente: sus etapas usan la sesión del cliente.
+     * @throws ServiceUnavailableException si alguna etapa falla o está saturada.
+     */
+    String execute(String input, ClientSession session) throws ServiceUnavailableException {
+        return pipeline.execute(input, registry, session);
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public String getHelp() {
+        return "Pipeline que ejecuta en el servidor:\n" + pipeline.getDefinition();
+    }
+}
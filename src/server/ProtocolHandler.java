@@ -0,0 +1,40 @@
+package server;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Formato de los comandos de una conexión. Todas las conexiones empiezan con el protocolo de texto
+ * ({@link LegacyProtocolHandler}) y pueden pasar al binario ({@link BinaryProtocolHandler}) tras el saludo.
+ */
+interface ProtocolHandler {
+
+    /**
+     * Lee y ejecuta un comando del cliente.
+     * @return {@code false} si el cliente ha terminado la sesión.
+     */
+    boolean handleCommand() throws IOException;
+
+    /**
+     * Bytes que ocupa el siguiente comando, para que el motor no bloqueante solo lo atienda cuando ha llegado
+     * entero. Si los recibidos no bastan para saberlo, devuelve cuántos hacen falta como mínimo para averiguarlo.
+     * @param received Bytes recibidos que aún no se han leído; no se consumen.
+     */
+    int commandLength(ByteBuffer received);
+
+    /**
+     * Si el motor no bloqueante puede atender ya el siguiente comando sin que el trabajador tenga que esperar.
+     * Si no, la conexión queda en pausa hasta que el protocolo la reanude con
+     * {@link ClientConnection#resumeCommands()}.
+     * @param received Bytes recibidos que aún no se han leído; no se consumen y pueden no formar un comando completo.
+     */
+    default boolean isReady(ByteBuffer received) {
+        return true;
+    }
+
+    /**
+     * Libera lo que el protocolo tenga pendiente al cerrarse la conexión.
+     */
+    default void close() {
+    }
+}
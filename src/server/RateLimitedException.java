@@ -0,0 +1,19 @@
+package server;
+
+/**
+ * La petición se ha rechazado sin ejecutarla porque el cliente ha superado su límite de peticiones o el
+ * servidor su límite de ejecuciones simultáneas. Indica cuánto conviene esperar antes de reintentarla.
+ */
+class RateLimitedException extends ServiceUnavailableException {
+
+    private final long retryAfterMillis;
+
+    RateLimitedException(String message, long retryAfterMillis) {
+        super(message, true);
+        this.retryAfterMillis = retryAfterMillis;
+    }
+
+    long getRetryAfterMillis() {
+        return retryAfterMillis;
+    }
+}
@@ -0,0 +1,55 @@
+package server;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Cuenta eventos y calcula su ritmo en el último minuto, con un contador por segundo en un anillo
+ * de 60 posiciones. No usa bloqueos: si dos hilos reinician a la vez la misma posición se puede
+ * perder algún evento, lo que es aceptable para una métrica.
+ */
+class RateMeter {
+
+    private static final int WINDOW_SECONDS = 60;
+
+    private final AtomicLongArray counts = new AtomicLongArray(WINDOW_SECONDS);
+    private final AtomicLongArray seconds = new AtomicLongArray(WINDOW_SECONDS);
+    private final LongAdder total = new LongAdder();
+    private final long startNanos = System.nanoTime();
+
+    void mark() {
+        total.increment();
+        long second = currentSecond();
+        int slot = (int) (second % WINDOW_SECONDS);
+        long slotSecond = seconds.get(slot);
+        if (slotSecond != second && seconds.compareAndSet(slot, slotSecond, second)) {
+            counts.set(slot, 0);
+        }
+        counts.incrementAndGet(slot);
+    }
+
+    long getTotal() {
+        return total.sum();
+    }
+
+    /**
+     * @return Eventos por segundo en el último minuto (o desde el arranque, si es más reciente).
+     */
+    double getRatePerSecond() {
+        long now = currentSecond();
+        long events = 0;
+        for (int i = 0; i < WINDOW_SECONDS; i++) {
+            long age = now - seconds.get(i);
+            // El segundo en curso no está completo: se cuenta la ventana de los 60 anteriores
+            if (age >= 1 && age <= WINDOW_SECONDS) {
+                events += counts.get(i);
+            }
+        }
+        long elapsed = Math.min(WINDOW_SECONDS, now);
+        return elapsed == 0 ? 0 : (double) events / elapsed;
+    }
+
+    private long currentSecond() {
+        return (System.nanoTime() - startNanos) / 1_000_000_000L;
+    }
+}
@@ -0,0 +1,53 @@
+package server;
+
+/**
+ * Servicio que el gateway no ejecuta él mismo, sino que reenvía a uno de los backends que lo ofrecen.
+ * Para los clientes es un servicio más: se lista, se activa y se ejecuta igual que los locales.
+ */
+class RemoteService implements Service {
+
+    private final String name;
+    private final Gateway gateway;
+
+    RemoteService(String name, Gateway gateway) {
+        this.name = name;
+        this.gateway = gateway;
+    }
+
+    @Override
+    public String execute(String input) {
+        try {
+            return gateway.execute(name, input);
+        } catch (ServiceUnavailableException e) {
+            Log.warn("Error en el servicio remoto " + name + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Ejecuta el servicio en un backend, informando al cliente si no hay ninguno disponible o está saturado.
+     * @throws ServiceUnavailableException si no se ha podido ejecutar.
+     */
+    String submit(String input) throws ServiceUnavailableException {
+        return gateway.execute(name, input);
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public String getHelp() {
+        try {
+            return gateway.getHelp(name);
+        } catch (ServiceUnavailableException e) {
+            return "No se pudo obtener la ayuda de " + name + ": " + e.getMessage();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "remoto, en " + gateway.countHosts(name) + " backends";
+    }
+}
@@ -0,0 +1,203 @@
+package server;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Caché de resultados de un servicio determinista, limitada por tamaño aproximado en bytes y,
+ * opcionalmente, por tiempo de vida.
+ * <p>
+ * Las entradas se reparten en segmentos según el hash de la entrada del servicio; cada segmento es un
+ * LRU con su propio bloqueo y su parte del tamaño máximo, así que las peticiones concurrentes rara vez
+ * compiten por el mismo bloqueo. Los resultados que no caben en un segmento no se guardan.
+ */
+class ResultCache {
+
+    private static final int MAX_SEGMENTS = 16;
+    private static final long MIN_SEGMENT_BYTES = 64 * 1024;
+    // Coste aproximado de una entrada además de sus cadenas: nodo del mapa, objetos y cabeceras
+    private static final long ENTRY_OVERHEAD = 96;
+
+    private final Segment[] segments;
+    private final long maxBytes;
+    private final long ttlNanos;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * @param ttlSeconds Caducidad de cada resultado, o 0 para que solo se expulse por tamaño.
+     */
+    ResultCache(long maxBytes, long ttlSeconds) {
+        this.maxBytes = maxBytes;
+        this.ttlNanos = TimeUnit.SECONDS.toNanos(ttlSeconds);
+        int count = Integer.highestOneBit((int) Math.max(1, Math.min(MAX_SEGMENTS, maxBytes / MIN_SEGMENT_BYTES)));
+        this.segments = new Segment[count];
+        for (int i = 0; i < count; i++) {
+            segments[i] = new Segment(maxBytes / count);
+        }
+    }
+
+    /**
+     * @return El resultado guardado para esta entrada, o {@code null} si no está o ha caducado.
+     */
+    String get(String input) {
+        String value = segmentFor(input).get(input);
+        if (value != null) {
+            hits.increment();
+        } else {
+            misses.increment();
+        }
+        return value;
+    }
+
+    void put(String input, String result) {
+        long expiresAt = ttlNanos > 0 ? System.nanoTime() + ttlNanos : 0;
+        segmentFor(input).put(input, new Entry(result, weight(input, result), expiresAt));
+    }
+
+    void clear() {
+        for (Segment segment : segments) {
+            segment.clear();
+        }
+    }
+
+    long getHits() {
+        return hits.sum();
+    }
+
+    long getMisses() {
+        return misses.sum();
+    }
+
+    long getEvictions() {
+        return evictions.sum();
+    }
+
+    int getEntryCount() {
+        int count = 0;
+        for (Segment segment : segments) {
+            count += segment.size();
+        }
+        return count;
+    }
+
+    long getSizeBytes() {
+        long bytes = 0;
+        for (Segment segment : segments) {
+            bytes += segment.bytes();
+        }
+        return bytes;
+    }
+
+    @Override
+    public String toString() {
+        return "aciertos=" + getHits() + ", fallos=" + getMisses() + ", expulsiones=" + getEvictions()
+                + ", entradas=" + getEntryCount() + ", ocupación=" + getSizeBytes() + "/" + maxBytes + " bytes";
+    }
+
+    private Segment segmentFor(String input) {
+        int h = input.hashCode();
+        h ^= (h >>> 16);
+        return segments[h & (segments.length - 1)];
+    }
+
+    private static long weight(String input, String result) {
+        // Las cadenas ocupan como mucho dos bytes por carácter
+        return ENTRY_OVERHEAD + 2L * (input.length() + result.length());
+    }
+
+    private record Entry(String value, long weight, long expiresAt) {
+
+        boolean isExpired(long now) {
+            return expiresAt != 0 && now - expiresAt >= 0;
+        }
+    }
+
+    private final class Segment {
+
+        private final ReentrantLock lock = new ReentrantLock();
+        // En orden de acceso: la primera entrada es la menos usada recientemente
+        private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+        private final long maxBytes;
+        private long bytes;
+
+        Segment(long maxBytes) {
+            this.maxBytes = maxBytes;
+        }
+
+        String get(String input) {
+            lock.lock();
+            try {
+                Entry entry = entries.get(input);
+                if (entry == null) {
+                    return null;
+                }
+                if (entry.isExpired(System.nanoTime())) {
+                    entries.remove(input);
+                    bytes -= entry.weight();
+                    evictions.increment();
+                    return null;
+                }
+                return entry.value();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void put(String input, Entry entry) {
+            if (entry.weight() > maxBytes) {
+                return;
+            }
+            lock.lock();
+            try {
+                Entry previous = entries.put(input, entry);
+                if (previous != null) {
+                    bytes -= previous.weight();
+                }
+                bytes += entry.weight();
+                Iterator<Map.Entry<String, Entry>> eldest = entries.entrySet().iterator();
+                while (bytes > maxBytes && eldest.hasNext()) {
+                    Entry evicted = eldest.next().getValue();
+                    eldest.remove();
+                    bytes -= evicted.weight();
+                    evictions.increment();
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void clear() {
+            lock.lock();
+            try {
+                entries.clear();
+                bytes = 0;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        int size() {
+            lock.lock();
+            try {
+                return entries.size();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        long bytes() {
+            lock.lock();
+            try {
+                return bytes;
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+}
@@ -0,0 +1,249 @@
+package server;
+
+import java.io.IOException;
+import java.nio.channels.*;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Motor de conexiones no bloqueante. Un único hilo espera en un {@link Selector} a que los clientes
+ * envíen datos y los acumula en el búfer de cada conexión; cuando hay un comando completo, un pool pequeño
+ * de trabajadores atiende los comandos pendientes. Mientras se atiende una conexión, su clave no recibe
+ * eventos de lectura, así que cada conexión la atiende un solo trabajador a la vez. Ningún hilo espera a un
+ * cliente: las conexiones inactivas, las que envían un comando a medias y las que no leen sus respuestas
+ * no ocupan ninguno.
+ * <p>
+ * Las respuestas que el socket no admite al momento las envía el propio selector cuando el canal vuelve a
+ * admitir escritura. Si se acumulan demasiadas, la conexión queda en pausa y no se leen más comandos suyos
+ * hasta que se envíen.
+ * <p>
+ * Si aceptar una conexión falla (sin descriptores libres, por ejemplo), el canal de escucha deja de aceptar
+ * durante una pausa breve y el selector sigue atendiendo a las conexiones abiertas.
+ */
+class SelectorEngine extends ConnectionEngine {
+
+    private final Selector selector;
+    private final ExecutorService workers;
+    // Canales de escucha en pausa tras un error al aceptar, y cuándo vuelven a aceptar; solo los usa el selector
+    private final List<SelectionKey> pausedListeners = new ArrayList<>();
+    private long acceptResumeAt;
+
+    SelectorEngine(Server server, ServerConfig config) throws IOException {
+        super(server, config);
+        this.selector = Selector.open();
+        AtomicInteger workerCount = new AtomicInteger();
+        this.workers = Executors.newFixedThreadPool(config.getWorkerThreads(),
+                r -> new Thread(r, "worker-" + workerCount.incrementAndGet()));
+    }
+
+    @Override
+    void serve(List<ServerSocketChannel> listeners) throws IOException {
+        for (ServerSocketChannel listener : listeners) {
+            listener.configureBlocking(false);
+            listener.register(selector, SelectionKey.OP_ACCEPT);
+        }
+        try {
+            while (true) {
+                if (pausedListeners.isEmpty()) {
+                    selector.select();
+                } else {
+                    selector.select(Math.max(1, TimeUnit.NANOSECONDS.toMillis(acceptResumeAt - System.nanoTime())));
+                    resumeAccepting();
+                }
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    if (key.isAcceptable()) {
+                        accept(key);
+                        continue;
+                    }
+                    if (key.isWritable()) {
+                        write(key);
+                    }
+                    if (key.isValid() && key.isReadable()) {
+                        read(key);
+                    }
+                }
+            }
+        } finally {
+            workers.shutdown();
+            selector.close();
+        }
+    }
+
+    private void accept(SelectionKey listenerKey) {
+        ServerSocketChannel listener = (ServerSocketChannel) listenerKey.channel();
+        while (true) {
+            SocketChannel channel;
+            try {
+                channel = listener.accept();
+            } catch (IOException e) {
+                Log.error("Error al aceptar una conexión", e);
+                pauseAccepting(listenerKey);
+                return;
+            }
+            if (channel == null) {
+                return;
+            }
+            if (!admit(channel)) {
+                continue;
+            }
+            SelectionKey key;
+            ClientConnection connection;
+            try {
+                channel.configureBlocking(false);
+                connection = new ClientConnection(server, channel);
+                key = channel.register(selector, 0, connection);
+            } catch (IOException e) {
+                abandon(channel, e);
+                continue;
+            }
+            connection.setSelectionKey(key, () -> workers.execute(() -> process(key)));
+            workers.execute(() -> {
+                boolean greeted = false;
+                try {
+                    connection.greet();
+                    greeted = true;
+                } catch (IOException e) {
+                    // El cliente ya se ha ido
+                } finally {
+                    if (greeted) {
+                        resume(key);
+                    } else {
+                        close(key);
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Deja de aceptar por un canal de escucha durante {@link #ACCEPT_BACKOFF_MILLIS}.
+     */
+    private void pauseAccepting(SelectionKey listenerKey) {
+        listenerKey.interestOps(0);
+        pausedListeners.add(listenerKey);
+        acceptResumeAt = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(ACCEPT_BACKOFF_MILLIS);
+    }
+
+    private void resumeAccepting() {
+        if (acceptResumeAt - System.nanoTime() > 0) {
+            return;
+        }
+        for (SelectionKey listenerKey : pausedListeners) {
+            if (listenerKey.isValid()) {
+                listenerKey.interestOps(SelectionKey.OP_ACCEPT);
+            }
+        }
+        pausedListeners.clear();
+    }
+
+    /**
+     * Acumula lo que ha llegado y, si hay un comando completo, lo entrega a un trabajador.
+     */
+    private void read(SelectionKey key) {
+        ClientConnection connection = (ClientConnection) key.attachment();
+        if (connection == null) {
+            // Un trabajador acaba de cerrarla
+            return;
+        }
+        try {
+            if (connection.readAvailable()) {
+                // Sin eventos de lectura hasta que el trabajador termine con esta conexión
+                key.interestOpsAnd(~SelectionKey.OP_READ);
+                workers.execute(() -> process(key));
+            }
+        } catch (IOException | RuntimeException e) {
+            connection.handleError(e);
+            close(key);
+        } catch (Error e) {
+            // Por ejemplo, sin memoria para el búfer del comando: se pierde esta conexión, no el selector
+            Log.error("Error al leer de un cliente", e);
+            close(key);
+        }
+    }
+
+    /**
+     * Envía las respuestas pendientes y, si la conexión estaba en pausa por ellas, la reanuda.
+     */
+    private void write(SelectionKey key) {
+        ClientConnection connection = (ClientConnection) key.attachment();
+        if (connection == null) {
+            // Un trabajador acaba de cerrarla
+            return;
+        }
+        try {
+            connection.writeBacklog();
+        } catch (IOException | RuntimeException e) {
+            connection.handleError(e);
+            close(key);
+        } catch (Error e) {
+            Log.error("Error al escribir a un cliente", e);
+            close(key);
+        }
+    }
+
+    /**
+     * Atiende los comandos de una conexión en un trabajador. Si falla por cualquier motivo, incluso un
+     * {@link Error}, la conexión se cierra y libera su hueco.
+     */
+    private void process(SelectionKey key) {
+        ClientConnection connection = (ClientConnection) key.attachment();
+        if (connection == null) {
+            // El selector acaba de cerrarla
+            return;
+        }
+        ClientConnection.Progress progress = ClientConnection.Progress.CLOSED;
+        try {
+            progress = connection.handleAvailableCommands();
+        } catch (IOException | RuntimeException e) {
+            connection.handleError(e);
+        } finally {
+            switch (progress) {
+                case WAITING_FOR_DATA -> resume(key);
+                case PAUSED -> {
+                    // Quien levante la pausa vuelve a entregar la conexión a un trabajador
+                }
+                // Al final de la cola, detrás de las conexiones que esperaban
+                case YIELDED -> workers.execute(() -> process(key));
+                case CLOSED -> close(key);
+            }
+        }
+    }
+
+    private void resume(SelectionKey key) {
+        try {
+            key.interestOpsOr(SelectionKey.OP_READ);
+            selector.wakeup();
+        } catch (CancelledKeyException e) {
+            close(key);
+        }
+    }
+
+    /**
+     * Cierra la conexión de una clave. La pueden cerrar a la vez el selector y un trabajador: solo la cierra el
+     * primero que retira la conexión de la clave.
+     */
+    private void close(SelectionKey key) {
+        key.cancel();
+        ClientConnection connection = (ClientConnection) key.attach(null);
+        if (connection == null) {
+            return;
+        }
+        try {
+            connection.close();
+        } catch (IOException ignored) {
+        } finally {
+            release();
+        }
+    }
+}
@@ -1,207 +1,197 @@
 package server;
 
 import java.io.*;
+import java.lang.management.ManagementFactory;
 import java.net.*;
-import java.util.ArrayList;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 public class Server {
 
-    private static final String SERVICES_PATH = "services";
-    private final List<Service> services;
-    private Service activeService;
-
-    public Server() {
-        this.services = new ArrayList<>();
-        this.activeService = null;
-    }
-
-    private void loadServices() throws Exception {
-        File servicesDir = new File(SERVICES_PATH);
-        if (servicesDir.exists() && servicesDir.isDirectory()) {
-            File[] jarFiles = servicesDir.listFiles((dir, name) -> name.endsWith(".jar"));
-            if (jarFiles != null) {
-                for (File jarFile : jarFiles) {
-                    Service service = ServiceLoader.loadService(jarFile.getAbsolutePath());
-                    services.add(service);
-                    System.out.println("Servicio cargado: " + service.getName());
-                }
-            }
-        } else {
-            System.out.println("No se encontró la carpeta 'services' o está vacía.");
-        }
+    private final ServerConfig config;
+    private final ServiceRegistry registry;
+    private final ServiceReloader reloader;
+    private final JarReceiver jarReceiver;
+    // Solo en modo gateway: reparte las peticiones entre los backends en lugar de cargar servicios
+    private final Gateway gateway;
+    private final Metrics metrics = new Metrics();
+    private final AdmissionControl admission;
+    // Hilos para las ejecuciones que se atienden en paralelo a la lectura de peticiones
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+
+    public Server(ServerConfig config) {
+        this.config = config;
+        this.registry = new ServiceRegistry();
+        Path servicesDir = Path.of(config.getServicesDir());
+        this.reloader = new ServiceReloader(servicesDir, registry, metrics.getReloads());
+        this.jarReceiver = new JarReceiver(servicesDir, config.getMaxUploadSize());
+        this.gateway = config.getBackends().isEmpty() ? null : new Gateway(config, registry, servicesDir);
+        this.admission = new AdmissionControl(config);
     }
 
-    public void setActiveService(int index) {
-        if (index >= 0 && index < services.size()) {
-            activeService = services.get(index);
-            System.out.println("Servicio activo cambiado a: " + activeService.getName());
-        } else {
-            System.out.println("Índice inválido. No se cambió el servicio activo.");
-        }
+    public ServerConfig getConfig() {
+        return config;
+    }
+
+    public ExecutorService getExecutor() {
+        return executor;
+    }
+
+    public ServiceRegistry getRegistry() {
+        return registry;
     }
 
-    public void clearActiveService() {
-        activeService = null;
-        System.out.println("Servicio desactivado.");
+    Metrics getMetrics() {
+        return metrics;
     }
 
-    public Service getActiveService() {
-        return activeService;
+    AdmissionControl getAdmission() {
+        return admission;
     }
 
+    JarReceiver getJarReceiver() {
+        return jarReceiver;
+    }
+
+    /**
+     * @return El gateway si el servidor reparte las peticiones entre backends, o {@code null}.
+     */
+    Gateway getGateway() {
+        return gateway;
+    }
+
+    /**
+     * Vuelve a cargar los jars nuevos o modificados y publica la nueva lista de una sola vez. Las sesiones
+     * que consultan el registro mientras tanto siguen viendo la lista anterior completa. En modo gateway,
+     * recarga los servicios de todos los backends.
+     */
     public void reloadServices() throws Exception {
-        services.clear();
-        loadServices();
+        if (gateway != null) {
+            gateway.reload();
+        } else {
+            reloader.reload();
+        }
     }
 
-    public List<String> getServiceNames() {
-        List<String> names = new ArrayList<>();
-        for (Service s : services) {
-            names.add(s.getName());
+    /**
+     * Recarga los servicios automáticamente cuando cambia el contenido de la carpeta de servicios.
+     */
+    public void watchServices() throws IOException {
+        if (gateway != null) {
+            // El gateway no tiene servicios propios que vigilar
+            return;
         }
-        return names;
+        reloader.startWatching();
     }
 
-    public String getActiveServiceName() {
-        return getActiveService() == null ? "No hay ningún servicio activo." : getActiveService().getName();
+    public List<String> getServiceNames() {
+        return registry.getNames();
     }
 
-    public String getActiveServiceHelp() {
-        return getActiveService() == null ? "No hay ningún servicio activo para mostrar la ayuda."
-                : getActiveService().getHelp();
+    /**
+     * Estadísticas del servidor y de cada servicio cargado, en texto.
+     */
+    public String getStats() {
+        return StatsReport.text(metrics, admission, registry.getServices(), gateway);
     }
 
-    public String executeActiveService(String input) {
-        return getActiveService() == null ? "No hay ningún servicio activo para ejecutar."
-                : getActiveService().execute(input);
+    /**
+     * Las mismas estadísticas que {@link #getStats()}, en JSON.
+     */
+    public String getStatsJson() {
+        return StatsReport.json(metrics, admission, registry.getServices(), gateway);
     }
 
     public void start() {
         try {
-            loadServices();
-            System.out.println("Servidor iniciado.");
+            long start = System.nanoTime();
+            reloadServices();
+            if (gateway != null) {
+                gateway.startHealthChecks();
+            }
+            Log.info("Servidor iniciado. Servicios listos en " + (System.nanoTime() - start) / 1_000_000 + " ms.");
         } catch (Exception e) {
-            System.out.println("Error al iniciar el servidor: " + e.getMessage());
+            Log.error("Error al iniciar el servidor: " + e.getMessage());
         }
     }
 
     public static void main(String[] args) {
-        Server server = new Server();
+        ServerConfig config = ServerConfig.fromSystemProperties();
+        try {
+            Log.configure(config.getLogLevel(), config.getLogSample(),
+                    config.getLogFile() != null ? Path.of(config.getLogFile()) : null);
+        } catch (IOException e) {
+            Log.warn("No se pudo abrir el fichero de registro, se usa la consola: " + e.getMessage());
+        }
+        Server server = new Server(config);
         server.start();
-        final int PORT = 12345;
 
-        try (ServerSocket serverSocket = new ServerSocket(PORT)) {
-            System.out.println("Servidor escuchando en el puerto " + PORT + "...");
-
-            while (true) {
-                Socket clientSocket = serverSocket.accept();
-                System.out.println("Cliente conectado.");
-
-                new Thread(() -> handleClient(server, clientSocket)).start();
+        try (ServerSocketChannel serverChannel = ServerSocketChannel.open();
+             ServerSocketChannel unixChannel = config.getSocketPath() != null
+                     ? openUnixSocket(Path.of(config.getSocketPath())) : null) {
+            if (config.isWatchServices()) {
+                server.watchServices();
             }
+            if (config.getStatsPort() > 0) {
+                new StatsEndpoint(server, config.getStatsPort()).start();
+            }
+            serverChannel.bind(new InetSocketAddress(config.getPort()));
+            server.serve(unixChannel != null ? List.of(serverChannel, unixChannel) : List.of(serverChannel));
 
         } catch (IOException e) {
-            e.printStackTrace();
+            Log.error("Error en el servidor", e);
         }
     }
 
-    private static void handleClient(Server server, Socket clientSocket) {
-        try (clientSocket; DataInputStream dataIn = new DataInputStream(clientSocket.getInputStream());
-             DataOutputStream dataOut = new DataOutputStream(clientSocket.getOutputStream())) {
+    /**
+     * Abre el socket de dominio Unix para los clientes de la misma máquina. Si quedó el fichero del socket de
+     * una ejecución anterior, se sustituye; el fichero se borra al detener el servidor.
+     */
+    private static ServerSocketChannel openUnixSocket(Path path) throws IOException {
+        Files.deleteIfExists(path);
+        ServerSocketChannel channel = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+        try {
+            channel.bind(UnixDomainSocketAddress.of(path));
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
             try {
-
-                // Saludo inicial
-                dataOut.writeUTF("Conexión realizada. ¡Bienvenido al cliente de servicios!");
-                dataOut.flush();
-
-                boolean running = true;
-                while (running) {
-                    String command = dataIn.readUTF(); // leer comando
-                    System.out.println("Comando recibido: " + command);
-
-                    switch (command) {
-                        case "LIST_SERVICES":
-                            List<String> names = server.getServiceNames();
-                            dataOut.writeInt(names.size());
-                            for (String n : names) {
-                                dataOut.writeUTF(n);
-                            }
-                            dataOut.flush();
-                            break;
-
-                        case "ACTIVE_SERVICE":
-                            int idx = dataIn.readInt();
-                            server.setActiveService(idx);
-                            dataOut.writeUTF(server.getActiveService() != null ? server.getActiveServiceName() : "null");
-                            dataOut.flush();
-                            break;
-
-                        case "EXECUTE_SERVICE":
-                            String input = dataIn.readUTF();
-                            dataOut.writeUTF(server.executeActiveService(input));
-                            dataOut.flush();
-                            break;
-
-                        case "GET_INSTRUCTIONS":
-                            dataOut.writeUTF(server.getActiveServiceHelp());
-                            dataOut.flush();
-                            break;
-
-                        case "UPLOAD_JAR":
-                            // Leer nombre y tamaño
-                            String jarName = dataIn.readUTF();
-                            long fileSize = dataIn.readLong();
-                            System.out.println("Recibiendo archivo: " + jarName + " (" + fileSize + " bytes)");
-
-                            File outFile = new File(SERVICES_PATH + "/" + jarName);
-                            try (FileOutputStream fos = new FileOutputStream(outFile)) {
-                                byte[] buffer = new byte[4096];
-                                long totalRead = 0;
-                                while (totalRead < fileSize) {
-                                    int read = dataIn.read(buffer);
-                                    if (read == -1) break;
-                                    fos.write(buffer, 0, read);
-                                    totalRead += read;
-                                }
-                                fos.flush();
-                            }
-
-                            server.reloadServices();
-                            System.out.println("Archivo .jar recibido: " + jarName);
-                            dataOut.writeUTF("Servicio recibido con éxito: " + jarName);
-                            dataOut.flush();
-                            break;
-
-                        case "DEACTIVATE_SERVICE":
-                            server.clearActiveService();
-                            break;
-
-                        case "RELOAD_SERVICES":
-                            server.reloadServices();
-                            dataOut.writeUTF("Lista de servicios recargada con éxito.");
-                            dataOut.flush();
-                            break;
-
-                        case "EXIT":
-                            System.out.println("Cliente desconectado.");
-                            running = false;
-                            break;
-
-                        default:
-                            dataOut.writeUTF("Comando no reconocido.");
-                            dataOut.flush();
-                            break;
-                    }
-                }
-
-            } catch (IOException | RuntimeException e) {
-                System.out.println("Error con el cliente: " + e.getMessage());
-                server.clearActiveService();
-            } catch (Exception e) {
-                throw new RuntimeException(e);
+                Files.deleteIfExists(path);
+            } catch (IOException ignored) {
             }
-        } catch (IOException ignored) {
+        }, "unix-socket-cleanup"));
+        return channel;
+    }
+
+    /**
+     * Atiende las conexiones que llegan al canal indicado, ya enlazado, con el motor configurado.
+     * No retorna mientras el servidor esté activo.
+     */
+    public void serve(ServerSocketChannel serverChannel) throws IOException {
+        serve(List.of(serverChannel));
+    }
+
+    /**
+     * Atiende a la vez las conexiones de varios canales ya enlazados (TCP y socket de dominio Unix, por
+     * ejemplo). Todos comparten el motor y el límite de conexiones. No retorna mientras el servidor esté activo.
+     */
+    public void serve(List<ServerSocketChannel> listeners) throws IOException {
+        ConnectionEngine engine = ConnectionEngine.create(this, config);
+        for (ServerSocketChannel listener : listeners) {
+            Log.info("Servidor escuchando en " + listener.getLocalAddress()
+                    + " (motor: " + config.getEngine() + ", máximo de conexiones: " + config.getMaxConnections() + ")...");
+        }
+        // Tiempo hasta estar listo: desde el arranque de la JVM hasta aceptar la primera conexión
+        long sinceStart = ManagementFactory.getRuntimeMXBean().getUptime();
+        if (metrics.ready(sinceStart)) {
+            Log.info("Servidor listo en " + sinceStart + " ms desde el arranque de la JVM.");
         }
+        engine.serve(listeners);
     }
 }
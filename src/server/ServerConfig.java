@@ -0,0 +1,279 @@
+package server;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Properties;
+
+/**
+ * Configuración del servidor. Los valores se leen de las propiedades del sistema
+ * (por ejemplo {@code java -Dserver.engine=selector server.Server}) y tienen valores por defecto
+ * razonables para ejecutar el servidor sin parámetros.
+ */
+public class ServerConfig {
+
+    /** Motor de conexiones: un hilo virtual por conexión. */
+    public static final String ENGINE_VIRTUAL = "virtual";
+    /** Motor de conexiones: un {@link java.nio.channels.Selector} con un pool pequeño de trabajadores. */
+    public static final String ENGINE_SELECTOR = "selector";
+
+    private final int port;
+    private final String servicesDir;
+    private final String engine;
+    private final int maxConnections;
+    private final int workerThreads;
+    private final boolean watchServices;
+    private final int maxFrameSize;
+    private final int maxPipelinedRequests;
+    private final int maxBatchSize;
+    private final long maxUploadSize;
+    private final int statsPort;
+    private final String socketPath;
+    private final Log.Level logLevel;
+    private final String logFile;
+    private final int logSample;
+    private final List<String> backends;
+    private final int healthCheckMillis;
+    private final int replicationTimeoutMillis;
+    private final int backendConnections;
+    private final int rateLimit;
+    private final int addressRateLimit;
+    private final int rateLimitBurst;
+    private final boolean adaptiveConcurrency;
+    private final int concurrencyLimitMin;
+    private final int concurrencyLimitMax;
+
+    public ServerConfig(Properties properties) {
+        this.port = intProperty(properties, "server.port", 12345);
+        this.servicesDir = properties.getProperty("server.servicesDir", "services");
+        this.engine = properties.getProperty("server.engine", ENGINE_VIRTUAL);
+        this.maxConnections = intProperty(properties, "server.maxConnections", 10_000);
+        this.workerThreads = intProperty(properties, "server.workers", Runtime.getRuntime().availableProcessors());
+        this.watchServices = Boolean.parseBoolean(properties.getProperty("server.watchServices", "true"));
+        this.maxFrameSize = intProperty(properties, "server.maxFrameSize", 16 * 1024 * 1024);
+        this.maxPipelinedRequests = intProperty(properties, "server.maxPipelinedRequests", 64);
+        this.maxBatchSize = intProperty(properties, "server.maxBatchSize", 10_000);
+        this.maxUploadSize = longProperty(properties, "server.maxUploadSize", 256L * 1024 * 1024);
+        this.statsPort = intProperty(properties, "server.statsPort", 0);
+        String socketPath = properties.getProperty("server.socketPath", "").trim();
+        this.socketPath = socketPath.isEmpty() ? null : socketPath;
+        String logLevel = properties.getProperty("server.logLevel", "info").trim();
+        String logFile = properties.getProperty("server.logFile", "").trim();
+        this.logFile = logFile.isEmpty() ? null : logFile;
+        this.logSample = intProperty(properties, "server.logSample", 1);
+        this.backends = Arrays.stream(properties.getProperty("server.backends", "").split(","))
+                .map(String::trim)
+                .filter(backend -> !backend.isEmpty())
+                .toList();
+        this.healthCheckMillis = intProperty(properties, "server.healthCheckMillis", 2000);
+        this.replicationTimeoutMillis = intProperty(properties, "server.replicationTimeoutMillis", 60_000);
+        this.backendConnections = intProperty(properties, "server.backendConnections", 64);
+        this.rateLimit = intProperty(properties, "server.rateLimit", 0);
+        this.addressRateLimit = intProperty(properties, "server.addressRateLimit", 0);
+        this.rateLimitBurst = intProperty(properties, "server.rateLimitBurst", 0);
+        this.adaptiveConcurrency = Boolean.parseBoolean(properties.getProperty("server.adaptiveConcurrency", "false"));
+        this.concurrencyLimitMin = intProperty(properties, "server.concurrencyLimitMin", Runtime.getRuntime().availableProcessors());
+        this.concurrencyLimitMax = intProperty(properties, "server.concurrencyLimitMax", 1000);
+        try {
+            this.logLevel = Log.Level.valueOf(logLevel.toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Nivel de registro desconocido: " + logLevel);
+        }
+
+        if (!ENGINE_VIRTUAL.equals(engine) && !ENGINE_SELECTOR.equals(engine)) {
+            throw new IllegalArgumentException("Motor de conexiones desconocido: " + engine);
+        }
+    }
+
+    public static ServerConfig fromSystemProperties() {
+        return new ServerConfig(System.getProperties());
+    }
+
+    private static int intProperty(Properties properties, String name, int defaultValue) {
+        String value = properties.getProperty(name);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Valor no válido para " + name + ": " + value);
+        }
+    }
+
+    private static long longProperty(Properties properties, String name, long defaultValue) {
+        String value = properties.getProperty(name);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Valor no válido para " + name + ": " + value);
+        }
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    /**
+     * Carpeta de la que se cargan los jars de servicios y en la que se guardan los que suben los clientes.
+     */
+    public String getServicesDir() {
+        return servicesDir;
+    }
+
+    public String getEngine() {
+        return engine;
+    }
+
+    public int getMaxConnections() {
+        return maxConnections;
+    }
+
+    public int getWorkerThreads() {
+        return workerThreads;
+    }
+
+    public boolean isWatchServices() {
+        return watchServices;
+    }
+
+    /**
+     * Tamaño máximo, en bytes, de una trama del protocolo binario.
+     */
+    public int getMaxFrameSize() {
+        return maxFrameSize;
+    }
+
+    /**
+     * Ejecuciones pendientes que admite cada conexión del protocolo binario antes de dejar de leer peticiones.
+     */
+    public int getMaxPipelinedRequests() {
+        return maxPipelinedRequests;
+    }
+
+    /**
+     * Entradas que admite como máximo una petición {@code EXECUTE_BATCH}.
+     */
+    public int getMaxBatchSize() {
+        return maxBatchSize;
+    }
+
+    /**
+     * Tamaño máximo, en bytes, de un jar subido por un cliente.
+     */
+    public long getMaxUploadSize() {
+        return maxUploadSize;
+    }
+
+    /**
+     * Puerto local del endpoint HTTP de estadísticas, o 0 si está desactivado.
+     */
+    public int getStatsPort() {
+        return statsPort;
+    }
+
+    /**
+     * Ruta del socket de dominio Unix en el que el servidor escucha además del puerto TCP, para los clientes
+     * de la misma máquina, o {@code null} si solo escucha por TCP.
+     */
+    public String getSocketPath() {
+        return socketPath;
+    }
+
+    /**
+     * Nivel mínimo de los mensajes que se registran.
+     */
+    Log.Level getLogLevel() {
+        return logLevel;
+    }
+
+    /**
+     * Fichero al que se añaden los mensajes del servidor, o {@code null} para escribirlos en la consola.
+     */
+    public String getLogFile() {
+        return logFile;
+    }
+
+    /**
+     * De cada cuántos comandos atendidos se registra uno; 1 registra todos.
+     */
+    public int getLogSample() {
+        return logSample;
+    }
+
+    /**
+     * Servidores a los que el gateway reparte las peticiones ({@code host:puerto} o la ruta de un socket de
+     * dominio Unix). Si la lista está vacía, el servidor ejecuta sus propios servicios.
+     */
+    public List<String> getBackends() {
+        return backends;
+    }
+
+    /**
+     * Intervalo, en milisegundos, entre las comprobaciones de los backends, y tiempo máximo que tiene cada
+     * backend para responder a ellas.
+     */
+    public int getHealthCheckMillis() {
+        return healthCheckMillis;
+    }
+
+    /**
+     * Tiempo máximo, en milisegundos, para enviar a un backend que vuelve a estar disponible los jars subidos a
+     * través del gateway.
+     */
+    public int getReplicationTimeoutMillis() {
+        return replicationTimeoutMillis;
+    }
+
+    /**
+     * Conexiones que el gateway abre como mucho con cada backend para las peticiones.
+     */
+    public int getBackendConnections() {
+        return backendConnections;
+    }
+
+    /**
+     * Peticiones por segundo que admite cada conexión, o 0 si no hay límite.
+     */
+    public int getRateLimit() {
+        return rateLimit;
+    }
+
+    /**
+     * Peticiones por segundo que admiten entre todas las conexiones de una misma dirección, o 0 si no hay límite.
+     */
+    public int getAddressRateLimit() {
+        return addressRateLimit;
+    }
+
+    /**
+     * Peticiones que se admiten seguidas por encima del ritmo medio, o 0 para admitir las de un segundo.
+     */
+    public int getRateLimitBurst() {
+        return rateLimitBurst;
+    }
+
+    /**
+     * Si el número de ejecuciones simultáneas del servidor se limita según la latencia observada.
+     */
+    public boolean isAdaptiveConcurrency() {
+        return adaptiveConcurrency;
+    }
+
+    /**
+     * Límite inicial y mínimo de ejecuciones simultáneas con el límite adaptativo.
+     */
+    public int getConcurrencyLimitMin() {
+        return concurrencyLimitMin;
+    }
+
+    /**
+     * Límite máximo de ejecuciones simultáneas con el límite adaptativo.
+     */
+    public int getConcurrencyLimitMax() {
+        return concurrencyLimitMax;
+    }
+}
@@ -1,51 +1,632 @@
 // server/ServiceAdapter.java
 package server;
 
-import java.lang.reflect.Method;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
 
-public class ServiceAdapter implements Service {
+/**
+ * Adapta un servicio cargado de un jar a {@link Service}. El servicio puede estar ya instanciado o
+ * cargarse en diferido: en ese caso el adaptador conoce su nombre y su manifiesto, pero el class loader
+ * no se crea ni la clase se instancia hasta la primera activación o ejecución.
+ * <p>
+ * Según el atributo {@code Service-Threading} del manifiesto, todas las ejecuciones comparten una instancia,
+ * cada una toma una instancia de un {@link ServiceInstancePool} o cada sesión de cliente tiene la suya.
+ */
+public class ServiceAdapter implements Service, Closeable {
 
-    private Object serviceInstance;
-    private Class<?> serviceClass;
+    // Firmas de los métodos ya adaptadas para llamarlos con invokeExact, sin conversiones por llamada
+    private static final MethodType NO_ARGS = MethodType.methodType(String.class, Object.class);
+    private static final MethodType STRING_ARG = MethodType.methodType(String.class, Object.class, String.class);
+    private static final MethodType STREAM_ARGS = MethodType.methodType(void.class, Object.class, InputStream.class, OutputStream.class);
+    private static final MethodType CONSTRUCTOR = MethodType.methodType(Object.class);
 
-    public ServiceAdapter(Object serviceInstance, Class<?> serviceClass) {
-        this.serviceInstance = serviceInstance;
-        this.serviceClass = serviceClass;
+    // Instancia del servicio y sus métodos; null hasta la primera llamada si la carga es diferida
+    private volatile Target target;
+    // Jar y clase del servicio diferido, y nombre conocido sin cargarlo (del índice o del manifiesto)
+    private final Path jar;
+    private final String serviceClassName;
+    private final String knownName;
+    private final ReentrantLock loadLock = new ReentrantLock();
+    private final String version;
+    // Reparto de instancias entre ejecuciones, y tamaño del pool si es POOLED
+    private final ServiceManifest.Threading threading;
+    private final int poolMin;
+    private final int poolMax;
+    // Tiempo máximo de cada ejecución, que limita también la espera por una instancia del pool
+    private final long timeoutMillis;
+    // Instancia de cada sesión, si es SESSION
+    private final Map<ClientSession, SessionInstance> sessions = new ConcurrentHashMap<>();
+    // Resultados de execute(), solo si el manifiesto declara el servicio como determinista
+    private final ResultCache cache;
+    // Pool propio del servicio para las ejecuciones de los clientes, o null para ejecutarlas en el hilo que llama
+    private final ServiceBulkhead bulkhead;
+    // Latencia y errores de las ejecuciones de los clientes, incluida la espera en la cola
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private final LongAdder errors = new LongAdder();
+
+    // Ciclo de vida del class loader del servicio: se cierra al retirarlo, cuando terminan las llamadas en curso.
+    // inFlight cuenta esas llamadas y vale CLOSED cuando ya se ha cerrado: entonces no admite ninguna más
+    private static final int CLOSED = -1;
+    private volatile URLClassLoader classLoader;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private volatile boolean retired;
+    private volatile ServiceAdapter successor;
+
+    public ServiceAdapter(Object serviceInstance, Class<?> serviceClass) throws ReflectiveOperationException {
+        this(serviceInstance, serviceClass, null);
+    }
+
+    public ServiceAdapter(Object serviceInstance, Class<?> serviceClass, URLClassLoader classLoader)
+            throws ReflectiveOperationException {
+        this(serviceInstance, serviceClass, classLoader, ServiceManifest.NONE);
+    }
+
+    /**
+     * Adapta un servicio ya instanciado.
+     * @param classLoader Class loader propio del servicio, que el adaptador cerrará al retirarlo, o {@code null}.
+     * @param manifest Opciones del servicio leídas de su jar.
+     * @throws ReflectiveOperationException si la clase no tiene los métodos públicos esperados.
+     */
+    ServiceAdapter(Object serviceInstance, Class<?> serviceClass, URLClassLoader classLoader, ServiceManifest manifest)
+            throws ReflectiveOperationException {
+        this(null, manifest, null);
+        this.target = resolve(serviceInstance, serviceClass);
+        this.classLoader = classLoader;
+    }
+
+    /**
+     * Crea un adaptador diferido: la clase del manifiesto se carga desde el jar en la primera llamada que la necesite.
+     * @param name Nombre del servicio, que se devuelve sin cargarlo, o {@code null} para preguntárselo al servicio.
+     */
+    ServiceAdapter(Path jar, ServiceManifest manifest, String name) {
+        this.jar = jar;
+        this.serviceClassName = manifest.getServiceClass();
+        this.knownName = name;
+        this.version = manifest.getVersion();
+        this.threading = manifest.getThreading();
+        this.poolMin = manifest.getPoolMin();
+        this.poolMax = manifest.getPoolMax();
+        this.timeoutMillis = manifest.getTimeoutMillis();
+        this.cache = manifest.isCacheable()
+                ? new ResultCache(manifest.getCacheMaxBytes(), manifest.getCacheTtlSeconds()) : null;
+        this.bulkhead = manifest.isIsolated() ? new ServiceBulkhead(simpleName(manifest.getServiceClass()),
+                manifest.getMaxConcurrency(), manifest.getQueueSize(), manifest.getTimeoutMillis()) : null;
+    }
+
+    private static String simpleName(String className) {
+        return className.substring(className.lastIndexOf('.') + 1);
+    }
+
+    /**
+     * Resuelve los métodos del servicio y, si no comparte una sola instancia, su constructor y su pool.
+     * @throws ReflectiveOperationException si faltan los métodos esperados o no se pueden crear las instancias del pool.
+     */
+    private Target resolve(Object instance, Class<?> serviceClass) throws ReflectiveOperationException {
+        Target resolved = Target.resolve(instance, serviceClass, threading != ServiceManifest.Threading.SHARED);
+        if (threading != ServiceManifest.Threading.POOLED) {
+            return resolved;
+        }
+        try {
+            return resolved.withPool(new ServiceInstancePool(resolved::newInstance, poolMin, poolMax, timeoutMillis));
+        } catch (Throwable e) {
+            throw (ReflectiveOperationException) new InstantiationException(
+                    "No se pudieron crear las instancias del pool: " + e).initCause(e);
+        }
+    }
+
+    /**
+     * Devuelve el servicio instanciado, cargándolo la primera vez si es diferido. Quien llama debe contar
+     * como llamada en curso, para que el class loader no se cierre mientras tanto.
+     */
+    private Target target() throws Exception {
+        Target current = target;
+        if (current != null) {
+            return current;
+        }
+        loadLock.lock();
+        try {
+            if (target == null) {
+                long start = System.nanoTime();
+                ServiceLoader.LoadedClass loaded = ServiceLoader.instantiate(jar, serviceClassName);
+                try {
+                    target = resolve(loaded.instance(), loaded.serviceClass());
+                } catch (ReflectiveOperationException | RuntimeException e) {
+                    loaded.classLoader().close();
+                    throw e;
+                }
+                classLoader = loaded.classLoader();
+                if (knownName != null) {
+                    Log.info("Servicio cargado al usarlo por primera vez: " + knownName + " ("
+                            + (System.nanoTime() - start) / 1_000_000 + " ms)");
+                }
+            }
+            return target;
+        } finally {
+            loadLock.unlock();
+        }
+    }
+
+    /**
+     * Carga el servicio si aún no lo está, para que su primera ejecución no espere a la carga.
+     */
+    void ensureLoaded() {
+        if (target != null || !enter()) {
+            return;
+        }
+        try {
+            target();
+        } catch (Exception e) {
+            Log.serviceError(knownName, "Error al cargar el servicio", e);
+        } finally {
+            release();
+        }
+    }
+
+    /**
+     * @return {@code true} si la clase del servicio ya está cargada e instanciada.
+     */
+    boolean isLoaded() {
+        return target != null;
     }
 
     @Override
     public String getName() {
+        if (knownName != null) {
+            return knownName;
+        }
+        if (!enter()) {
+            ServiceAdapter next = getSuccessor();
+            return next != null ? next.getName() : null;
+        }
         try {
             // Llamamos al método getName() del servicio adaptado
-            Method getNameMethod = serviceClass.getMethod("getName");
-            return (String) getNameMethod.invoke(serviceInstance);
-        } catch (Exception e) {
-            e.printStackTrace();
+            Target t = target();
+            return (String) t.getName().invokeExact(t.instance());
+        } catch (Throwable e) {
+            Log.error("Error al obtener el nombre del servicio", e);
+        } finally {
+            release();
         }
         return null;
     }
 
     @Override
     public String execute(String input) {
+        String cached = cached(input);
+        if (cached != null) {
+            return cached;
+        }
+        if (!enter()) {
+            ServiceAdapter next = getSuccessor();
+            return next != null ? next.execute(input) : null;
+        }
         try {
-            // Llamamos al método execute() del servicio adaptado
-            Method executeMethod = serviceClass.getMethod("execute", String.class);
-            return (String) executeMethod.invoke(serviceInstance, input);
+            return invoke(input, null);
+        } catch (ServiceUnavailableException e) {
+            Log.warn(e.getMessage() + " (" + knownName + ")");
+            return null;
+        } finally {
+            release();
+        }
+    }
+
+    /**
+     * Ejecuta el servicio para un cliente: si el resultado no está en la caché, la ejecución se hace en el
+     * pool del servicio, con su límite de concurrencia y su tiempo máximo.
+     * @param session Sesión del cliente, que tiene su propia instancia si el servicio es {@code SESSION}.
+     * @throws ServiceUnavailableException si el servicio está saturado o no responde a tiempo.
+     */
+    String submit(String input, ClientSession session) throws ServiceUnavailableException {
+        long start = System.nanoTime();
+        String result = null;
+        try {
+            result = call(input, session);
+            return result;
+        } finally {
+            latency.record(System.nanoTime() - start);
+            if (result == null) {
+                errors.increment();
+            }
+        }
+    }
+
+    /**
+     * Ejecuta el servicio en streaming para un cliente, en el pool del servicio si tiene uno. Los servicios
+     * sin streaming reciben la entrada entera como texto UTF-8 y su resultado se escribe en la salida.
+     * @throws ServiceUnavailableException si el servicio está saturado.
+     * @throws IOException si el servicio falla o la conexión se cierra.
+     */
+    void submitStream(InputStream input, OutputStream output, ClientSession session)
+            throws IOException, ServiceUnavailableException {
+        if (!enter()) {
+            successorOf().submitStream(input, output, session);
+            return;
+        }
+        long start = System.nanoTime();
+        boolean done = false;
+        try {
+            if (!isStreaming()) {
+                String result = call(new String(input.readAllBytes(), StandardCharsets.UTF_8), session);
+                if (result == null) {
+                    throw new IOException("El servicio no ha devuelto ningún resultado.");
+                }
+                output.write(result.getBytes(StandardCharsets.UTF_8));
+            } else if (bulkhead == null) {
+                invokeStream(input, output, session);
+            } else {
+                bulkhead.run(() -> invokeStream(input, output, session));
+            }
+            done = true;
+        } finally {
+            release();
+            latency.record(System.nanoTime() - start);
+            if (!done) {
+                errors.increment();
+            }
+        }
+    }
+
+    /**
+     * @return {@code true} si el servicio procesa la entrada y la salida como flujos de bytes.
+     */
+    boolean isStreaming() {
+        if (!enter()) {
+            ServiceAdapter next = getSuccessor();
+            return next != null && next.isStreaming();
+        }
+        try {
+            return target().executeStream() != null;
         } catch (Exception e) {
-            e.printStackTrace();
+            // La ejecución volverá a intentar cargarlo e informará del error
+            return false;
+        } finally {
+            release();
+        }
+    }
+
+    private String call(String input, ClientSession session) throws ServiceUnavailableException {
+        String cached = cached(input);
+        if (cached != null) {
+            return cached;
+        }
+        // La petición cuenta como llamada en curso desde que entra en la cola
+        if (!enter()) {
+            return successorOf().call(input, session);
+        }
+        try {
+            return bulkhead == null ? invoke(input, session) : bulkhead.call(() -> invoke(input, session));
+        } finally {
+            release();
+        }
+    }
+
+    private String cached(String input) {
+        return cache != null && input != null ? cache.get(input) : null;
+    }
+
+    /**
+     * Ejecuta el servicio. Quien llama debe contar como llamada en curso.
+     */
+    private String invoke(String input, ClientSession session) throws ServiceUnavailableException {
+        try {
+            // Llamamos al método execute() del servicio adaptado
+            Target t = target();
+            String result = threading == ServiceManifest.Threading.SHARED
+                    ? (String) t.execute().invokeExact(t.instance(), input)
+                    : withInstance(t, session, instance -> (String) t.execute().invokeExact(instance, input));
+            // Los fallos (null) no se guardan, ni los resultados de una versión ya retirada
+            if (cache != null && input != null && result != null && !retired) {
+                cache.put(input, result);
+            }
+            return result;
+        } catch (ServiceUnavailableException e) {
+            throw e;
+        } catch (Throwable e) {
+            Log.serviceError(knownName, "Error al ejecutar el servicio", e);
         }
         return null;
     }
 
+    private void invokeStream(InputStream input, OutputStream output, ClientSession session)
+            throws IOException, ServiceUnavailableException {
+        try {
+            // Llamamos al método execute(InputStream, OutputStream) del servicio adaptado
+            Target t = target();
+            if (threading == ServiceManifest.Threading.SHARED) {
+                t.executeStream().invokeExact(t.instance(), input, output);
+            } else {
+                withInstance(t, session, instance -> {
+                    t.executeStream().invokeExact(instance, input, output);
+                    return null;
+                });
+            }
+        } catch (IOException | ServiceUnavailableException e) {
+            throw e;
+        } catch (Throwable e) {
+            Log.serviceError(knownName, "Error al ejecutar el servicio", e);
+            throw new IOException("El servicio ha fallado: " + e, e);
+        }
+    }
+
+    /**
+     * Llama al servicio con una instancia que nadie más está usando: una del pool, la de la sesión o, si no
+     * hay sesión, una nueva. Si la llamada falla, la instancia se descarta porque su estado puede haber
+     * quedado a medias.
+     */
+    private <T> T withInstance(Target t, ClientSession session, InstanceCall<T> call) throws Throwable {
+        ServiceInstancePool pool = t.pool();
+        if (pool != null) {
+            Object instance = pool.acquire();
+            boolean done = false;
+            try {
+                T result = call.call(instance);
+                done = true;
+                return result;
+            } finally {
+                if (done) {
+                    pool.release(instance);
+                } else {
+                    pool.discard(instance);
+                }
+            }
+        }
+        if (session == null) {
+            return call.call(t.newInstance());
+        }
+        SessionInstance current = sessions.get(session);
+        if (current == null) {
+            SessionInstance created = new SessionInstance(t.newInstance());
+            current = sessions.putIfAbsent(session, created);
+            if (current == null) {
+                current = created;
+                session.using(this);
+            }
+        }
+        // Las peticiones en paralelo de una misma sesión se ejecutan de una en una
+        current.lock().lock();
+        try {
+            return call.call(current.instance());
+        } catch (Throwable e) {
+            sessions.remove(session, current);
+            throw e;
+        } finally {
+            current.lock().unlock();
+        }
+    }
+
+    /**
+     * Libera la instancia de una sesión que se ha cerrado.
+     */
+    void sessionClosed(ClientSession session) {
+        sessions.remove(session);
+    }
+
     @Override
     public String getHelp() {
+        if (!enter()) {
+            ServiceAdapter next = getSuccessor();
+            return next != null ? next.getHelp() : null;
+        }
         try {
             // Llamamos al método getHelp() del servicio adaptado
-            Method getHelpMethod = serviceClass.getMethod("getHelp");
-            return (String) getHelpMethod.invoke(serviceInstance);
-        } catch (Exception e) {
-            e.printStackTrace();
+            Target t = target();
+            return (String) t.getHelp().invokeExact(t.instance());
+        } catch (Throwable e) {
+            Log.serviceError(knownName, "Error al obtener la ayuda del servicio", e);
+        } finally {
+            release();
         }
         return null;
     }
+
+    /**
+     * @return El pool de instancias del servicio, o {@code null} si no es {@code POOLED} o aún no está cargado.
+     */
+    ServiceInstancePool getInstancePool() {
+        Target t = target;
+        return t != null ? t.pool() : null;
+    }
+
+    /**
+     * @return El número de sesiones con instancia propia, si el servicio es {@code SESSION}.
+     */
+    int getSessionInstanceCount() {
+        return sessions.size();
+    }
+
+    ServiceManifest.Threading getThreading() {
+        return threading;
+    }
+
+    /**
+     * @return La versión declarada en el manifiesto del jar ({@code Service-Version}), o {@code null}.
+     */
+    public String getVersion() {
+        return version;
+    }
+
+    /**
+     * Retira el servicio tras una recarga. Las llamadas en curso terminan con normalidad, igual que las que
+     * empiecen mientras queda alguna; cuando acaba la última, se detiene su pool y se cierra su class loader
+     * para liberar sus clases. A partir de entonces las llamadas pasan a la versión nueva.
+     * @param successor Nueva versión del servicio cargada desde el mismo jar, o {@code null} si el jar se ha eliminado.
+     */
+    void retire(ServiceAdapter successor) {
+        this.successor = successor;
+        retired = true;
+        sessions.clear();
+        if (cache != null) {
+            cache.clear();
+        }
+        if (inFlight.compareAndSet(0, CLOSED)) {
+            closeResources();
+        }
+    }
+
+    /**
+     * Retira el servicio sin sustituirlo, como si se hubiera eliminado su jar.
+     */
+    @Override
+    public void close() {
+        retire(null);
+    }
+
+    /**
+     * @return La caché de resultados del servicio, o {@code null} si no es cacheable.
+     */
+    ResultCache getCache() {
+        return cache;
+    }
+
+    /**
+     * @return El pool propio del servicio, o {@code null} si se ejecuta en el hilo que llama.
+     */
+    ServiceBulkhead getBulkhead() {
+        return bulkhead;
+    }
+
+    LatencyHistogram getLatency() {
+        return latency;
+    }
+
+    long getErrorCount() {
+        return errors.sum();
+    }
+
+    boolean isRetired() {
+        return retired;
+    }
+
+    /**
+     * Devuelve la versión del servicio que sustituye a esta tras una recarga, o {@code null} si ya no existe.
+     */
+    ServiceAdapter getSuccessor() {
+        ServiceAdapter next = successor;
+        while (next != null && next.isRetired()) {
+            next = next.successor;
+        }
+        return next;
+    }
+
+    /**
+     * Empieza una llamada en curso, salvo que el servicio ya esté retirado y cerrado.
+     * @return {@code false} si la llamada debe pasar a {@link #getSuccessor()}.
+     */
+    private boolean enter() {
+        while (true) {
+            int current = inFlight.get();
+            if (current == CLOSED) {
+                return false;
+            }
+            if (inFlight.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    private void release() {
+        if (inFlight.decrementAndGet() == 0 && retired && inFlight.compareAndSet(0, CLOSED)) {
+            closeResources();
+        }
+    }
+
+    /**
+     * @return La versión nueva de un servicio retirado y cerrado, para pasarle una llamada.
+     * @throws ServiceUnavailableException si su jar se ha eliminado.
+     */
+    private ServiceAdapter successorOf() throws ServiceUnavailableException {
+        ServiceAdapter next = getSuccessor();
+        if (next == null) {
+            throw new ServiceUnavailableException("El servicio se ha retirado.", false);
+        }
+        return next;
+    }
+
+    private void closeResources() {
+        if (bulkhead != null) {
+            bulkhead.shutdown();
+        }
+        URLClassLoader loader = classLoader;
+        if (loader != null) {
+            try {
+                loader.close();
+            } catch (IOException e) {
+                Log.warn("Error al cerrar el class loader del servicio: " + e.getMessage());
+            }
+        }
+    }
+
+    private interface InstanceCall<T> {
+        T call(Object instance) throws Throwable;
+    }
+
+    /**
+     * Instancia propia de una sesión, con el bloqueo que ordena sus ejecuciones.
+     */
+    private record SessionInstance(Object instance, ReentrantLock lock) {
+
+        SessionInstance(Object instance) {
+            this(instance, new ReentrantLock());
+        }
+    }
+
+    /**
+     * La instancia del servicio con sus métodos ya resueltos y adaptados para llamarlos con invokeExact.
+     * La instancia principal atiende {@code getName} y {@code getHelp}, y las ejecuciones si es compartida.
+     * @param executeStream {@code execute(InputStream, OutputStream)} si el servicio admite streaming, o {@code null}.
+     * @param constructor Constructor sin argumentos, si el servicio no comparte una sola instancia, o {@code null}.
+     * @param pool Pool de instancias, si el servicio es {@code POOLED}, o {@code null}.
+     */
+    private record Target(Object instance, MethodHandle getName, MethodHandle execute, MethodHandle getHelp,
+                          MethodHandle executeStream, MethodHandle constructor, ServiceInstancePool pool) {
+
+        /**
+         * Resuelve una sola vez, al cargar el servicio, los métodos que el adaptador llamará.
+         * @param instances {@code true} si el adaptador creará más instancias del servicio.
+         * @throws ReflectiveOperationException si la clase no tiene los métodos públicos esperados.
+         */
+        static Target resolve(Object instance, Class<?> serviceClass, boolean instances) throws ReflectiveOperationException {
+            MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+            return new Target(instance,
+                    lookup.findVirtual(serviceClass, "getName", MethodType.methodType(String.class)).asType(NO_ARGS),
+                    lookup.findVirtual(serviceClass, "execute", MethodType.methodType(String.class, String.class))
+                            .asType(STRING_ARG),
+                    lookup.findVirtual(serviceClass, "getHelp", MethodType.methodType(String.class)).asType(NO_ARGS),
+                    findStreamHandle(lookup, serviceClass),
+                    instances ? lookup.findConstructor(serviceClass, MethodType.methodType(void.class)).asType(CONSTRUCTOR) : null,
+                    null);
+        }
+
+        Target withPool(ServiceInstancePool pool) {
+            return new Target(instance, getName, execute, getHelp, executeStream, constructor, pool);
+        }
+
+        Object newInstance() throws Throwable {
+            return (Object) constructor.invokeExact();
+        }
+
+        private static MethodHandle findStreamHandle(MethodHandles.Lookup lookup, Class<?> serviceClass)
+                throws IllegalAccessException {
+            try {
+                return lookup.findVirtual(serviceClass, "execute",
+                        MethodType.methodType(void.class, InputStream.class, OutputStream.class)).asType(STREAM_ARGS);
+            } catch (NoSuchMethodException e) {
+                // El servicio solo admite entradas de texto
+                return null;
+            }
+        }
+    }
 }
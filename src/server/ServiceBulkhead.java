@@ -0,0 +1,148 @@
+package server;
+
+import java.io.IOException;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Pool de hilos propio de un servicio, con un número máximo de ejecuciones simultáneas, una cola
+ * limitada y un tiempo máximo por ejecución.
+ * <p>
+ * Así un servicio lento o bloqueado solo ocupa sus propios hilos: cuando su cola está llena las peticiones
+ * se rechazan de inmediato, y quien espera una ejecución deja de hacerlo al agotarse el tiempo, en lugar
+ * de retener el hilo de la conexión indefinidamente. Los demás servicios no se ven afectados.
+ */
+class ServiceBulkhead {
+
+    private static final long KEEP_ALIVE_SECONDS = 30;
+
+    private final String name;
+    private final int maxConcurrency;
+    private final int queueSize;
+    private final long timeoutMillis;
+    private final ThreadPoolExecutor executor;
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder timedOut = new LongAdder();
+
+    /**
+     * @param timeoutMillis Tiempo máximo de cada ejecución, o 0 para esperar sin límite.
+     */
+    ServiceBulkhead(String name, int maxConcurrency, int queueSize, long timeoutMillis) {
+        this.name = name;
+        this.maxConcurrency = maxConcurrency;
+        this.queueSize = queueSize;
+        this.timeoutMillis = timeoutMillis;
+        AtomicInteger threadCount = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(maxConcurrency, maxConcurrency, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                queueSize > 0 ? new ArrayBlockingQueue<>(queueSize) : new SynchronousQueue<>(),
+                task -> {
+                    Thread thread = new Thread(task, "servicio-" + name + "-" + threadCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        // Un servicio sin uso no conserva hilos
+        this.executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Ejecuta una tarea en el pool del servicio y espera su resultado.
+     * @throws ServiceUnavailableException si la cola está llena o la ejecución supera el tiempo máximo.
+     */
+    String call(CallTask task) throws ServiceUnavailableException {
+        Future<String> future;
+        try {
+            future = executor.submit(task::call);
+        } catch (RejectedExecutionException e) {
+            if (executor.isShutdown()) {
+                // Versión retirada durante una recarga: la petición ya estaba aceptada, se atiende aquí
+                return task.call();
+            }
+            throw busy();
+        }
+        try {
+            return timeoutMillis > 0 ? future.get(timeoutMillis, TimeUnit.MILLISECONDS) : future.get();
+        } catch (TimeoutException e) {
+            // Se interrumpe la ejecución; si el servicio no responde a la interrupción, solo retiene su propio hilo
+            future.cancel(true);
+            timedOut.increment();
+            throw new ServiceUnavailableException("El servicio " + name + " ha superado el tiempo máximo de "
+                    + timeoutMillis + " ms.", false);
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new ServiceUnavailableException("Ejecución interrumpida.", false);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof ServiceUnavailableException unavailable) {
+                throw unavailable;
+            }
+            Log.serviceError(name, "Error al ejecutar el servicio", e.getCause());
+            return null;
+        }
+    }
+
+    /**
+     * Ejecuta una tarea de streaming en el pool del servicio y espera a que termine. El tiempo máximo no se
+     * aplica: la ejecución dura lo que tarde el cliente en enviar la entrada y en leer la salida.
+     * @throws ServiceUnavailableException si la cola está llena.
+     * @throws IOException si la tarea falla.
+     */
+    void run(StreamTask task) throws IOException, ServiceUnavailableException {
+        Future<?> future;
+        try {
+            future = executor.submit(() -> {
+                task.run();
+                return null;
+            });
+        } catch (RejectedExecutionException e) {
+            if (executor.isShutdown()) {
+                task.run();
+                return;
+            }
+            throw busy();
+        }
+        try {
+            future.get();
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new ServiceUnavailableException("Ejecución interrumpida.", false);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException io) {
+                throw io;
+            }
+            if (e.getCause() instanceof ServiceUnavailableException unavailable) {
+                throw unavailable;
+            }
+            throw new IOException("El servicio " + name + " ha fallado: " + e.getCause(), e.getCause());
+        }
+    }
+
+    private ServiceUnavailableException busy() {
+        rejected.increment();
+        return new ServiceUnavailableException("Servicio ocupado: " + name + " tiene "
+                + maxConcurrency + " ejecuciones en curso y " + queueSize + " en espera.", true);
+    }
+
+    /**
+     * Deja de aceptar tareas. Las que están en cola terminan y los hilos se liberan después.
+     */
+    void shutdown() {
+        executor.shutdown();
+    }
+
+    @Override
+    public String toString() {
+        return "en curso=" + executor.getActiveCount() + "/" + maxConcurrency
+                + ", en cola=" + executor.getQueue().size() + "/" + queueSize
+                + ", rechazadas=" + rejected.sum() + ", tiempo agotado=" + timedOut.sum();
+    }
+
+    interface CallTask {
+        String call() throws ServiceUnavailableException;
+    }
+
+    interface StreamTask {
+        void run() throws IOException, ServiceUnavailableException;
+    }
+}
@@ -0,0 +1,152 @@
+package server;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.file.*;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.jar.Attributes;
+
+/**
+ * Índice persistente de los jars de servicios, guardado en {@code services/.index}. Para cada jar guarda
+ * su tamaño, su fecha de modificación, su SHA-256, los atributos {@code Service-*} de su manifiesto y el
+ * nombre del servicio.
+ * <p>
+ * Al arrancar, los jars cuyo tamaño y fecha coinciden con el índice no se vuelven a leer: el servicio se
+ * publica con los datos del índice y su clase no se carga hasta que se usa. Si el índice falta o está
+ * dañado, simplemente se reconstruye.
+ */
+class ServiceIndex {
+
+    static final String FILE_NAME = ".index";
+
+    private static final String ATTRIBUTE_PREFIX = "Service-";
+    // Separa el nombre del jar y el campo en las claves; no puede aparecer en un nombre de fichero
+    private static final char SEPARATOR = '/';
+
+    private final Path file;
+    private Map<String, Entry> entries = Map.of();
+
+    ServiceIndex(Path servicesDir) {
+        this.file = servicesDir.resolve(FILE_NAME);
+    }
+
+    /**
+     * Lee el índice guardado. Si no existe o no se puede leer, el índice queda vacío.
+     */
+    void load() {
+        Properties properties = new Properties();
+        try (Reader in = Files.newBufferedReader(file)) {
+            properties.load(in);
+        } catch (NoSuchFileException e) {
+            return;
+        } catch (IOException | IllegalArgumentException e) {
+            Log.warn("No se pudo leer el índice de servicios, se reconstruirá: " + e.getMessage());
+            return;
+        }
+        Map<String, Map<String, String>> fields = new HashMap<>();
+        for (String key : properties.stringPropertyNames()) {
+            int separator = key.indexOf(SEPARATOR);
+            if (separator > 0) {
+                fields.computeIfAbsent(key.substring(0, separator), jar -> new HashMap<>())
+                        .put(key.substring(separator + 1), properties.getProperty(key));
+            }
+        }
+        Map<String, Entry> loaded = new HashMap<>();
+        for (Map.Entry<String, Map<String, String>> jar : fields.entrySet()) {
+            Entry entry = Entry.from(jar.getValue());
+            if (entry != null) {
+                loaded.put(jar.getKey(), entry);
+            }
+        }
+        entries = loaded;
+    }
+
+    /**
+     * @return Los datos guardados de un jar si su tamaño y su fecha no han cambiado, o {@code null}.
+     */
+    Entry find(String jarName, long size, long lastModified) {
+        Entry entry = entries.get(jarName);
+        return entry != null && entry.size() == size && entry.lastModified() == lastModified ? entry : null;
+    }
+
+    /**
+     * Sustituye el contenido del índice por el de la última recarga y lo guarda si ha cambiado.
+     * El fichero se escribe aparte y se mueve de forma atómica, así que nunca queda a medio escribir.
+     */
+    void save(Map<String, Entry> next) throws IOException {
+        if (next.equals(entries)) {
+            return;
+        }
+        entries = Map.copyOf(next);
+        Properties properties = new Properties();
+        for (Map.Entry<String, Entry> jar : next.entrySet()) {
+            String prefix = jar.getKey() + SEPARATOR;
+            Entry entry = jar.getValue();
+            properties.setProperty(prefix + "size", Long.toString(entry.size()));
+            properties.setProperty(prefix + "lastModified", Long.toString(entry.lastModified()));
+            properties.setProperty(prefix + "sha256", entry.sha256());
+            properties.setProperty(prefix + "name", entry.name());
+            for (Map.Entry<String, String> attribute : entry.attributes().entrySet()) {
+                properties.setProperty(prefix + attribute.getKey(), attribute.getValue());
+            }
+        }
+        Path temp = file.resolveSibling(FILE_NAME + ".tmp");
+        try (Writer out = Files.newBufferedWriter(temp)) {
+            properties.store(out, "Índice de los jars de servicios, generado por el servidor");
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Datos de un jar.
+     * @param attributes Atributos {@code Service-*} del manifiesto.
+     */
+    record Entry(long size, long lastModified, String sha256, String name, Map<String, String> attributes) {
+
+        static Entry of(long size, long lastModified, String sha256, String name, Attributes manifest) {
+            Map<String, String> attributes = new HashMap<>();
+            for (Map.Entry<Object, Object> attribute : manifest.entrySet()) {
+                String key = attribute.getKey().toString();
+                if (key.startsWith(ATTRIBUTE_PREFIX)) {
+                    attributes.put(key, attribute.getValue().toString());
+                }
+            }
+            return new Entry(size, lastModified, sha256, name, Map.copyOf(attributes));
+        }
+
+        /**
+         * @return Los mismos datos para el jar con otro tamaño o fecha pero el mismo contenido.
+         */
+        Entry withFile(long size, long lastModified) {
+            return new Entry(size, lastModified, sha256, name, attributes);
+        }
+
+        /**
+         * @return Los atributos guardados como un manifiesto, para interpretarlos con {@link ServiceManifest#parse}.
+         */
+        Attributes manifest() {
+            Attributes manifest = new Attributes();
+            attributes.forEach(manifest::putValue);
+            return manifest;
+        }
+
+        private static Entry from(Map<String, String> fields) {
+            try {
+                long size = Long.parseLong(fields.remove("size"));
+                long lastModified = Long.parseLong(fields.remove("lastModified"));
+                String sha256 = fields.remove("sha256");
+                String name = fields.remove("name");
+                if (sha256 == null || name == null) {
+                    return null;
+                }
+                fields.keySet().removeIf(key -> !key.startsWith(ATTRIBUTE_PREFIX));
+                return new Entry(size, lastModified, sha256, name, Map.copyOf(fields));
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+    }
+}
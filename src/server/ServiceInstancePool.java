@@ -0,0 +1,137 @@
+package server;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Pool sin bloqueos de instancias de un servicio que no es seguro entre hilos: cada ejecución toma una
+ * instancia libre, la usa ella sola y la devuelve.
+ * <p>
+ * Las instancias libres se guardan en un array de huecos que se toman y se devuelven con
+ * compare-and-set, empezando por un hueco aleatorio para que los hilos no compitan por el mismo.
+ * Si no hay ninguna libre y aún no se ha llegado al máximo, se crea una nueva; si se ha llegado, se
+ * espera sin bloqueos, con esperas crecientes, a que otra ejecución devuelva la suya, como mucho el tiempo
+ * máximo del servicio.
+ */
+class ServiceInstancePool {
+
+    private static final int SPINS_BEFORE_PARK = 64;
+    private static final long MAX_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private final InstanceFactory factory;
+    private final int maxSize;
+    private final long timeoutNanos;
+    private final AtomicReferenceArray<Object> idle;
+    // Instancias creadas, libres o en uso; nunca más de maxSize
+    private final AtomicInteger created = new AtomicInteger();
+    private final LongAdder waits = new LongAdder();
+    private final LongAdder discarded = new LongAdder();
+    private final LongAdder timedOut = new LongAdder();
+
+    /**
+     * Crea el pool con {@code minSize} instancias ya creadas.
+     * @param timeoutMillis Tiempo máximo de espera por una instancia libre, o 0 para esperar sin límite.
+     */
+    ServiceInstancePool(InstanceFactory factory, int minSize, int maxSize, long timeoutMillis) throws Throwable {
+        this.factory = factory;
+        this.maxSize = maxSize;
+        this.timeoutNanos = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        this.idle = new AtomicReferenceArray<>(maxSize);
+        for (int i = 0; i < minSize; i++) {
+            idle.set(i, factory.create());
+            created.incrementAndGet();
+        }
+    }
+
+    /**
+     * Toma una instancia libre, creándola si hace falta, o espera a que se devuelva una.
+     * @throws ServiceUnavailableException si no queda libre ninguna en el tiempo máximo del servicio.
+     * @throws Throwable si el constructor del servicio falla.
+     */
+    Object acquire() throws Throwable {
+        int start = ThreadLocalRandom.current().nextInt(maxSize);
+        long deadline = 0;
+        boolean waiting = false;
+        for (int attempt = 0; ; attempt++) {
+            for (int i = 0; i < maxSize; i++) {
+                int slot = (start + i) % maxSize;
+                Object instance = idle.get(slot);
+                if (instance != null && idle.compareAndSet(slot, instance, null)) {
+                    return instance;
+                }
+            }
+            int count = created.get();
+            if (count < maxSize) {
+                if (created.compareAndSet(count, count + 1)) {
+                    try {
+                        return factory.create();
+                    } catch (Throwable e) {
+                        created.decrementAndGet();
+                        throw e;
+                    }
+                }
+                continue;
+            }
+            if (!waiting) {
+                waiting = true;
+                waits.increment();
+                deadline = System.nanoTime() + timeoutNanos;
+            } else if (timeoutNanos > 0 && System.nanoTime() - deadline >= 0) {
+                timedOut.increment();
+                throw new ServiceUnavailableException("Servicio ocupado: ninguna de sus " + maxSize + " instancias ha quedado libre en "
+                        + TimeUnit.NANOSECONDS.toMillis(timeoutNanos) + " ms.", true);
+            }
+            if (Thread.interrupted()) {
+                throw new InterruptedException("Interrumpido esperando una instancia libre del servicio.");
+            }
+            if (attempt < SPINS_BEFORE_PARK) {
+                Thread.onSpinWait();
+            } else {
+                LockSupport.parkNanos(Math.min(MAX_PARK_NANOS, 1000L << Math.min(attempt - SPINS_BEFORE_PARK, 10)));
+            }
+        }
+    }
+
+    /**
+     * Devuelve una instancia al pool para que la use otra ejecución.
+     */
+    void release(Object instance) {
+        int start = ThreadLocalRandom.current().nextInt(maxSize);
+        // Hay tantos huecos como instancias, así que siempre queda alguno vacío
+        for (int i = 0; ; i = (i + 1) % maxSize) {
+            int slot = (start + i) % maxSize;
+            if (idle.get(slot) == null && idle.compareAndSet(slot, null, instance)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Descarta una instancia cuya ejecución ha fallado, porque su estado puede haber quedado a medias.
+     * Su lugar lo ocupará una instancia nueva cuando haga falta.
+     */
+    void discard(Object instance) {
+        discarded.increment();
+        created.decrementAndGet();
+    }
+
+    @Override
+    public String toString() {
+        int free = 0;
+        for (int i = 0; i < maxSize; i++) {
+            if (idle.get(i) != null) {
+                free++;
+            }
+        }
+        return "creadas=" + created.get() + "/" + maxSize + ", libres=" + free
+                + ", esperas=" + waits.sum() + ", tiempo agotado=" + timedOut.sum() + ", descartadas=" + discarded.sum();
+    }
+
+    interface InstanceFactory {
+        Object create() throws Throwable;
+    }
+}
@@ -1,47 +1,47 @@
 package server;
 
-import java.io.File;
-import java.io.IOException;
 import java.net.URL;
 import java.net.URLClassLoader;
-import java.util.jar.JarEntry;
-import java.util.jar.JarFile;
-import java.util.jar.Manifest;
 import java.lang.reflect.Constructor;
+import java.nio.file.Path;
 
 public class ServiceLoader {
 
-    public static Service loadService(String jarFilePath) throws Exception {
+    public static ServiceAdapter loadService(String jarFilePath) throws Exception {
+        // El MANIFEST.MF indica la clase del servicio y sus opciones (por ejemplo, la caché)
+        ServiceManifest manifest = ServiceManifest.read(jarFilePath);
+        LoadedClass loaded = instantiate(Path.of(jarFilePath), manifest.getServiceClass());
+        try {
+            // Adaptamos el servicio a la interfaz server.Service; el adaptador se queda con el class loader
+            return new ServiceAdapter(loaded.instance(), loaded.serviceClass(), loaded.classLoader(), manifest);
+        } catch (Exception e) {
+            loaded.classLoader().close();
+            throw e;
+        }
+    }
+
+    /**
+     * Crea un class loader para el jar, carga la clase del servicio y la instancia.
+     * Si algo falla, el class loader se cierra antes de lanzar la excepción.
+     */
+    static LoadedClass instantiate(Path jar, String serviceClass) throws Exception {
         // Crear URL para el JAR
-        File jarFile = new File(jarFilePath);
-        URL jarURL = jarFile.toURI().toURL();
+        URL jarURL = jar.toUri().toURL();
         URLClassLoader classLoader = new URLClassLoader(new URL[]{jarURL});
 
-        String serviceClassName = getServiceClassNameFromManifest(jarFilePath);
-
-        // Cargar la clase del servicio desde el JAR
-        Class<?> clazz = classLoader.loadClass(serviceClassName);
+        try {
+            // Cargar la clase del servicio desde el JAR
+            Class<?> clazz = classLoader.loadClass(serviceClass);
 
-        // Instanciamos el servicio
-        Constructor<?> constructor = clazz.getConstructor();
-        Object serviceInstance = constructor.newInstance();
-
-        // Adaptamos el servicio a la interfaz server.Service
-        return new ServiceAdapter(serviceInstance, clazz);
+            // Instanciamos el servicio
+            Constructor<?> constructor = clazz.getConstructor();
+            return new LoadedClass(constructor.newInstance(), clazz, classLoader);
+        } catch (Exception e) {
+            classLoader.close();
+            throw e;
+        }
     }
 
-    // Esta función lee el MANIFEST.MF y obtiene el nombre de la clase del servicio
-    private static String getServiceClassNameFromManifest(String jarFilePath) throws IOException {
-        try (JarFile jar = new JarFile(jarFilePath)) {
-            JarEntry entry = jar.getJarEntry("META-INF/MANIFEST.MF");
-            if (entry != null) {
-                Manifest manifest = new Manifest(jar.getInputStream(entry));
-                String serviceClass = manifest.getMainAttributes().getValue("Service-Class");
-                if (serviceClass != null) {
-                    return serviceClass;
-                }
-            }
-        }
-        throw new IOException("No se encontró el atributo 'Service-Class' en el MANIFEST.MF.");
+    record LoadedClass(Object instance, Class<?> serviceClass, URLClassLoader classLoader) {
     }
 }
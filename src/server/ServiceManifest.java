@@ -0,0 +1,229 @@
+package server;
+
+import java.io.IOException;
+import java.util.jar.Attributes;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+
+/**
+ * Atributos del {@code MANIFEST.MF} de un jar de servicio.
+ * <pre>
+ *   Service-Class: services.java.GreetingService   (obligatorio)
+ *   Service-Version: 2.1                            (versión, para buscar el servicio por nombre y versión)
+ *   Service-Name: Greeting Service                  (nombre del servicio, para no cargarlo hasta usarlo)
+ *   Service-Cacheable: true                         (el resultado solo depende de la entrada)
+ *   Service-Cache-Max-Bytes: 1048576                (tamaño máximo de la caché, por defecto 1 MB)
+ *   Service-Cache-TTL-Seconds: 60                   (caducidad de cada resultado; 0 = no caduca)
+ *   Service-Max-Concurrency: 64                     (ejecuciones simultáneas del servicio)
+ *   Service-Queue-Size: 1024                        (ejecuciones en espera; con la cola llena se rechazan)
+ *   Service-Timeout-Millis: 30000                   (tiempo máximo de cada ejecución; 0 = sin límite)
+ *   Service-Threading: pooled                       (shared, pooled o session; por defecto shared)
+ *   Service-Pool-Min: 1                             (instancias creadas al cargar el servicio, con pooled)
+ *   Service-Pool-Max: 8                             (instancias como máximo, con pooled; por defecto, una por núcleo)
+ * </pre>
+ */
+class ServiceManifest {
+
+    static final String SERVICE_CLASS = "Service-Class";
+    static final String VERSION = "Service-Version";
+    static final String NAME = "Service-Name";
+    static final String CACHEABLE = "Service-Cacheable";
+    static final String CACHE_MAX_BYTES = "Service-Cache-Max-Bytes";
+    static final String CACHE_TTL_SECONDS = "Service-Cache-TTL-Seconds";
+    static final String MAX_CONCURRENCY = "Service-Max-Concurrency";
+    static final String QUEUE_SIZE = "Service-Queue-Size";
+    static final String TIMEOUT_MILLIS = "Service-Timeout-Millis";
+    static final String THREADING = "Service-Threading";
+    static final String POOL_MIN = "Service-Pool-Min";
+    static final String POOL_MAX = "Service-Pool-Max";
+
+    private static final long DEFAULT_CACHE_MAX_BYTES = 1024 * 1024;
+    private static final long DEFAULT_MAX_CONCURRENCY = 64;
+    private static final long DEFAULT_QUEUE_SIZE = 1024;
+    private static final long DEFAULT_TIMEOUT_MILLIS = 30_000;
+    private static final long DEFAULT_POOL_MIN = 1;
+
+    // Manifiesto de los servicios creados directamente, sin jar: sin caché y ejecutados en el hilo que llama
+    static final ServiceManifest NONE = new ServiceManifest(null, null, null, false, 0, 0, 0, 0, 0, Threading.SHARED, 0, 0);
+
+    private final String serviceClass;
+    private final String version;
+    private final String name;
+    private final boolean cacheable;
+    private final long cacheMaxBytes;
+    private final long cacheTtlSeconds;
+    private final int maxConcurrency;
+    private final int queueSize;
+    private final long timeoutMillis;
+    private final Threading threading;
+    private final int poolMin;
+    private final int poolMax;
+
+    private ServiceManifest(String serviceClass, String version, String name, boolean cacheable, long cacheMaxBytes, long cacheTtlSeconds,
+                            int maxConcurrency, int queueSize, long timeoutMillis, Threading threading, int poolMin, int poolMax) {
+        this.serviceClass = serviceClass;
+        this.version = version;
+        this.name = name;
+        this.cacheable = cacheable;
+        this.cacheMaxBytes = cacheMaxBytes;
+        this.cacheTtlSeconds = cacheTtlSeconds;
+        this.maxConcurrency = maxConcurrency;
+        this.queueSize = queueSize;
+        this.timeoutMillis = timeoutMillis;
+        this.threading = threading;
+        this.poolMin = poolMin;
+        this.poolMax = poolMax;
+    }
+
+    /**
+     * Lee el manifiesto de un jar de servicio.
+     * @throws IOException si falta {@code Service-Class} o algún atributo tiene un valor no válido.
+     */
+    static ServiceManifest read(String jarFilePath) throws IOException {
+        return parse(readAttributes(jarFilePath));
+    }
+
+    /**
+     * Lee los atributos principales del manifiesto de un jar, sin interpretarlos.
+     */
+    static Attributes readAttributes(String jarFilePath) throws IOException {
+        try (JarFile jar = new JarFile(jarFilePath)) {
+            Manifest manifest = jar.getManifest();
+            if (manifest == null) {
+                throw new IOException("No se encontró el atributo 'Service-Class' en el MANIFEST.MF.");
+            }
+            return manifest.getMainAttributes();
+        }
+    }
+
+    static ServiceManifest parse(Attributes attributes) throws IOException {
+        String serviceClass = attributes.getValue(SERVICE_CLASS);
+        if (serviceClass == null) {
+            throw new IOException("No se encontró el atributo 'Service-Class' en el MANIFEST.MF.");
+        }
+        String version = attributes.getValue(VERSION);
+        if (version != null && (version.isBlank() || version.indexOf(ServiceRegistry.VERSION_SEPARATOR) >= 0)) {
+            throw new IOException("Valor no válido para '" + VERSION + "' en el MANIFEST.MF: " + version);
+        }
+        String name = attributes.getValue(NAME);
+        boolean cacheable = Boolean.parseBoolean(attributes.getValue(CACHEABLE));
+        long maxBytes = longAttribute(attributes, CACHE_MAX_BYTES, DEFAULT_CACHE_MAX_BYTES);
+        long ttlSeconds = longAttribute(attributes, CACHE_TTL_SECONDS, 0);
+        long maxConcurrency = longAttribute(attributes, MAX_CONCURRENCY, DEFAULT_MAX_CONCURRENCY);
+        long queueSize = longAttribute(attributes, QUEUE_SIZE, DEFAULT_QUEUE_SIZE);
+        long timeoutMillis = longAttribute(attributes, TIMEOUT_MILLIS, DEFAULT_TIMEOUT_MILLIS);
+        if (maxConcurrency < 1 || maxConcurrency > Short.MAX_VALUE || queueSize > Integer.MAX_VALUE) {
+            throw new IOException("Valor no válido para '" + MAX_CONCURRENCY + "' o '" + QUEUE_SIZE + "' en el MANIFEST.MF.");
+        }
+        Threading threading = Threading.parse(attributes.getValue(THREADING));
+        long poolMin = longAttribute(attributes, POOL_MIN, DEFAULT_POOL_MIN);
+        long poolMax = longAttribute(attributes, POOL_MAX, Runtime.getRuntime().availableProcessors());
+        if (poolMax < 1 || poolMax > Short.MAX_VALUE || poolMin > poolMax) {
+            throw new IOException("Valor no válido para '" + POOL_MIN + "' o '" + POOL_MAX + "' en el MANIFEST.MF.");
+        }
+        return new ServiceManifest(serviceClass.trim(), version != null ? version.trim() : null,
+                name != null && !name.isBlank() ? name.trim() : null, cacheable && maxBytes > 0, maxBytes, ttlSeconds, (int) maxConcurrency, (int) queueSize, timeoutMillis,
+                threading, (int) poolMin, (int) poolMax);
+    }
+
+    private static long longAttribute(Attributes attributes, String name, long defaultValue) throws IOException {
+        String value = attributes.getValue(name);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            long parsed = Long.parseLong(value.trim());
+            if (parsed < 0) {
+                throw new NumberFormatException();
+            }
+            return parsed;
+        } catch (NumberFormatException e) {
+            throw new IOException("Valor no válido para '" + name + "' en el MANIFEST.MF: " + value);
+        }
+    }
+
+    String getServiceClass() {
+        return serviceClass;
+    }
+
+    /**
+     * @return La versión declarada, o {@code null} si el manifiesto no la indica.
+     */
+    String getVersion() {
+        return version;
+    }
+
+    /**
+     * @return El nombre declarado, o {@code null} si el manifiesto no lo indica y hay que preguntárselo al servicio.
+     */
+    String getName() {
+        return name;
+    }
+
+    boolean isCacheable() {
+        return cacheable;
+    }
+
+    long getCacheMaxBytes() {
+        return cacheMaxBytes;
+    }
+
+    long getCacheTtlSeconds() {
+        return cacheTtlSeconds;
+    }
+
+    /**
+     * @return {@code true} si el servicio se ejecuta en su propio pool de hilos.
+     */
+    boolean isIsolated() {
+        return maxConcurrency > 0;
+    }
+
+    int getMaxConcurrency() {
+        return maxConcurrency;
+    }
+
+    int getQueueSize() {
+        return queueSize;
+    }
+
+    long getTimeoutMillis() {
+        return timeoutMillis;
+    }
+
+    Threading getThreading() {
+        return threading;
+    }
+
+    int getPoolMin() {
+        return poolMin;
+    }
+
+    int getPoolMax() {
+        return poolMax;
+    }
+
+    /**
+     * Cómo reparte el servidor las instancias del servicio entre las ejecuciones simultáneas.
+     */
+    enum Threading {
+        /** Una sola instancia para todas las ejecuciones: el servicio debe ser seguro entre hilos. */
+        SHARED,
+        /** Un pool de instancias; cada una la usa una sola ejecución a la vez. */
+        POOLED,
+        /** Una instancia por sesión de cliente, que ejecuta sus peticiones de una en una. */
+        SESSION;
+
+        static Threading parse(String value) throws IOException {
+            if (value == null) {
+                return SHARED;
+            }
+            for (Threading threading : values()) {
+                if (threading.name().equalsIgnoreCase(value.trim())) {
+                    return threading;
+                }
+            }
+            throw new IOException("Valor no válido para '" + THREADING + "' en el MANIFEST.MF: " + value);
+        }
+    }
+}
@@ -0,0 +1,174 @@
+package server;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Registro de los servicios cargados. Es de lectura mayoritaria: las búsquedas no usan bloqueos
+ * y leen una instantánea inmutable, mientras que una recarga construye la instantánea nueva aparte y la
+ * publica con una sola escritura volátil.
+ * <p>
+ * Además de por su posición, los servicios se buscan por nombre ({@code "Greeting Service"}) o por nombre
+ * y versión ({@code "Greeting Service@2.1"}); el nombre solo corresponde a la versión más alta cargada.
+ * Los nombres y las respuestas a {@code LIST_SERVICES} de ambos protocolos se calculan al publicar, de
+ * modo que cada consulta se limita a escribir unos bytes ya preparados.
+ */
+public class ServiceRegistry {
+
+    /** Separa el nombre y la versión en las búsquedas por nombre. */
+    public static final char VERSION_SEPARATOR = '@';
+
+    // Caracteres que caben con seguridad en writeUTF, a tres bytes como mucho por carácter
+    private static final int MAX_LEGACY_NAME_LENGTH = 65535 / 3;
+
+    private volatile Snapshot snapshot = Snapshot.of(List.of());
+
+    /**
+     * Devuelve la lista de servicios vigente. La lista no cambia aunque se recarguen los servicios.
+     */
+    public List<Service> getServices() {
+        return snapshot.services();
+    }
+
+    /**
+     * Devuelve los nombres de los servicios, en el mismo orden que {@link #getServices()}.
+     */
+    public List<String> getNames() {
+        return snapshot.names();
+    }
+
+    /**
+     * Devuelve el servicio en la posición indicada o {@code null} si el índice no es válido.
+     */
+    public Service get(int index) {
+        List<Service> services = snapshot.services();
+        return index >= 0 && index < services.size() ? services.get(index) : null;
+    }
+
+    /**
+     * Busca un servicio por su nombre, o por nombre y versión separados por {@value #VERSION_SEPARATOR}.
+     * @return El servicio, o {@code null} si no hay ninguno con ese nombre y versión.
+     */
+    public Service find(String name) {
+        return snapshot.byName().get(name);
+    }
+
+    /**
+     * Respuesta del protocolo binario a {@code LIST_SERVICES}, sin la cabecera de la trama:
+     * {@code int n | n cadenas}. El array se comparte entre todas las conexiones y no se debe modificar.
+     */
+    byte[] getBinaryListReply() {
+        return snapshot.binaryListReply();
+    }
+
+    /**
+     * Respuesta del protocolo de texto a {@code LIST_SERVICES}: {@code int n | n × writeUTF}.
+     * El array se comparte entre todas las conexiones y no se debe modificar.
+     */
+    byte[] getLegacyListReply() {
+        return snapshot.legacyListReply();
+    }
+
+    void replace(List<Service> newServices) {
+        this.snapshot = Snapshot.of(newServices);
+    }
+
+    /**
+     * Versión declarada por un servicio, o {@code null} si no declara ninguna.
+     */
+    static String versionOf(Service service) {
+        return service instanceof ServiceAdapter adapter ? adapter.getVersion() : null;
+    }
+
+    /**
+     * Compara dos versiones por sus partes numéricas ({@code 1.10 > 1.9}). Una versión ausente es la menor.
+     */
+    static int compareVersions(String a, String b) {
+        if (a == null || b == null) {
+            return a == null ? (b == null ? 0 : -1) : 1;
+        }
+        String[] partsA = a.split("\\.");
+        String[] partsB = b.split("\\.");
+        for (int i = 0; i < Math.max(partsA.length, partsB.length); i++) {
+            String partA = i < partsA.length ? partsA[i] : "0";
+            String partB = i < partsB.length ? partsB[i] : "0";
+            int result;
+            try {
+                result = Long.compare(Long.parseLong(partA), Long.parseLong(partB));
+            } catch (NumberFormatException e) {
+                result = partA.compareTo(partB);
+            }
+            if (result != 0) {
+                return result;
+            }
+        }
+        return 0;
+    }
+
+    private record Snapshot(List<Service> services, List<String> names, Map<String, Service> byName,
+                            byte[] binaryListReply, byte[] legacyListReply) {
+
+        static Snapshot of(List<Service> services) {
+            List<Service> copy = List.copyOf(services);
+            List<String> names = new ArrayList<>(copy.size());
+            Map<String, Service> byName = new HashMap<>();
+            for (Service service : copy) {
+                String name = service.getName();
+                if (name == null) {
+                    // El servicio ha fallado al dar su nombre: se lista, pero no se puede buscar por nombre
+                    names.add("");
+                    continue;
+                }
+                names.add(name);
+                String version = versionOf(service);
+                if (version != null && byName.putIfAbsent(name + VERSION_SEPARATOR + version, service) != null) {
+                    Log.warn("Servicio duplicado, se usa el primero: " + name + VERSION_SEPARATOR + version);
+                }
+                Service current = byName.get(name);
+                if (current == null || compareVersions(version, versionOf(current)) > 0) {
+                    byName.put(name, service);
+                }
+            }
+            return new Snapshot(copy, List.copyOf(names), Map.copyOf(byName),
+                    encodeBinary(names), encodeLegacy(names));
+        }
+
+        private static byte[] encodeBinary(List<String> names) {
+            List<byte[]> encoded = new ArrayList<>(names.size());
+            int size = Integer.BYTES;
+            for (String name : names) {
+                byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+                encoded.add(bytes);
+                size += Integer.BYTES + bytes.length;
+            }
+            ByteBuffer buffer = ByteBuffer.allocate(size).putInt(names.size());
+            for (byte[] bytes : encoded) {
+                buffer.putInt(bytes.length).put(bytes);
+            }
+            return buffer.array();
+        }
+
+        private static byte[] encodeLegacy(List<String> names) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try (DataOutputStream out = new DataOutputStream(bytes)) {
+                out.writeInt(names.size());
+                for (String name : names) {
+                    // writeUTF no admite más de 64 KB: se recortan los nombres absurdamente largos
+                    out.writeUTF(name.length() > MAX_LEGACY_NAME_LENGTH ? name.substring(0, MAX_LEGACY_NAME_LENGTH) : name);
+                }
+            } catch (IOException e) {
+                // ByteArrayOutputStream no lanza IOException
+                throw new UncheckedIOException(e);
+            }
+            return bytes.toByteArray();
+        }
+    }
+}
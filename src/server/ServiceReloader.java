@@ -0,0 +1,352 @@
+package server;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.jar.Attributes;
+import java.util.stream.Stream;
+
+/**
+ * Recarga incremental de los servicios de la carpeta {@code services}.
+ * <p>
+ * Cada recarga compara los jars con los de la recarga anterior: los que no han cambiado conservan
+ * el servicio ya cargado, y solo se cargan los jars nuevos o cuyo contenido (hash SHA-256) es distinto.
+ * La lista resultante se publica en el {@link ServiceRegistry} de una sola vez y los servicios
+ * sustituidos o eliminados se retiran, lo que cierra su class loader cuando terminan sus llamadas en curso.
+ * <p>
+ * Los jars se examinan en paralelo. Los que coinciden con el {@link ServiceIndex} por tamaño y fecha no se
+ * leen: su servicio se publica con el nombre guardado y su clase no se carga hasta que se activa o se
+ * ejecuta. Lo mismo ocurre con los jars nuevos que declaran {@code Service-Name} en su manifiesto; el resto
+ * se cargan al examinarlos para conocer su nombre.
+ * <p>
+ * Los ficheros {@code nombre.pipeline} de la carpeta definen pipelines (ver {@link Pipeline}), que se
+ * publican como servicios con el nombre del fichero. Son pequeños y se vuelven a leer en cada recarga.
+ * <p>
+ * Opcionalmente, un hilo vigila la carpeta con un {@link WatchService} y recarga cuando cambia su contenido.
+ */
+class ServiceReloader {
+
+    // Tiempo sin eventos que se espera antes de recargar, para no leer un jar a medio escribir
+    private static final long QUIET_PERIOD_MILLIS = 250;
+    // Hilos que examinan los jars; la lectura y el hash de cada jar son independientes
+    private static final int SCAN_THREADS = Math.max(2, Runtime.getRuntime().availableProcessors());
+
+    private final Path servicesDir;
+    private final ServiceRegistry registry;
+    private final LatencyHistogram reloadTimes;
+    private final ServiceIndex index;
+    // Jars cargados en la última recarga; solo se accede con el monitor de esta instancia
+    private Map<Path, LoadedJar> loadedJars = Map.of();
+    private boolean indexLoaded;
+
+    ServiceReloader(Path servicesDir, ServiceRegistry registry, LatencyHistogram reloadTimes) {
+        this.servicesDir = servicesDir;
+        this.registry = registry;
+        this.reloadTimes = reloadTimes;
+        this.index = new ServiceIndex(servicesDir);
+    }
+
+    /**
+     * Sincroniza los servicios publicados con los jars de la carpeta.
+     */
+    synchronized void reload() throws IOException {
+        long start = System.nanoTime();
+        try {
+            reloadJars();
+        } finally {
+            reloadTimes.record(System.nanoTime() - start);
+        }
+    }
+
+    private void reloadJars() throws IOException {
+        if (!Files.isDirectory(servicesDir)) {
+            Log.warn("No se encontró la carpeta 'services' o está vacía.");
+            publish(new LinkedHashMap<>(), List.of());
+            return;
+        }
+
+        List<Path> jars;
+        try (Stream<Path> files = Files.list(servicesDir)) {
+            jars = files.filter(p -> p.getFileName().toString().endsWith(".jar")).sorted().toList();
+        }
+
+        if (!indexLoaded) {
+            index.load();
+            indexLoaded = true;
+        }
+        long start = System.nanoTime();
+        List<Scan> scans = scanAll(jars);
+
+        Map<Path, LoadedJar> next = new LinkedHashMap<>();
+        Map<String, ServiceIndex.Entry> indexEntries = new HashMap<>();
+        int[] counts = new int[Source.values().length];
+        for (Scan scan : scans) {
+            if (scan == null) {
+                // Eliminado mientras se recorría la carpeta
+                continue;
+            }
+            counts[scan.source().ordinal()]++;
+            LoadedJar previous = loadedJars.get(scan.jar());
+            if (scan.source() == Source.FAILED) {
+                Log.error("Error al cargar el servicio " + scan.jar().getFileName() + ": " + scan.error());
+                if (previous == null) {
+                    continue;
+                }
+                // Se mantiene la versión anterior hasta que el jar se pueda cargar
+                scan = new Scan(scan.jar(), previous, Source.UNCHANGED, null);
+            } else if (scan.source() != Source.UNCHANGED) {
+                Log.info((previous == null ? "Servicio cargado: " : "Servicio actualizado: ")
+                        + scan.loaded().service().getName() + (scan.source() == Source.LOADED ? "" : " (diferido)"));
+            }
+            next.put(scan.jar(), scan.loaded());
+            ServiceIndex.Entry entry = scan.loaded().entry();
+            if (entry.name() != null) {
+                indexEntries.put(scan.jar().getFileName().toString(), entry);
+            }
+        }
+        List<Service> pipelines = loadPipelines();
+        publish(next, pipelines);
+        try {
+            index.save(indexEntries);
+        } catch (IOException e) {
+            Log.warn("No se pudo guardar el índice de servicios: " + e.getMessage());
+        }
+        Log.info("Servicios: " + next.size() + " (sin cambios: " + counts[Source.UNCHANGED.ordinal()]
+                + ", del índice: " + counts[Source.INDEX.ordinal()]
+                + ", diferidos: " + counts[Source.DEFERRED.ordinal()]
+                + ", cargados: " + counts[Source.LOADED.ordinal()]
+                + ", con errores: " + counts[Source.FAILED.ordinal()]
+                + (pipelines.isEmpty() ? "" : ", pipelines: " + pipelines.size()) + ") en "
+                + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + " ms");
+    }
+
+    /**
+     * Examina los jars en paralelo.
+     * @return Un resultado por jar, en el mismo orden, o {@code null} para los que ya no existen.
+     */
+    private List<Scan> scanAll(List<Path> jars) throws IOException {
+        if (jars.isEmpty()) {
+            return List.of();
+        }
+        Map<Path, LoadedJar> previousJars = loadedJars;
+        AtomicInteger threadCount = new AtomicInteger();
+        try (ExecutorService pool = Executors.newFixedThreadPool(Math.min(jars.size(), SCAN_THREADS), task -> {
+            Thread thread = new Thread(task, "services-scan-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        })) {
+            List<Future<Scan>> futures = new ArrayList<>(jars.size());
+            for (Path jar : jars) {
+                futures.add(pool.submit(() -> scan(jar, previousJars.get(jar))));
+            }
+            List<Scan> scans = new ArrayList<>(jars.size());
+            for (Future<Scan> future : futures) {
+                scans.add(future.get());
+            }
+            return scans;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Recarga interrumpida.");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException io) {
+                throw io;
+            }
+            throw new IOException(e.getCause());
+        }
+    }
+
+    /**
+     * Examina un jar: reutiliza el servicio ya cargado si el jar no ha cambiado y, si no, crea uno nuevo,
+     * diferido si se conoce su nombre sin cargarlo.
+     * @return El resultado, o {@code null} si el jar ya no existe.
+     */
+    private Scan scan(Path jar, LoadedJar previous) throws IOException {
+        BasicFileAttributes attributes;
+        try {
+            attributes = Files.readAttributes(jar, BasicFileAttributes.class);
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+        long size = attributes.size();
+        long lastModified = attributes.lastModifiedTime().toMillis();
+
+        if (previous != null && previous.entry().size() == size && previous.entry().lastModified() == lastModified) {
+            return new Scan(jar, previous, Source.UNCHANGED, null);
+        }
+        ServiceIndex.Entry indexed = index.find(jar.getFileName().toString(), size, lastModified);
+        String hash;
+        try {
+            hash = indexed != null ? indexed.sha256() : sha256(jar);
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+        if (previous != null && previous.entry().sha256().equals(hash)) {
+            return new Scan(jar, new LoadedJar(previous.service(), previous.entry().withFile(size, lastModified)),
+                    Source.UNCHANGED, null);
+        }
+        try {
+            Attributes manifestAttributes = indexed != null ? indexed.manifest()
+                    : ServiceManifest.readAttributes(jar.toString());
+            ServiceManifest manifest = ServiceManifest.parse(manifestAttributes);
+            String name = indexed != null ? indexed.name() : manifest.getName();
+            ServiceAdapter service = new ServiceAdapter(jar.toAbsolutePath(), manifest, name);
+            Source source = indexed != null ? Source.INDEX : Source.DEFERRED;
+            if (name == null) {
+                // Sin nombre conocido hay que cargar el servicio para preguntárselo
+                service.ensureLoaded();
+                if (!service.isLoaded()) {
+                    throw new IOException("No se pudo cargar la clase " + manifest.getServiceClass());
+                }
+                name = service.getName();
+                source = Source.LOADED;
+            }
+            return new Scan(jar, new LoadedJar(service,
+                    ServiceIndex.Entry.of(size, lastModified, hash, name, manifestAttributes)), source, null);
+        } catch (Exception e) {
+            return new Scan(jar, null, Source.FAILED, e);
+        }
+    }
+
+    /**
+     * Lee las definiciones de pipelines de la carpeta. Las que no son válidas se anuncian y se ignoran.
+     */
+    private List<Service> loadPipelines() throws IOException {
+        List<Path> files;
+        try (Stream<Path> list = Files.list(servicesDir)) {
+            files = list.filter(p -> p.getFileName().toString().endsWith(Pipeline.EXTENSION)).sorted().toList();
+        }
+        List<Service> pipelines = new ArrayList<>(files.size());
+        for (Path file : files) {
+            String fileName = file.getFileName().toString();
+            String name = fileName.substring(0, fileName.length() - Pipeline.EXTENSION.length());
+            try {
+                pipelines.add(new PipelineService(name, Pipeline.parse(Files.readString(file)), registry));
+            } catch (NoSuchFileException e) {
+                // Eliminado mientras se recorría la carpeta
+            } catch (IOException | IllegalArgumentException e) {
+                Log.error("Error en el pipeline " + fileName + ": " + e.getMessage());
+            }
+        }
+        return pipelines;
+    }
+
+    private void publish(Map<Path, LoadedJar> next, List<Service> pipelines) {
+        Map<Path, LoadedJar> previous = loadedJars;
+        loadedJars = next;
+
+        List<Service> services = new ArrayList<>(next.size() + pipelines.size());
+        for (LoadedJar jar : next.values()) {
+            services.add(jar.service());
+        }
+        services.addAll(pipelines);
+        registry.replace(services);
+
+        // Retirar las versiones que ya no se publican, ahora que ninguna sesión nueva puede obtenerlas
+        for (Map.Entry<Path, LoadedJar> entry : previous.entrySet()) {
+            LoadedJar current = next.get(entry.getKey());
+            ServiceAdapter old = entry.getValue().service();
+            if (current == null) {
+                Log.info("Servicio retirado: " + entry.getKey().getFileName());
+                old.retire(null);
+            } else if (current.service() != old) {
+                old.retire(current.service());
+            }
+        }
+    }
+
+    /**
+     * Arranca un hilo que vigila la carpeta de servicios y recarga cuando se añade, modifica o elimina un jar
+     * o un pipeline.
+     */
+    void startWatching() throws IOException {
+        if (!Files.isDirectory(servicesDir)) {
+            Log.warn("No se vigila la carpeta 'services' porque no existe.");
+            return;
+        }
+        WatchService watchService = servicesDir.getFileSystem().newWatchService();
+        servicesDir.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+
+        Thread watcher = new Thread(() -> watch(watchService), "services-watcher");
+        watcher.setDaemon(true);
+        watcher.start();
+        Log.info("Vigilando la carpeta de servicios: " + servicesDir.toAbsolutePath());
+    }
+
+    private void watch(WatchService watchService) {
+        try (watchService) {
+            while (true) {
+                WatchKey key = watchService.take();
+                boolean jarChanged = drain(key);
+                // Agrupar los eventos seguidos de una misma copia o subida en una sola recarga
+                while ((key = watchService.poll(QUIET_PERIOD_MILLIS, TimeUnit.MILLISECONDS)) != null) {
+                    jarChanged |= drain(key);
+                }
+                if (jarChanged) {
+                    try {
+                        reload();
+                    } catch (IOException e) {
+                        Log.error("Error al recargar los servicios: " + e.getMessage());
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException ignored) {
+        }
+    }
+
+    private static boolean drain(WatchKey key) {
+        boolean jarChanged = false;
+        for (WatchEvent<?> event : key.pollEvents()) {
+            Object context = event.context();
+            jarChanged |= event.kind() == StandardWatchEventKinds.OVERFLOW
+                    || (context instanceof Path path && (path.toString().endsWith(".jar")
+                            || path.toString().endsWith(Pipeline.EXTENSION)));
+        }
+        key.reset();
+        return jarChanged;
+    }
+
+    static String sha256(Path file) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        try (InputStream in = Files.newInputStream(file)) {
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
+            }
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    /**
+     * @param entry Datos del jar para el índice; su nombre es {@code null} si el servicio no lo ha dado.
+     */
+    private record LoadedJar(ServiceAdapter service, ServiceIndex.Entry entry) {
+    }
+
+    private record Scan(Path jar, LoadedJar loaded, Source source, Exception error) {
+    }
+
+    /** Cómo se ha obtenido el servicio de un jar en una recarga. */
+    private enum Source {
+        UNCHANGED, INDEX, DEFERRED, LOADED, FAILED
+    }
+}
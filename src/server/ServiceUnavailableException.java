@@ -0,0 +1,23 @@
+package server;
+
+/**
+ * La ejecución de un servicio no se ha podido completar porque el servicio está saturado
+ * o ha superado su tiempo máximo. El mensaje se envía al cliente.
+ */
+public class ServiceUnavailableException extends Exception {
+
+    private final boolean busy;
+
+    ServiceUnavailableException(String message, boolean busy) {
+        super(message);
+        this.busy = busy;
+    }
+
+    /**
+     * @return {@code true} si la petición se ha rechazado sin ejecutarla, porque la cola del servicio
+     * estaba llena; el cliente puede reintentarla más tarde.
+     */
+    public boolean isBusy() {
+        return busy;
+    }
+}
@@ -0,0 +1,42 @@
+package server;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Endpoint HTTP local con las estadísticas del servidor: {@code /stats} en texto y {@code /stats.json}
+ * en JSON. Solo escucha en la interfaz de loopback; se activa con {@code server.statsPort}.
+ */
+class StatsEndpoint {
+
+    private final HttpServer httpServer;
+
+    StatsEndpoint(Server server, int port) throws IOException {
+        this.httpServer = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        httpServer.createContext("/stats", exchange -> {
+            boolean json = exchange.getRequestURI().getPath().endsWith(".json");
+            String body = json ? server.getStatsJson() : server.getStats();
+            send(exchange, json ? "application/json" : "text/plain", body);
+        });
+    }
+
+    void start() {
+        httpServer.start();
+        Log.info("Estadísticas disponibles en http://localhost:" + httpServer.getAddress().getPort() + "/stats");
+    }
+
+    private static void send(HttpExchange exchange, String contentType, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", contentType + "; charset=utf-8");
+        exchange.sendResponseHeaders(200, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+}
@@ -0,0 +1,171 @@
+package server;
+
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Formatea las métricas del servidor como texto, para el comando {@code STATS}, o como JSON,
+ * para el endpoint HTTP de estadísticas.
+ */
+final class StatsReport {
+
+    private static final double[] PERCENTILES = {50, 99, 99.9};
+
+    private StatsReport() {
+    }
+
+    /**
+     * @param gateway El gateway, si el servidor reparte las peticiones entre backends, o {@code null}.
+     */
+    static String text(Metrics metrics, AdmissionControl admission, List<Service> services, Gateway gateway) {
+        StringBuilder out = new StringBuilder();
+        out.append(String.format(Locale.ROOT, "Activo desde hace %d s; %d peticiones (%.1f/s en el último minuto); %d errores%n",
+                metrics.getUptimeSeconds(), metrics.getRequestCount(), metrics.getRequestRate(), metrics.getErrorCount()));
+        out.append("Conexiones: ").append(metrics.getActiveConnections()).append(" activas, ")
+                .append(metrics.getTotalConnections()).append(" en total; bytes recibidos: ")
+                .append(metrics.getBytesInCount()).append(", enviados: ").append(metrics.getBytesOutCount()).append('\n');
+        out.append("Listo en ").append(metrics.getTimeToReadyMillis()).append(" ms desde el arranque; recargas: ")
+                .append(metrics.getReloads()).append('\n');
+        out.append("Registro: nivel ").append(Log.getLevel()).append(", uno de cada ").append(Log.getSampleRate())
+                .append(" comandos, descartados: ").append(Log.getDroppedCount()).append('\n');
+        out.append("Admisión: ").append(admission).append('\n');
+        out.append("Comandos:\n");
+        for (Map.Entry<String, LatencyHistogram> command : metrics.getCommands().entrySet()) {
+            out.append("  ").append(command.getKey()).append(": ").append(command.getValue()).append('\n');
+        }
+        out.append("Servicios:\n");
+        for (Service s : services) {
+            out.append("  ").append(s.getName()).append(": ");
+            if (s instanceof RemoteService remote) {
+                out.append(remote).append('\n');
+                continue;
+            }
+            if (!(s instanceof ServiceAdapter adapter)) {
+                out.append("sin estadísticas\n");
+                continue;
+            }
+            if (!adapter.isLoaded()) {
+                out.append("sin cargar, ");
+            }
+            out.append(adapter.getLatency()).append(", errores=").append(adapter.getErrorCount()).append('\n');
+            ResultCache cache = adapter.getCache();
+            out.append("    caché: ").append(cache != null ? cache : "no").append('\n');
+            ServiceBulkhead bulkhead = adapter.getBulkhead();
+            if (bulkhead != null) {
+                out.append("    ejecuciones: ").append(bulkhead).append('\n');
+            }
+            ServiceInstancePool pool = adapter.getInstancePool();
+            if (pool != null) {
+                out.append("    instancias: ").append(pool).append('\n');
+            } else if (adapter.getThreading() == ServiceManifest.Threading.SESSION) {
+                out.append("    instancias: una por sesión, sesiones=").append(adapter.getSessionInstanceCount()).append('\n');
+            }
+        }
+        if (gateway != null) {
+            out.append("Backends:\n");
+            for (Backend backend : gateway.getBackends()) {
+                out.append("  ").append(backend).append('\n');
+            }
+        }
+        return out.toString();
+    }
+
+    static String json(Metrics metrics, AdmissionControl admission, List<Service> services, Gateway gateway) {
+        StringBuilder out = new StringBuilder("{");
+        out.append("\"uptimeSeconds\":").append(metrics.getUptimeSeconds())
+                .append(",\"requests\":").append(metrics.getRequestCount())
+                .append(",\"requestsPerSecond\":").append(String.format(Locale.ROOT, "%.2f", metrics.getRequestRate()))
+                .append(",\"errors\":").append(metrics.getErrorCount())
+                .append(",\"activeConnections\":").append(metrics.getActiveConnections())
+                .append(",\"totalConnections\":").append(metrics.getTotalConnections())
+                .append(",\"bytesIn\":").append(metrics.getBytesInCount())
+                .append(",\"bytesOut\":").append(metrics.getBytesOutCount())
+                .append(",\"timeToReadyMillis\":").append(metrics.getTimeToReadyMillis())
+                .append(",\"logLevel\":").append(string(Log.getLevel().name()))
+                .append(",\"logSample\":").append(Log.getSampleRate())
+                .append(",\"logDropped\":").append(Log.getDroppedCount())
+                .append(",\"admission\":{\"concurrencyLimit\":").append(admission.getConcurrencyLimit())
+                .append(",\"inFlight\":").append(admission.getInFlight())
+                .append(",\"connectionRejections\":").append(admission.getConnectionRejections())
+                .append(",\"addressRejections\":").append(admission.getAddressRejections())
+                .append(",\"concurrencyRejections\":").append(admission.getConcurrencyRejections()).append('}')
+                .append(",\"reloads\":");
+        histogram(out, metrics.getReloads());
+        out.append(",\"commands\":{");
+        boolean first = true;
+        for (Map.Entry<String, LatencyHistogram> command : metrics.getCommands().entrySet()) {
+            out.append(first ? "" : ",").append(string(command.getKey())).append(':');
+            histogram(out, command.getValue());
+            first = false;
+        }
+        out.append("},\"services\":[");
+        first = true;
+        for (Service s : services) {
+            out.append(first ? "" : ",").append("{\"name\":").append(string(s.getName()));
+            first = false;
+            if (s instanceof ServiceAdapter adapter) {
+                out.append(",\"threading\":").append(string(adapter.getThreading().name().toLowerCase(Locale.ROOT)))
+                        .append(",\"errors\":").append(adapter.getErrorCount()).append(",\"latency\":");
+                histogram(out, adapter.getLatency());
+                ResultCache cache = adapter.getCache();
+                if (cache != null) {
+                    out.append(",\"cache\":{\"hits\":").append(cache.getHits())
+                            .append(",\"misses\":").append(cache.getMisses())
+                            .append(",\"evictions\":").append(cache.getEvictions())
+                            .append(",\"entries\":").append(cache.getEntryCount())
+                            .append(",\"bytes\":").append(cache.getSizeBytes()).append('}');
+                }
+            }
+            out.append('}');
+        }
+        out.append(']');
+        if (gateway != null) {
+            out.append(",\"backends\":[");
+            first = true;
+            for (Backend backend : gateway.getBackends()) {
+                out.append(first ? "" : ",").append("{\"address\":").append(string(backend.getName()))
+                        .append(",\"healthy\":").append(backend.isHealthy())
+                        .append(",\"inFlight\":").append(backend.getInFlight())
+                        .append(",\"requests\":").append(backend.getRequestCount())
+                        .append(",\"failures\":").append(backend.getFailureCount())
+                        .append(",\"services\":").append(backend.getServices().size()).append('}');
+                first = false;
+            }
+            out.append(']');
+        }
+        return out.append('}').toString();
+    }
+
+    private static void histogram(StringBuilder out, LatencyHistogram histogram) {
+        out.append("{\"count\":").append(histogram.getCount())
+                .append(",\"meanNanos\":").append(histogram.getMean());
+        for (double p : PERCENTILES) {
+            out.append(",\"p").append(String.valueOf(p).replace(".0", "").replace('.', '_')).append("Nanos\":")
+                    .append(histogram.getPercentile(p));
+        }
+        out.append(",\"maxNanos\":").append(histogram.getMax()).append('}');
+    }
+
+    private static String string(String value) {
+        if (value == null) {
+            return "null";
+        }
+        StringBuilder out = new StringBuilder("\"");
+        for (char c : value.toCharArray()) {
+            switch (c) {
+                case '"' -> out.append("\\\"");
+                case '\\' -> out.append("\\\\");
+                case '\n' -> out.append("\\n");
+                default -> {
+                    if (c < 0x20) {
+                        out.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        out.append(c);
+                    }
+                }
+            }
+        }
+        return out.append('"').toString();
+    }
+}
@@ -0,0 +1,190 @@
+package server;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Entrada de una ejecución en streaming: el hilo que lee las peticiones de la conexión añade los bloques
+ * que envía el cliente y el servicio los lee desde su propio hilo.
+ * <p>
+ * Los bytes pendientes de leer están limitados: si el servicio lee más despacio de lo que llegan, quien
+ * añade bloques espera, deja de leer del socket y el control de flujo de TCP frena al cliente. El motor no
+ * bloqueante no espera: comprueba antes si el bloque cabe ({@link #canOffer}) y, si no, deja de leer hasta que
+ * el servicio lea lo pendiente. Si el servicio termina o falla sin leer toda la entrada, el resto se descarta.
+ */
+class StreamInput extends InputStream {
+
+    private final long capacity;
+    private final long maxTotal;
+    // Avisa de que el servicio ha leído un bloque y puede caber otro
+    private final Runnable onSpace;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+    private final ArrayDeque<byte[]> chunks = new ArrayDeque<>();
+    private long buffered;
+    private long total;
+    private boolean ended;
+    private boolean closed;
+    private String abortMessage;
+    // Bloque que está leyendo el servicio; solo lo usa el hilo del servicio
+    private byte[] current;
+    private int position;
+
+    /**
+     * @param capacity Bytes que se pueden acumular sin que el servicio los lea.
+     * @param maxTotal Tamaño máximo de toda la entrada, o 0 si no tiene límite.
+     * @param onSpace Se llama cuando el servicio lee un bloque o deja de leer.
+     */
+    StreamInput(long capacity, long maxTotal, Runnable onSpace) {
+        this.capacity = capacity;
+        this.maxTotal = maxTotal;
+        this.onSpace = onSpace;
+    }
+
+    /**
+     * @return {@code true} si un bloque de {@code length} bytes se puede añadir sin esperar.
+     */
+    boolean canOffer(int length) {
+        lock.lock();
+        try {
+            return closed || buffered == 0 || buffered + length <= capacity;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Añade un bloque de la entrada, esperando si hay demasiados bytes pendientes de leer.
+     */
+    void offer(byte[] chunk) throws InterruptedIOException {
+        lock.lock();
+        try {
+            while (!closed && buffered > 0 && buffered + chunk.length > capacity) {
+                notFull.await();
+            }
+            if (closed || ended) {
+                return;
+            }
+            total += chunk.length;
+            if (maxTotal > 0 && total > maxTotal) {
+                abortMessage = "La entrada supera el máximo de " + maxTotal + " bytes para un servicio sin streaming.";
+                chunks.clear();
+                buffered = 0;
+                notEmpty.signalAll();
+                return;
+            }
+            chunks.add(chunk);
+            buffered += chunk.length;
+            notEmpty.signalAll();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrumpido esperando al servicio.");
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Marca el final de la entrada: cuando el servicio lea lo pendiente, recibirá el fin del flujo.
+     */
+    void end() {
+        lock.lock();
+        try {
+            ended = true;
+            notEmpty.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Interrumpe la entrada: la siguiente lectura del servicio falla con el mensaje indicado.
+     */
+    void abort(String message) {
+        lock.lock();
+        try {
+            if (!ended && abortMessage == null) {
+                abortMessage = message;
+            }
+            notEmpty.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] one = new byte[1];
+        return read(one, 0, 1) == -1 ? -1 : one[0] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (current == null || position == current.length) {
+            current = take();
+            position = 0;
+            if (current == null) {
+                return -1;
+            }
+        }
+        int n = Math.min(len, current.length - position);
+        System.arraycopy(current, position, b, off, n);
+        position += n;
+        return n;
+    }
+
+    private byte[] take() throws IOException {
+        byte[] chunk = null;
+        lock.lock();
+        try {
+            while (true) {
+                if (abortMessage != null) {
+                    throw new IOException(abortMessage);
+                }
+                chunk = chunks.poll();
+                if (chunk != null) {
+                    buffered -= chunk.length;
+                    notFull.signalAll();
+                    return chunk;
+                }
+                if (ended) {
+                    return null;
+                }
+                notEmpty.await();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrumpido esperando la entrada del cliente.");
+        } finally {
+            lock.unlock();
+            if (chunk != null) {
+                onSpace.run();
+            }
+        }
+    }
+
+    /**
+     * El servicio ha terminado: lo que llegue a partir de ahora se descarta.
+     */
+    @Override
+    public void close() {
+        lock.lock();
+        try {
+            closed = true;
+            chunks.clear();
+            buffered = 0;
+            notFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        onSpace.run();
+    }
+}
@@ -0,0 +1,20 @@
+package server;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Variante opcional de {@link Service} que procesa la entrada y produce la salida como flujos de bytes.
+ * El servidor la usa con {@code EXECUTE_STREAM} para pasar entradas de varios megabytes por el servicio
+ * con memoria acotada y enviar los primeros bytes de la respuesta antes de que el servicio termine.
+ */
+public interface StreamingService extends Service {
+
+    /**
+     * Ejecuta el servicio leyendo la entrada hasta el final y escribiendo el resultado.
+     * @param input La entrada del cliente, que llega por bloques a medida que la envía.
+     * @param output La salida hacia el cliente; cada escritura puede bloquearse hasta que el cliente lea.
+     */
+    void execute(InputStream input, OutputStream output) throws IOException;
+}
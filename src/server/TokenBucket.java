@@ -0,0 +1,63 @@
+package server;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cubeta de fichas sin bloqueos: admite {@code rate} peticiones por segundo de media y ráfagas de hasta
+ * {@code burst} peticiones seguidas.
+ * <p>
+ * En lugar de contar fichas guarda un único instante: cuándo estaría la cubeta vacía si se hubieran
+ * gastado todas las fichas consumidas hasta ahora. Cada petición lo adelanta lo que tarda en reponerse su
+ * coste; si eso lo llevaría más allá de la ráfaga permitida, la petición se rechaza sin cambiarlo. Así basta
+ * una comparación e intercambio, y el rechazo indica además cuánto falta para que haya fichas.
+ */
+final class TokenBucket {
+
+    private final long intervalNanos;
+    private final int burst;
+    private final long capacityNanos;
+    // Instante (System.nanoTime) en que se habrán repuesto todas las fichas gastadas
+    private final AtomicLong refilledAt;
+
+    TokenBucket(int rate, int burst) {
+        this.intervalNanos = TimeUnit.SECONDS.toNanos(1) / rate;
+        this.burst = burst;
+        this.capacityNanos = intervalNanos * burst;
+        this.refilledAt = new AtomicLong(System.nanoTime());
+    }
+
+    /**
+     * Consume las fichas de una petición si hay suficientes. Una petición nunca cuesta más que la ráfaga,
+     * para que un lote grande se pueda atender con la cubeta llena.
+     * @return 0 si se admite, o los nanosegundos que faltan para que haya fichas suficientes.
+     */
+    long tryAcquire(int cost, long now) {
+        long needed = intervalNanos * Math.min(cost, burst);
+        while (true) {
+            long current = refilledAt.get();
+            long next = (current - now > 0 ? current : now) + needed;
+            long wait = next - now - capacityNanos;
+            if (wait > 0) {
+                return wait;
+            }
+            if (refilledAt.compareAndSet(current, next)) {
+                return 0;
+            }
+        }
+    }
+
+    /**
+     * Devuelve las fichas de una petición admitida que al final no se atiende.
+     */
+    void refund(int cost) {
+        refilledAt.addAndGet(-intervalNanos * Math.min(cost, burst));
+    }
+
+    /**
+     * @return {@code true} si la cubeta está llena, es decir, si no se ha usado en el último periodo.
+     */
+    boolean isFull(long now) {
+        return refilledAt.get() - now <= 0;
+    }
+}
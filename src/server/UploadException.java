@@ -0,0 +1,11 @@
+package server;
+
+/**
+ * Subida de un jar rechazada. El mensaje se envía al cliente y la conexión sigue siendo utilizable.
+ */
+class UploadException extends Exception {
+
+    UploadException(String message) {
+        super(message);
+    }
+}
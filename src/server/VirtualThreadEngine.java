@@ -0,0 +1,86 @@
+package server;
+
+import java.io.IOException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Motor de conexiones con un hilo virtual por cliente. Cada conexión conserva el modelo
+ * bloqueante original, pero un cliente inactivo ya no ocupa la pila de un hilo de plataforma.
+ */
+class VirtualThreadEngine extends ConnectionEngine {
+
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+
+    VirtualThreadEngine(Server server, ServerConfig config) {
+        super(server, config);
+    }
+
+    @Override
+    void serve(List<ServerSocketChannel> listeners) throws IOException {
+        List<Thread> acceptors = new ArrayList<>();
+        for (ServerSocketChannel listener : listeners) {
+            acceptors.add(Thread.ofVirtual().name("acceptor-" + acceptors.size()).start(() -> acceptLoop(listener)));
+        }
+        try {
+            for (Thread acceptor : acceptors) {
+                acceptor.join();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private void acceptLoop(ServerSocketChannel listener) {
+        try {
+            listener.configureBlocking(true);
+        } catch (IOException e) {
+            Log.error("Error al preparar el canal de escucha", e);
+            return;
+        }
+        while (true) {
+            SocketChannel channel;
+            try {
+                channel = listener.accept();
+            } catch (ClosedChannelException e) {
+                // El canal se ha cerrado: el servidor deja de aceptar conexiones
+                return;
+            } catch (IOException e) {
+                // Un error al aceptar no detiene el servidor: se reintenta tras una pausa
+                Log.error("Error al aceptar una conexión", e);
+                try {
+                    Thread.sleep(ACCEPT_BACKOFF_MILLIS);
+                } catch (InterruptedException interrupted) {
+                    return;
+                }
+                continue;
+            }
+            if (admit(channel)) {
+                executor.execute(() -> handleClient(channel));
+            }
+        }
+    }
+
+    private void handleClient(SocketChannel channel) {
+        try (channel; ClientConnection connection = new ClientConnection(server, channel)) {
+            try {
+                connection.greet();
+                while (connection.handleCommand()) {
+                    // Atender comandos hasta que el cliente salga
+                }
+            } catch (IOException | RuntimeException e) {
+                connection.handleError(e);
+            }
+        } catch (IOException ignored) {
+        } finally {
+            release();
+        }
+    }
+}
@@ -14,17 +14,17 @@ rm -rf "$JAR_DIR"/*.jar
 # Crear el directorio jar si no existe
 mkdir -p "$JAR_DIR"
 
-# Compilar los archivos .java, excluyendo Service.java
+# Compilar los archivos .java, excluyendo las interfaces Service.java y StreamingService.java
 echo "Compilando archivos Java..."
 
-# Buscar todos los archivos .java en el directorio java, excepto Service.java
-find "$SOURCE_DIR" -name "*.java" ! -name "Service.java" > sources.txt
+# Buscar todos los archivos .java en el directorio java, excepto las interfaces
+find "$SOURCE_DIR" -name "*.java" ! -name "Service.java" ! -name "StreamingService.java" > sources.txt
 
 # Compilar los archivos encontrados
 javac -d "$JAR_DIR" @sources.txt
 
 # Crear un JAR por cada servicio
-for service in $(find "$SOURCE_DIR" -name "*.java" ! -name "Service.java"); do
+for service in $(find "$SOURCE_DIR" -name "*.java" ! -name "Service.java" ! -name "StreamingService.java"); do
     service_name=$(basename "$service" .java)
     echo "Creando JAR para $service_name..."
 
@@ -32,6 +32,7 @@ for service in $(find "$SOURCE_DIR" -name "*.java" ! -name "Service.java"); do
     mkdir -p "$JAR_DIR/$service_name"
     cp "$JAR_DIR/$SOURCE_DIR/$service_name.class" "$JAR_DIR/$service_name"  # Copiar el .class generado
     cp "$JAR_DIR/$SOURCE_DIR/Service.class" "$JAR_DIR/$service_name"  # Copiar el .class generado
+    cp "$JAR_DIR/$SOURCE_DIR/StreamingService.class" "$JAR_DIR/$service_name"  # Copiar el .class generado
 
     # Crear un archivo MANIFEST.MF con la clase completa del servicio
     mkdir -p "$JAR_DIR/$service_name/META-INF"
@@ -0,0 +1,41 @@
+package services.java;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Servicio que procesa su entrada y produce su salida como flujos de bytes, sin tenerlas enteras en memoria.
+ * El servidor le entrega la entrada a medida que llega del cliente y envía la salida a medida que el servicio
+ * la escribe, así que puede atender entradas de varios megabytes y empezar a responder antes de terminar.
+ */
+public interface StreamingService extends Service {
+
+    /**
+     * Ejecuta el servicio leyendo la entrada hasta el final y escribiendo el resultado.
+     * La escritura se bloquea si el cliente no lee la salida a tiempo.
+     * @param input La entrada del cliente; termina cuando el cliente termina de enviarla.
+     * @param output La salida hacia el cliente. No es necesario cerrarla.
+     */
+    void execute(InputStream input, OutputStream output) throws IOException;
+
+    /**
+     * Ejecuta el servicio con una entrada de texto, para los clientes que no usan streaming.
+     * @param input La entrada proporcionada al servicio.
+     * @return El resultado de la ejecución del servicio, en UTF-8.
+     */
+    @Override
+    default String execute(String input) {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        try {
+            execute(new ByteArrayInputStream(input.getBytes(StandardCharsets.UTF_8)), output);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return output.toString(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,45 @@
+package services.java;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+public class UpperCaseService implements StreamingService {
+
+    public UpperCaseService() {
+        // Constructor vacío
+    }
+
+    @Override
+    public String getName() {
+        return "Upper Case Service";
+    }
+
+    @Override
+    public void execute(InputStream input, OutputStream output) throws IOException {
+        // Se convierte por bloques: la memoria usada no depende del tamaño de la entrada
+        Reader reader = new BufferedReader(new InputStreamReader(input, StandardCharsets.UTF_8));
+        Writer writer = new BufferedWriter(new OutputStreamWriter(output, StandardCharsets.UTF_8));
+        char[] buffer = new char[8192];
+        int read;
+        while ((read = reader.read(buffer)) != -1) {
+            for (int i = 0; i < read; i++) {
+                buffer[i] = Character.toUpperCase(buffer[i]);
+            }
+            writer.write(buffer, 0, read);
+        }
+        writer.flush();
+    }
+
+    @Override
+    public String getHelp() {
+        return "This service converts the text to upper case. It accepts streamed input of any size.";
+    }
+}